@@ -0,0 +1,157 @@
+package com.geosparc.graph.alg;
+
+/**
+ * Path through a graph snapshot, as vertex and edge indices.
+ *
+ * A path points to the path it extends, so that extending a path does not copy it.
+ * Besides its weight, a path keeps its weight per budget (see {@link IndexedTracing}).
+ *
+ */
+public class IndexedPath {
+
+	private static final double[] NO_BUDGETS = new double[0];
+
+	private final IndexedPath parent;
+
+	private final int startVertex;
+
+	private final int edge;
+
+	private final int endVertex;
+
+	private final double weight;
+
+	private final double[] budgetWeights;
+
+	private final int length;
+
+	/**
+	 * Create a path of a single edge
+	 *
+	 * @param source the source vertex of the edge
+	 * @param edge the edge
+	 * @param target the target vertex of the edge
+	 * @param weight the weight of the edge
+	 * @param budgetWeights the weight of the edge per budget
+	 */
+	public IndexedPath(int source, int edge, int target, double weight, double[] budgetWeights) {
+		this.parent = null;
+		this.startVertex = source;
+		this.edge = edge;
+		this.endVertex = target;
+		this.weight = weight;
+		this.budgetWeights = budgetWeights.length == 0 ? NO_BUDGETS : budgetWeights;
+		this.length = 1;
+	}
+
+	/**
+	 * Create a path that extends another path with one edge
+	 *
+	 * @param parent the path to extend
+	 * @param edge the edge
+	 * @param target the target vertex of the edge
+	 * @param weight the weight of the path, including the edge
+	 * @param budgetWeights the weight of the path per budget, including the edge
+	 */
+	public IndexedPath(IndexedPath parent, int edge, int target, double weight, double[] budgetWeights) {
+		this.parent = parent;
+		this.startVertex = parent.startVertex;
+		this.edge = edge;
+		this.endVertex = target;
+		this.weight = weight;
+		this.budgetWeights = budgetWeights.length == 0 ? NO_BUDGETS : budgetWeights;
+		this.length = parent.length + 1;
+	}
+
+	/**
+	 * Estimated heap size of a path, with its own weights per budget and its place in a queue
+	 *
+	 * @param budgetCount the number of budgets
+	 * @return estimated bytes
+	 */
+	public static long estimateBytes(int budgetCount) {
+		// header, fields and reference, and the array of weights
+		return 56 + (budgetCount == 0 ? 0 : 16 + 8L * budgetCount);
+	}
+
+	/**
+	 * @return the path this path extends, null if this path is a single edge
+	 */
+	public IndexedPath getParent() {
+		return parent;
+	}
+
+	public int getStartVertex() {
+		return startVertex;
+	}
+
+	public int getEndVertex() {
+		return endVertex;
+	}
+
+	public int getLastEdge() {
+		return edge;
+	}
+
+	/**
+	 * @return the vertex indices, built on each call
+	 */
+	public int[] getVertices() {
+		int[] vertices = new int[length + 1];
+		vertices[0] = startVertex;
+		int i = length;
+		for (IndexedPath path = this; path != null; path = path.parent) {
+			vertices[i--] = path.endVertex;
+		}
+		return vertices;
+	}
+
+	/**
+	 * @return the edge indices, built on each call
+	 */
+	public int[] getEdges() {
+		int[] edges = new int[length];
+		int i = length - 1;
+		for (IndexedPath path = this; path != null; path = path.parent) {
+			edges[i--] = path.edge;
+		}
+		return edges;
+	}
+
+	/**
+	 * @param vertex the vertex index
+	 * @return true if the path passes the vertex before its end vertex
+	 */
+	public boolean passes(int vertex) {
+		for (IndexedPath path = parent; path != null; path = path.parent) {
+			if (path.endVertex == vertex) {
+				return true;
+			}
+		}
+		return startVertex == vertex;
+	}
+
+	public int getLength() {
+		return length;
+	}
+
+	public double getWeight() {
+		return weight;
+	}
+
+	/**
+	 * @param budget the budget
+	 * @return the weight of the edges of the path that count for the budget
+	 */
+	public double getBudgetWeight(int budget) {
+		return budgetWeights[budget];
+	}
+
+	/**
+	 * @return the weights per budget, do not modify
+	 */
+	double[] getBudgetWeights() {
+		return budgetWeights;
+	}
+
+}
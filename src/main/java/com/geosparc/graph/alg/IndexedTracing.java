@@ -0,0 +1,922 @@
+package com.geosparc.graph.alg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DirectedMultigraph;
+
+import com.geosparc.graph.base.DGraphSnapshot;
+import com.geosparc.graph.base.Deadline;
+import com.geosparc.graph.base.Idp;
+
+/**
+ * The tracing algorithm of {@link Tracing}, walking the primitive adjacency
+ * of a graph snapshot instead of a jgrapht graph.
+ *
+ * Masks work like those of {@link org.jgrapht.graph.MaskSubgraph}: a masked
+ * vertex is left out together with all its edges.
+ *
+ * @param <I> identifier class
+ * @param <V> vertex data class
+ * @param <E> edge data class
+ */
+public class IndexedTracing<I, V, E> {
+
+	/**
+	 * the number of steps of a search between checks of the deadline
+	 */
+	private static final int DEADLINE_INTERVAL = 256;
+
+	private final DGraphSnapshot<I, V, E> graph;
+
+	private final IntPredicate vertexMask;
+
+	private final IntPredicate edgeMask;
+
+	private boolean limitReached;
+
+	private Deadline deadline;
+
+	private boolean deadlineReached;
+
+	private long maxPathBytes = Long.MAX_VALUE;
+
+	/**
+	 * the number of edges the search took so far
+	 */
+	private long takenEdges;
+
+	private boolean pathBudgetReached;
+
+	/**
+	 * Create a new instance
+	 *
+	 * @param graph the input graph (use the reversed snapshot to trace upstream)
+	 */
+	public IndexedTracing(DGraphSnapshot<I, V, E> graph) {
+		this(graph, v -> false, e -> false);
+	}
+
+	/**
+	 * Create a new instance
+	 *
+	 * @param graph the input graph (use the reversed snapshot to trace upstream)
+	 * @param vertexMask vertices to leave out
+	 * @param edgeMask edges to leave out
+	 */
+	public IndexedTracing(DGraphSnapshot<I, V, E> graph,
+			IntPredicate vertexMask, IntPredicate edgeMask) {
+		this.graph = graph;
+		this.vertexMask = vertexMask;
+		this.edgeMask = edgeMask;
+	}
+
+	public DGraphSnapshot<I, V, E> getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Stop searching at a deadline, with the result as far as the search got.
+	 *
+	 * @param deadline the deadline, null for none
+	 */
+	public void setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+	}
+
+	public Deadline getDeadline() {
+		return deadline;
+	}
+
+	/**
+	 * Stop enumerating paths when they take more memory than this, with the paths so far.
+	 * Paths share their beginnings, so each edge of a path that was extended counts once.
+	 *
+	 * @param maxPathBytes the estimated size of the paths, see {@link IndexedPath#estimateBytes}
+	 */
+	public void setMaxPathBytes(long maxPathBytes) {
+		this.maxPathBytes = maxPathBytes;
+	}
+
+	/**
+	 * @param vertex the vertex index
+	 * @return true if the vertex is not masked
+	 */
+	public boolean containsVertex(int vertex) {
+		return !vertexMask.test(vertex);
+	}
+
+	/**
+	 * @param edge the edge index
+	 * @return true if neither the edge nor one of its vertices is masked
+	 */
+	public boolean containsEdge(int edge) {
+		return !edgeMask.test(edge)
+				&& !vertexMask.test(graph.getEdgeSource(edge))
+				&& !vertexMask.test(graph.getEdgeTarget(edge));
+	}
+
+	/**
+	 * Calculate (and return) all paths from the source vertex, limited by a custom predicate.
+	 *
+	 * @param sourceVertex the source vertex, if starting from a vertex, otherwise -1
+	 * @param sourceEdge the source edge, if starting from an edge, otherwise -1
+	 * @param simplePathsOnly if true, only search simple (non-self-intersecting) paths
+	 * 		if this is false, the predicate must eventually end every trace or we will
+	 * 		get an infinite loop!
+	 * @param predicate defines when to continue (true) or finalize (false) path
+	 * @param maxEdges maximum number of edges
+	 * @param ignorePaths If true, do not calculate all possible paths, but stop when an already visited vertex is met.
+	 *      This means that predicates and limits can not be calculated correctly.
+	 *
+	 * @return list of all paths
+	 */
+	public final List<IndexedPath> getAllPaths(int sourceVertex, int sourceEdge,
+			boolean simplePathsOnly, Predicate<IndexedPath> predicate,
+			long maxEdges, boolean ignorePaths) {
+		return getAllPaths(sourceVertex, sourceEdge, simplePathsOnly, predicate,
+				maxEdges, ignorePaths, e -> -1, 0);
+	}
+
+	/**
+	 * Calculate (and return) all paths from the source vertex, limited by a custom predicate,
+	 * keeping the weight of each path per budget.
+	 *
+	 * @param sourceVertex the source vertex, if starting from a vertex, otherwise -1
+	 * @param sourceEdge the source edge, if starting from an edge, otherwise -1
+	 * @param simplePathsOnly if true, only search simple (non-self-intersecting) paths
+	 * 		if this is false, the predicate must eventually end every trace or we will
+	 * 		get an infinite loop!
+	 * @param predicate defines when to continue (true) or finalize (false) path
+	 * @param maxEdges maximum number of edges
+	 * @param ignorePaths If true, do not calculate all possible paths, but stop when an already visited vertex is met.
+	 *      This means that predicates and limits can not be calculated correctly.
+	 * @param edgeBudgets the budget of each edge, or -1 if it does not count for a budget
+	 * @param budgetCount the number of budgets
+	 *
+	 * @return list of all paths
+	 */
+	public final List<IndexedPath> getAllPaths(int sourceVertex, int sourceEdge,
+			boolean simplePathsOnly, Predicate<IndexedPath> predicate,
+			long maxEdges, boolean ignorePaths, IntUnaryOperator edgeBudgets, int budgetCount) {
+
+		if (sourceVertex < 0 && sourceEdge < 0) {
+			throw new IllegalArgumentException("no source vertex or edge");
+		}
+
+		if (sourceVertex >= 0 && sourceEdge >= 0 && graph.getEdgeSource(sourceEdge) != sourceVertex) {
+			throw new IllegalArgumentException("provided both source edge and vertex that don't match");
+		}
+
+		List<IndexedPath> completePaths = new ArrayList<>();
+		Deque<IndexedPath> incompletePaths = new ArrayDeque<>();
+		BitSet visitedVertices = new BitSet(graph.getVertexCount());
+
+		// Bootstrap the search with the source vertices
+		if (sourceEdge < 0) {
+			for (int k = graph.getOutgoingStart(sourceVertex); k < graph.getOutgoingEnd(sourceVertex); k++) {
+				int edge = graph.getOutgoingEdge(k);
+				if (containsEdge(edge)) {
+					incompletePaths.add(newPath(edge, edgeBudgets, budgetCount));
+				}
+			}
+		} else {
+			incompletePaths.add(newPath(sourceEdge, edgeBudgets, budgetCount));
+		}
+
+		limitReached = false;
+		deadlineReached = false;
+		pathBudgetReached = false;
+
+		long edgeCounter = 0;
+		long steps = 0;
+		// every edge that extends a path creates a path
+		long maxPaths = maxPathBytes / IndexedPath.estimateBytes(budgetCount) - incompletePaths.size();
+
+		// the paths are walked depth first, so the vertices before the end of a path are those
+		// of the path extended last, up to its length: the start vertex and the end of each parent
+		int[] pathVertices = new int[16];
+		BitSet onPath = new BitSet(graph.getVertexCount());
+		int depth = 0;
+		if (!incompletePaths.isEmpty()) {
+			pathVertices[depth++] = incompletePaths.peek().getStartVertex();
+			onPath.set(pathVertices[0]);
+		}
+
+		// Walk through the queue of incomplete paths
+		for (IndexedPath incompletePath; (incompletePath = incompletePaths.poll()) != null;) {
+
+			while (depth > incompletePath.getLength()) {
+				onPath.clear(pathVertices[--depth]);
+			}
+
+			if (edgeCounter > maxPaths) {
+				pathBudgetReached = true;
+			}
+			if (pathBudgetReached || isPastDeadline(steps++)) {
+				// the paths as far as they got
+				completePaths.add(incompletePath);
+				completePaths.addAll(incompletePaths);
+				break;
+			}
+
+			if (edgeCounter >= maxEdges ||
+					ignorePaths && visitedVertices.get(incompletePath.getEndVertex()) ||
+					simplePathsOnly && onPath.get(incompletePath.getEndVertex()) ||
+					!predicate.test(incompletePath)) {
+
+				if (edgeCounter >= maxEdges) {
+					limitReached = true;
+				}
+
+				completePaths.add(incompletePath);
+
+			} else { // look further
+
+				int endVertex = incompletePath.getEndVertex();
+				visitedVertices.set(endVertex);
+
+				if (depth == pathVertices.length) {
+					pathVertices = Arrays.copyOf(pathVertices, 2 * depth);
+				}
+				pathVertices[depth++] = endVertex;
+				onPath.set(endVertex);
+
+				boolean noValidEdges = true;
+
+				for (int k = graph.getOutgoingStart(endVertex); k < graph.getOutgoingEnd(endVertex); k++) {
+					int outEdge = graph.getOutgoingEdge(k);
+					if (!containsEdge(outEdge)) {
+						continue;
+					}
+
+					edgeCounter++;
+					if (edgeCounter >= maxEdges) {
+						limitReached = true;
+						break;
+					}
+
+					noValidEdges = false;
+
+					incompletePaths.addFirst(addToPath(incompletePath, outEdge, edgeBudgets));
+						// We use incompletePaths in FIFO mode to avoid memory blowup
+				}
+
+				if (noValidEdges) {
+					completePaths.add(incompletePath);
+				}
+			}
+		}
+
+		return completePaths;
+	}
+
+	/**
+	 * Calculate the edges of all paths from the source vertex that stay within a maximum weight,
+	 * and within a maximum weight per budget. Gives the same edges as {@link #getAllPaths} with
+	 * simple paths and a predicate on these weights, but with a label-setting search that keeps
+	 * only the labels (weights per budget) of a vertex that are not dominated by another label,
+	 * instead of enumerating every path. Edge weights must not be negative.
+	 *
+	 * Without budgets, this is a plain shortest-first search, which also gives the same edges
+	 * as {@link #getAllPaths} ignoring paths without a predicate.
+	 *
+	 * The part of a chain of edges (see {@link DGraphSnapshot#getChainLength}) that is within the
+	 * maximums is taken at once, with the weights summed in advance, instead of queueing a label for
+	 * each vertex of the chain. With a limit, the edges are those the search took first, a part
+	 * of a chain in the order of its edges.
+	 *
+	 * @param sourceVertex the source vertex, if starting from a vertex, otherwise -1
+	 * @param sourceEdge the source edge, if starting from an edge, otherwise -1
+	 * @param maxWeight maximum weight of a path
+	 * @param edgeBudgets the budget of each edge, or -1 if it only counts for the maximum weight
+	 * @param maxBudgetWeights maximum weight of a path per budget
+	 * @param maxEdges maximum number of edges
+	 * @param minimumWeights if not null, filled with the minimum weight of a path within the maximums
+	 * 		to each vertex (plus the edge that exceeds them), infinite for vertices that are not reached
+	 *
+	 * @return the edges, each path including the first edge that exceeds a maximum
+	 */
+	public final BitSet getEdgesWithinWeights(int sourceVertex, int sourceEdge,
+			double maxWeight, IntUnaryOperator edgeBudgets, double[] maxBudgetWeights,
+			long maxEdges, double[] minimumWeights) {
+
+		if (sourceVertex < 0 && sourceEdge < 0) {
+			throw new IllegalArgumentException("no source vertex or edge");
+		}
+
+		if (sourceVertex >= 0 && sourceEdge >= 0 && graph.getEdgeSource(sourceEdge) != sourceVertex) {
+			throw new IllegalArgumentException("provided both source edge and vertex that don't match");
+		}
+
+		BitSet edges = new BitSet(graph.getEdgeCount());
+		// per vertex, the labels that were expanded, none of them dominated by another
+		@SuppressWarnings("unchecked")
+		List<double[]>[] settled = new List[graph.getVertexCount()];
+		// without budgets, the first label of a vertex dominates all others
+		BitSet settledVertices = new BitSet(graph.getVertexCount());
+		PriorityQueue<Label> queue = new PriorityQueue<>();
+
+		limitReached = false;
+		deadlineReached = false;
+		takenEdges = 0;
+
+		if (minimumWeights != null) {
+			Arrays.fill(minimumWeights, Double.POSITIVE_INFINITY);
+		}
+
+		// a path starting from an edge can not pass its source again
+		int blockedVertex = -1;
+		if (sourceEdge < 0) {
+			queue.add(new Label(sourceVertex, new double[maxBudgetWeights.length + 1]));
+			if (minimumWeights != null) {
+				minimumWeights[sourceVertex] = 0;
+			}
+		} else {
+			edges.set(sourceEdge);
+			takenEdges++;
+			blockedVertex = graph.getEdgeSource(sourceEdge);
+			if (minimumWeights != null) {
+				minimumWeights[blockedVertex] = 0;
+			}
+			Label label = takeChain(edges, new double[maxBudgetWeights.length + 1], sourceEdge, blockedVertex,
+					maxWeight, edgeBudgets, maxBudgetWeights, maxEdges, minimumWeights);
+			if (label != null) {
+				queue.add(label);
+			}
+		}
+
+		long steps = 0;
+
+		for (Label label; !limitReached && (label = queue.poll()) != null;) {
+			if (isPastDeadline(steps++)) {
+				return edges;
+			}
+			if (maxBudgetWeights.length == 0) {
+				if (settledVertices.get(label.vertex)) {
+					continue;
+				}
+				settledVertices.set(label.vertex);
+			} else {
+				List<double[]> labels = settled[label.vertex];
+				if (labels == null) {
+					labels = new ArrayList<>(2);
+					settled[label.vertex] = labels;
+				}
+				if (isDominated(label.weights, labels)) {
+					continue;
+				}
+				labels.add(label.weights);
+			}
+
+			for (int k = graph.getOutgoingStart(label.vertex); k < graph.getOutgoingEnd(label.vertex)
+					&& !limitReached; k++) {
+				int outEdge = graph.getOutgoingEdge(k);
+				if (!containsEdge(outEdge)) {
+					continue;
+				}
+				Label next = takeChain(edges, label.weights, outEdge, blockedVertex,
+						maxWeight, edgeBudgets, maxBudgetWeights, maxEdges, minimumWeights);
+				if (next != null) {
+					queue.add(next);
+				}
+			}
+		}
+
+		return edges;
+	}
+
+	/**
+	 * Take the edges of the chain from an edge on at once, for a label of its source: as far as the weights
+	 * stay within the maximums, including the edge that exceeds them, or up to the limit.
+	 *
+	 * @return the label at the end of the chain, null if the search does not continue from there
+	 */
+	private Label takeChain(BitSet edges, double[] weights, int edge, int blockedVertex,
+			double maxWeight, IntUnaryOperator edgeBudgets, double[] maxBudgetWeights,
+			long maxEdges, double[] minimumWeights) {
+		int budget = edgeBudgets.applyAsInt(edge);
+		int length = getChainLength(edge, vertex -> vertex == blockedVertex, this::containsEdge,
+				next -> edgeBudgets.applyAsInt(next) == budget);
+		int within = graph.getChainCount(edge, length, weights[0], maxWeight);
+		if (budget >= 0) {
+			within = Math.min(within,
+					graph.getChainCount(edge, within, weights[budget + 1], maxBudgetWeights[budget]));
+		}
+
+		for (int distance = 0; distance < length && distance <= within; distance++) {
+			int chainEdge = graph.getChainEdge(edge, distance);
+			if (!edges.get(chainEdge)) {
+				if (takenEdges >= maxEdges) {
+					limitReached = true;
+					return null;
+				}
+				edges.set(chainEdge);
+				takenEdges++;
+			}
+			if (minimumWeights != null) {
+				int target = graph.getEdgeTarget(chainEdge);
+				minimumWeights[target] = Math.min(minimumWeights[target],
+						weights[0] + graph.getChainWeight(edge, distance + 1));
+			}
+		}
+
+		int target = graph.getEdgeTarget(graph.getChainEdge(edge, length - 1));
+		if (within < length || target == blockedVertex) {
+			return null;
+		}
+		double[] result = weights.clone();
+		double weight = graph.getChainWeight(edge, length);
+		result[0] += weight;
+		if (budget >= 0) {
+			result[budget + 1] += weight;
+		}
+		return new Label(target, result);
+	}
+
+	/**
+	 * The number of edges of the chain from an edge on that a search can take at once:
+	 * up to an edge that is left out or does not match the first, or up to a vertex
+	 * where the search has to stop.
+	 *
+	 * @param edge the first edge, which is not left out
+	 * @param stops the vertices to stop at
+	 * @param contains the edges that are not left out
+	 * @param matches the edges that can be taken together with the first
+	 * @return the number of edges, at least 1
+	 */
+	private int getChainLength(int edge, IntPredicate stops, IntPredicate contains, IntPredicate matches) {
+		int length = graph.getChainLength(edge);
+		for (int distance = 1; distance < length; distance++) {
+			int next = graph.getChainEdge(edge, distance);
+			if (stops.test(graph.getEdgeSource(next)) || !contains.test(next) || !matches.test(next)) {
+				return distance;
+			}
+		}
+		return length;
+	}
+
+	/**
+	 * Calculate the edges of all paths from a number of sources that stay within a maximum weight,
+	 * as {@link #getEdgesWithinWeights} would for each source, in a single traversal.
+	 * A vertex keeps the sources that have to continue from it, and the sources that arrive
+	 * while it waits are merged, so that the region the sources share is traversed once for all
+	 * of them rather than once per source. Edge weights must not be negative.
+	 *
+	 * A vertex is queued with the lowest weight of its pending sources, and the sources with a higher
+	 * weight continue from it together with that one, before their own weight there may be final. A source
+	 * continues from a vertex again each time its weight there is lowered afterwards, which can only
+	 * happen over a path with a lower weight, so at worst once per path from the source to the vertex
+	 * within the maximum weight. With a single source, each vertex is continued from once.
+	 *
+	 * With a limit, the sources are searched one by one instead, as the limit applies to each of them.
+	 *
+	 * @param sourceVertices per source, the source vertex
+	 * @param sourceEdges per source, the source edge, or -1 if starting from the source vertex
+	 * @param maxWeight maximum weight of a path
+	 * @param maxEdges maximum number of edges, for each source
+	 * @param minimumWeights filled with the minimum weight of a path within the maximum from each source
+	 * 		to each vertex (plus the edge that exceeds it)
+	 *
+	 * @return the edges, each path including the first edge that exceeds the maximum
+	 */
+	public final BitSet getEdgesFromSources(int[] sourceVertices, int[] sourceEdges,
+			double maxWeight, long maxEdges, SourceDistances minimumWeights) {
+		if (maxEdges < Long.MAX_VALUE) {
+			return getEdgesPerSource(sourceVertices, sourceEdges, maxWeight, maxEdges, minimumWeights);
+		}
+
+		BitSet edges = new BitSet(graph.getEdgeCount());
+		// the mask of each edge is evaluated only once
+		BitSet checkedEdges = new BitSet(graph.getEdgeCount());
+		BitSet containedEdges = new BitSet(graph.getEdgeCount());
+		IntPredicate contains = edge -> {
+			if (!checkedEdges.get(edge)) {
+				checkedEdges.set(edge);
+				containedEdges.set(edge, containsEdge(edge));
+			}
+			return containedEdges.get(edge);
+		};
+		// a path starting from an edge can not pass its source again
+		int[] blockedVertices = new int[sourceVertices.length];
+		BitSet anyBlocked = new BitSet(graph.getVertexCount());
+		PriorityQueue<Label> queue = new PriorityQueue<>();
+
+		limitReached = false;
+		deadlineReached = false;
+		minimumWeights.clear(graph.getVertexCount());
+
+		for (int source = 0; source < sourceVertices.length; source++) {
+			blockedVertices[source] = sourceEdges[source] < 0 ? -1 : graph.getEdgeSource(sourceEdges[source]);
+			if (blockedVertices[source] >= 0) {
+				anyBlocked.set(blockedVertices[source]);
+			}
+		}
+
+		for (int source = 0; source < sourceVertices.length; source++) {
+			if (sourceEdges[source] < 0) {
+				SourceDistances.Reached reached = minimumWeights.getReached(sourceVertices[source]);
+				reached.weights[source] = 0;
+				reached.pending.set(source);
+				queue.add(new Label(reached.vertex, new double[1]));
+			} else {
+				int sourceEdge = sourceEdges[source];
+				SourceDistances.Reached reached = minimumWeights.getReached(blockedVertices[source]);
+				reached.weights[source] = 0;
+				BitSet sources = new BitSet();
+				sources.set(source);
+				Label label = takeChain(edges, minimumWeights, reached, sources, sourceEdge,
+						blockedVertices, anyBlocked, contains, maxWeight);
+				if (label != null) {
+					queue.add(label);
+				}
+			}
+		}
+
+		long steps = 0;
+
+		for (Label label; (label = queue.poll()) != null;) {
+			if (isPastDeadline(steps++)) {
+				return edges;
+			}
+			SourceDistances.Reached reached = minimumWeights.getReached(label.vertex);
+			if (reached.pending.isEmpty()) {
+				continue;
+			}
+			BitSet sources = (BitSet) reached.pending.clone();
+			reached.pending.clear();
+
+			for (int k = graph.getOutgoingStart(label.vertex); k < graph.getOutgoingEnd(label.vertex); k++) {
+				int outEdge = graph.getOutgoingEdge(k);
+				if (!contains.test(outEdge)) {
+					continue;
+				}
+				Label next = takeChain(edges, minimumWeights, reached, sources, outEdge,
+						blockedVertices, anyBlocked, contains, maxWeight);
+				if (next != null) {
+					queue.add(next);
+				}
+			}
+		}
+
+		return edges;
+	}
+
+	/**
+	 * {@link #getEdgesFromSources} with a search per source, each within the maximum number of edges
+	 */
+	private BitSet getEdgesPerSource(int[] sourceVertices, int[] sourceEdges,
+			double maxWeight, long maxEdges, SourceDistances minimumWeights) {
+		BitSet edges = new BitSet(graph.getEdgeCount());
+		double[] weights = new double[graph.getVertexCount()];
+		boolean sourceLimitReached = false;
+		deadlineReached = false;
+		minimumWeights.clear(graph.getVertexCount());
+		for (int source = 0; source < sourceVertices.length && !deadlineReached; source++) {
+			edges.or(getEdgesWithinWeights(sourceVertices[source], sourceEdges[source], maxWeight,
+					e -> -1, new double[0], maxEdges, weights));
+			sourceLimitReached = sourceLimitReached || limitReached;
+			for (int vertex = 0; vertex < weights.length; vertex++) {
+				if (weights[vertex] < Double.POSITIVE_INFINITY) {
+					minimumWeights.getReached(vertex).weights[source] = weights[vertex];
+				}
+			}
+		}
+		limitReached = sourceLimitReached;
+		return edges;
+	}
+
+	/**
+	 * Take the edges of the chain from an edge on at once, for a number of sources: as far as any of them
+	 * is within the maximum weight, including the edge that exceeds it. Lower the weights of the vertices
+	 * on the way for each source, and mark the end of the chain pending for the sources that are within
+	 * the maximum weight. The chain ends at the source of a source edge, for which it is blocked.
+	 *
+	 * @return the label to queue the end of the chain with, null if it is not pending for any of the sources
+	 */
+	private Label takeChain(BitSet edges, SourceDistances minimumWeights, SourceDistances.Reached from,
+			BitSet sources, int edge, int[] blockedVertices, BitSet anyBlocked, IntPredicate contains,
+			double maxWeight) {
+		int length = getChainLength(edge, anyBlocked::get, contains, next -> true);
+		double first = Double.POSITIVE_INFINITY;
+		for (int source = sources.nextSetBit(0); source >= 0; source = sources.nextSetBit(source + 1)) {
+			first = Math.min(first, from.weights[source]);
+		}
+		int within = graph.getChainCount(edge, length, first, maxWeight);
+
+		// the vertices within the chain are only reached over the chain
+		for (int distance = 0; distance < length && distance <= within; distance++) {
+			int chainEdge = graph.getChainEdge(edge, distance);
+			edges.set(chainEdge);
+			if (distance == length - 1) {
+				break;
+			}
+			double before = graph.getChainWeight(edge, distance);
+			double weight = graph.getChainWeight(edge, distance + 1);
+			SourceDistances.Reached to = minimumWeights.getReached(graph.getEdgeTarget(chainEdge));
+			for (int source = sources.nextSetBit(0); source >= 0; source = sources.nextSetBit(source + 1)) {
+				if (DGraphSnapshot.isWithin(from.weights[source] + before, maxWeight)) {
+					to.weights[source] = Math.min(to.weights[source], from.weights[source] + weight);
+				}
+			}
+		}
+
+		return within < length - 1 ? null :
+			relax(minimumWeights, from, sources, edge, length, blockedVertices, maxWeight);
+	}
+
+	/**
+	 * Lower the weights of the end of a part of a chain for a number of sources,
+	 * and mark it pending for the sources that are within the maximum weight
+	 *
+	 * @param edge the first edge of the part of the chain
+	 * @param count the number of edges of the part of the chain
+	 * @return the label to queue the end with, null if it is not pending for any of the sources
+	 */
+	private Label relax(SourceDistances minimumWeights,
+			SourceDistances.Reached from, BitSet sources, int edge, int count, int[] blockedVertices,
+			double maxWeight) {
+		int target = graph.getEdgeTarget(graph.getChainEdge(edge, count - 1));
+		double before = graph.getChainWeight(edge, count - 1);
+		double chainWeight = graph.getChainWeight(edge, count);
+		SourceDistances.Reached to = null;
+		boolean pending = false;
+		double first = Double.POSITIVE_INFINITY;
+		for (int source = sources.nextSetBit(0); source >= 0; source = sources.nextSetBit(source + 1)) {
+			// a source that exceeds the maximum within the chain does not get this far
+			if (target == blockedVertices[source]
+					|| !DGraphSnapshot.isWithin(from.weights[source] + before, maxWeight)) {
+				continue;
+			}
+			if (to == null) {
+				to = minimumWeights.getReached(target);
+			}
+			double weight = from.weights[source] + chainWeight;
+			if (weight < to.weights[source]) {
+				to.weights[source] = weight;
+				if (DGraphSnapshot.isWithin(weight, maxWeight)) {
+					to.pending.set(source);
+					pending = true;
+					first = Math.min(first, weight);
+				}
+			}
+		}
+		return pending ? new Label(target, new double[] {first}) : null;
+	}
+
+	private static boolean isDominated(double[] weights, List<double[]> labels) {
+		for (double[] label : labels) {
+			boolean dominates = true;
+			for (int i = 0; i < weights.length && dominates; i++) {
+				dominates = label[i] <= weights[i];
+			}
+			if (dominates) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Calculate the minimum weight from the source vertex to each vertex, only passing a set of edges
+	 *
+	 * @param sourceVertex the source vertex
+	 * @param edges the edges
+	 * @return the minimum weight per vertex index, infinite for vertices that are not reached
+	 */
+	public double[] getMinimumWeights(int sourceVertex, BitSet edges) {
+		return getMinimumWeights(sourceVertex, -1, edges);
+	}
+
+	/**
+	 * Calculate the minimum weight from the source vertex or edge to each vertex, only passing a set of edges.
+	 * A path starting from an edge does not pass its source vertex again, as in {@link #getEdgesWithinWeights}.
+	 *
+	 * @param sourceVertex the source vertex
+	 * @param sourceEdge the source edge, if starting from an edge, otherwise -1
+	 * @param edges the edges
+	 * @return the minimum weight per vertex index, infinite for vertices that are not reached
+	 */
+	public double[] getMinimumWeights(int sourceVertex, int sourceEdge, BitSet edges) {
+		double[] result = new double[graph.getVertexCount()];
+		Arrays.fill(result, Double.POSITIVE_INFINITY);
+		BitSet settledVertices = new BitSet(graph.getVertexCount());
+		PriorityQueue<Label> queue = new PriorityQueue<>();
+		result[sourceVertex] = 0;
+		if (sourceEdge < 0) {
+			queue.add(new Label(sourceVertex, new double[1]));
+		} else {
+			settledVertices.set(sourceVertex);
+			int target = graph.getEdgeTarget(sourceEdge);
+			double weight = graph.getEdgeWeight(sourceEdge);
+			if (weight < result[target]) {
+				result[target] = weight;
+				queue.add(new Label(target, new double[] {weight}));
+			}
+		}
+		for (Label label; (label = queue.poll()) != null;) {
+			if (settledVertices.get(label.vertex)) {
+				continue;
+			}
+			settledVertices.set(label.vertex);
+			for (int k = graph.getOutgoingStart(label.vertex); k < graph.getOutgoingEnd(label.vertex); k++) {
+				int outEdge = graph.getOutgoingEdge(k);
+				int target = graph.getEdgeTarget(outEdge);
+				double weight = label.weights[0] + graph.getEdgeWeight(outEdge);
+				if (edges.get(outEdge) && weight < result[target]) {
+					result[target] = weight;
+					queue.add(new Label(target, new double[] {weight}));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns if limit was reached in last tracing call
+	 *
+	 * @return if limit was reached
+	 */
+	public boolean isLimitReached() {
+		return limitReached;
+	}
+
+	/**
+	 * Returns if the paths exceeded their memory in last call to enumerate paths
+	 *
+	 * @return if the memory of the paths was exceeded
+	 */
+	public boolean isPathBudgetReached() {
+		return pathBudgetReached;
+	}
+
+	/**
+	 * Returns if the deadline was reached in last tracing call
+	 *
+	 * @return if the deadline was reached
+	 */
+	public boolean isDeadlineReached() {
+		return deadlineReached;
+	}
+
+	/**
+	 * Check the deadline, at the first step of a search and every so many steps after
+	 *
+	 * @param step the number of the step, from 0
+	 * @return true if the deadline was reached
+	 */
+	private boolean isPastDeadline(long step) {
+		if (deadline != null && step % DEADLINE_INTERVAL == 0 && deadline.isReached()) {
+			deadlineReached = true;
+		}
+		return deadlineReached;
+	}
+
+	/**
+	 * Return list of paths as a single graph, in the direction of the snapshot
+	 *
+	 * @return tree graph
+	 */
+	public Graph<Idp<I, V>, Idp<I, E>> asGraph(List<IndexedPath> paths) {
+		return asGraph(paths, graph::getVertex, graph::getEdge);
+	}
+
+	/**
+	 * Return list of paths as a single graph, in the direction of the snapshot,
+	 * creating each vertex and edge only once.
+	 *
+	 * @param paths the paths
+	 * @param vertices creates the vertex for a vertex index
+	 * @param edges creates the edge for an edge index
+	 * @return tree graph
+	 */
+	public Graph<Idp<I, V>, Idp<I, E>> asGraph(List<IndexedPath> paths,
+			IntFunction<Idp<I, V>> vertices, IntFunction<Idp<I, E>> edges) {
+		Graph<Idp<I, V>, Idp<I, E>> result = new DirectedMultigraph<>(null, null, true);
+		Map<Integer, Idp<I, V>> resultVertices = new HashMap<>();
+		Map<Integer, Idp<I, E>> resultEdges = new HashMap<>();
+		// paths share their beginnings, which only have to be added once
+		Set<IndexedPath> added = Collections.newSetFromMap(new IdentityHashMap<>());
+		Deque<IndexedPath> remaining = new ArrayDeque<>();
+		for (IndexedPath path : paths) {
+			for (IndexedPath part = path; part != null && added.add(part); part = part.getParent()) {
+				remaining.push(part);
+			}
+			for (IndexedPath part; (part = remaining.poll()) != null;) {
+				int edgeIndex = part.getLastEdge();
+				if (!resultEdges.containsKey(edgeIndex)) {
+					Idp<I, V> source = resultVertices.computeIfAbsent(graph.getEdgeSource(edgeIndex), vertices::apply);
+					Idp<I, V> target = resultVertices.computeIfAbsent(part.getEndVertex(), vertices::apply);
+					Idp<I, E> edge = edges.apply(edgeIndex);
+					resultEdges.put(edgeIndex, edge);
+					result.addVertex(source);
+					result.addVertex(target);
+					result.addEdge(source, target, edge);
+					result.setEdgeWeight(edge, graph.getEdgeWeight(edgeIndex));
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Return a set of edges as a single graph, in the direction of the snapshot,
+	 * creating each vertex and edge only once.
+	 *
+	 * @param edges the edge indices
+	 * @param vertices creates the vertex for a vertex index
+	 * @param edgeFactory creates the edge for an edge index
+	 * @return tree graph
+	 */
+	public Graph<Idp<I, V>, Idp<I, E>> asGraph(BitSet edges,
+			IntFunction<Idp<I, V>> vertices, IntFunction<Idp<I, E>> edgeFactory) {
+		Graph<Idp<I, V>, Idp<I, E>> result = new DirectedMultigraph<>(null, null, true);
+		Map<Integer, Idp<I, V>> resultVertices = new HashMap<>();
+		for (int edge = edges.nextSetBit(0); edge >= 0; edge = edges.nextSetBit(edge + 1)) {
+			Idp<I, V> source = resultVertices.computeIfAbsent(graph.getEdgeSource(edge), vertices::apply);
+			Idp<I, V> target = resultVertices.computeIfAbsent(graph.getEdgeTarget(edge), vertices::apply);
+			Idp<I, E> resultEdge = edgeFactory.apply(edge);
+			result.addVertex(source);
+			result.addVertex(target);
+			result.addEdge(source, target, resultEdge);
+			result.setEdgeWeight(resultEdge, graph.getEdgeWeight(edge));
+		}
+		return result;
+	}
+
+	/**
+	 * Adds one edge to a path
+	 *
+	 * @param path the old path
+	 * @param edge the new edge
+	 * @param edgeBudgets the budget of each edge
+	 *
+	 * @return the new path
+	 */
+	private IndexedPath addToPath(IndexedPath path, int edge, IntUnaryOperator edgeBudgets) {
+		double weight = graph.getEdgeWeight(edge);
+		double[] budgetWeights = path.getBudgetWeights();
+		int budget = edgeBudgets.applyAsInt(edge);
+		if (budget >= 0) {
+			budgetWeights = budgetWeights.clone();
+			budgetWeights[budget] += weight;
+		}
+		return new IndexedPath(path, edge, graph.getEdgeTarget(edge), path.getWeight() + weight, budgetWeights);
+	}
+
+	/**
+	 * Creates new path from a single edge
+	 *
+	 * @param edge the edge
+	 * @param edgeBudgets the budget of each edge
+	 * @param budgetCount the number of budgets
+	 *
+	 * @return the new path
+	 */
+	private IndexedPath newPath(int edge, IntUnaryOperator edgeBudgets, int budgetCount) {
+		double weight = graph.getEdgeWeight(edge);
+		double[] budgetWeights = new double[budgetCount];
+		int budget = edgeBudgets.applyAsInt(edge);
+		if (budget >= 0) {
+			budgetWeights[budget] = weight;
+		}
+		return new IndexedPath(graph.getEdgeSource(edge), edge, graph.getEdgeTarget(edge), weight, budgetWeights);
+	}
+
+	/**
+	 * Weights of a path to a vertex, ordered by the first weight
+	 */
+	private static final class Label implements Comparable<Label> {
+
+		private final int vertex;
+
+		private final double[] weights;
+
+		private Label(int vertex, double[] weights) {
+			this.vertex = vertex;
+			this.weights = weights;
+		}
+
+		@Override
+		public int compareTo(Label other) {
+			return Double.compare(weights[0], other.weights[0]);
+		}
+
+	}
+
+}
@@ -0,0 +1,293 @@
+package com.geosparc.graph.alg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+import com.geosparc.graph.base.DGraphSnapshot;
+import com.geosparc.graph.base.Deadline;
+
+/**
+ * Reachability search on the primitive adjacency of a graph snapshot, for traces without weights.
+ * Gives the same edges as {@link IndexedTracing#getEdgesWithinWeights} without a maximum weight,
+ * with a breadth first search that expands each level of vertices in parallel.
+ *
+ * The masks of the tracing are evaluated from several threads at the same time.
+ *
+ * @param <I> identifier class
+ * @param <V> vertex data class
+ * @param <E> edge data class
+ */
+public class Reachability<I, V, E> {
+
+	/**
+	 * Levels with less vertices are expanded on the calling thread
+	 */
+	public static final int PARALLEL_THRESHOLD = 256;
+
+	private static final int[] NO_VERTICES = new int[0];
+
+	private final IndexedTracing<I, V, E> tracing;
+
+	private final DGraphSnapshot<I, V, E> graph;
+
+	private final ForkJoinPool pool;
+
+	private boolean limitReached;
+
+	private boolean deadlineReached;
+
+	/**
+	 * Create a new instance
+	 *
+	 * @param tracing the graph and masks
+	 * @param pool the pool to expand levels on, null to expand them on the calling thread
+	 */
+	public Reachability(IndexedTracing<I, V, E> tracing, ForkJoinPool pool) {
+		this.tracing = tracing;
+		this.graph = tracing.getGraph();
+		this.pool = pool;
+	}
+
+	/**
+	 * Calculate the edges reachable from a number of sources. Without a limit, the sources that
+	 * start from a vertex are searched together, those that start from an edge each on their own,
+	 * because their source vertex may not be passed again. With a limit, each source is searched
+	 * on its own, as the limit applies to each of them.
+	 *
+	 * Each level is added in the order of its vertices, so that the edges are the same
+	 * on every call, also when the limit is reached. Chains of edges are taken within
+	 * the level they start in, so with a limit, the edges of a chain count for that level.
+	 *
+	 * @param sourceVertices per source, the source vertex
+	 * @param sourceEdges per source, the source edge, or -1 if starting from the source vertex
+	 * @param maxEdges maximum number of edges, for each source
+	 *
+	 * @return the edges
+	 */
+	public BitSet getEdges(int[] sourceVertices, int[] sourceEdges, long maxEdges) {
+		BitSet edges = new BitSet(graph.getEdgeCount());
+		limitReached = false;
+		deadlineReached = false;
+
+		if (maxEdges < Long.MAX_VALUE) {
+			for (BitSet sourceEdgeSet : getEdgesPerSource(sourceVertices, sourceEdges, maxEdges)) {
+				edges.or(sourceEdgeSet);
+			}
+			return edges;
+		}
+
+		int[] vertices = IntStream.range(0, sourceVertices.length).filter(i -> sourceEdges[i] < 0)
+				.map(i -> sourceVertices[i]).distinct().sorted().toArray();
+		if (vertices.length > 0) {
+			search(vertices, -1, edges, maxEdges);
+		}
+
+		for (int source = 0; source < sourceVertices.length && !deadlineReached; source++) {
+			if (sourceEdges[source] >= 0) {
+				search(null, sourceEdges[source], edges, maxEdges);
+			}
+		}
+
+		return edges;
+	}
+
+	/**
+	 * Calculate the edges reachable from each source on its own, with the limit for each source.
+	 *
+	 * @param sourceVertices per source, the source vertex
+	 * @param sourceEdges per source, the source edge, or -1 if starting from the source vertex
+	 * @param maxEdges maximum number of edges, for each source
+	 *
+	 * @return per source, its edges (empty for the sources after the deadline was reached)
+	 */
+	public BitSet[] getEdgesPerSource(int[] sourceVertices, int[] sourceEdges, long maxEdges) {
+		BitSet[] result = new BitSet[sourceVertices.length];
+		limitReached = false;
+		deadlineReached = false;
+		for (int source = 0; source < sourceVertices.length; source++) {
+			result[source] = new BitSet(graph.getEdgeCount());
+			if (!deadlineReached) {
+				search(new int[] {sourceVertices[source]}, sourceEdges[source], result[source], maxEdges);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns if limit was reached in last call
+	 *
+	 * @return if limit was reached
+	 */
+	public boolean isLimitReached() {
+		return limitReached;
+	}
+
+	/**
+	 * Returns if the deadline of the tracing was reached in last call
+	 *
+	 * @return if the deadline was reached
+	 */
+	public boolean isDeadlineReached() {
+		return deadlineReached;
+	}
+
+	/**
+	 * Search from a number of source vertices, or from a source edge, adding to the edges
+	 */
+	private void search(int[] sourceVertices, int sourceEdge, BitSet edges, long maxEdges) {
+		AtomicBitSet visited = new AtomicBitSet(graph.getVertexCount());
+		if (sourceEdge < 0) {
+			for (int vertex : sourceVertices) {
+				visited.set(vertex);
+			}
+			search(sourceVertices, visited, edges, maxEdges);
+		} else {
+			edges.set(sourceEdge);
+			// a path starting from an edge can not pass its source again
+			visited.set(graph.getEdgeSource(sourceEdge));
+			int target = graph.getEdgeTarget(sourceEdge);
+			search(visited.set(target) ? new int[] {target} : NO_VERTICES, visited, edges, maxEdges);
+		}
+	}
+
+	private void search(int[] frontier, AtomicBitSet visited, BitSet edges, long maxEdges) {
+		long edgeCounter = edges.cardinality();
+		Deadline deadline = tracing.getDeadline();
+		while (frontier.length > 0) {
+			// the levels so far
+			if (deadline != null && deadline.isReached()) {
+				deadlineReached = true;
+				return;
+			}
+			Level level = new Level(frontier.length);
+			if (pool == null || frontier.length < PARALLEL_THRESHOLD) {
+				for (int i = 0; i < frontier.length; i++) {
+					expand(frontier, i, visited, level);
+				}
+			} else {
+				int[] current = frontier;
+				pool.submit(() -> IntStream.range(0, current.length).parallel()
+						.forEach(i -> expand(current, i, visited, level))).join();
+			}
+
+			// merge in the order of the frontier
+			for (int[] vertexEdges : level.edges) {
+				for (int edge : vertexEdges) {
+					if (!edges.get(edge)) {
+						if (edgeCounter >= maxEdges) {
+							limitReached = true;
+							return;
+						}
+						edges.set(edge);
+						edgeCounter++;
+					}
+				}
+			}
+
+			int size = 0;
+			for (int[] vertexTargets : level.targets) {
+				size += vertexTargets.length;
+			}
+			int[] next = new int[size];
+			int position = 0;
+			for (int[] vertexTargets : level.targets) {
+				System.arraycopy(vertexTargets, 0, next, position, vertexTargets.length);
+				position += vertexTargets.length;
+			}
+			// the vertices of a level do not depend on which thread claimed them, their order does
+			Arrays.sort(next);
+			frontier = next;
+		}
+	}
+
+	/**
+	 * Find the edges of a vertex of the frontier, and claim the targets that were not visited yet.
+	 * The chain of edges that starts with an edge is taken up to its end, or up to an edge
+	 * that is left out or a vertex that was visited before, and only its end is added to the next level.
+	 */
+	private void expand(int[] frontier, int i, AtomicBitSet visited, Level level) {
+		int vertex = frontier[i];
+		int start = graph.getOutgoingStart(vertex);
+		int end = graph.getOutgoingEnd(vertex);
+		int[] vertexEdges = new int[end - start];
+		int edgeCount = 0;
+		List<Integer> targets = null;
+		for (int k = start; k < end; k++) {
+			int edge = graph.getOutgoingEdge(k);
+			int length = graph.getChainLength(edge);
+			for (int distance = 0; distance < length; distance++) {
+				int chainEdge = graph.getChainEdge(edge, distance);
+				if (!tracing.containsEdge(chainEdge)) {
+					break;
+				}
+				if (edgeCount == vertexEdges.length) {
+					vertexEdges = Arrays.copyOf(vertexEdges, edgeCount * 2);
+				}
+				vertexEdges[edgeCount++] = chainEdge;
+				int target = graph.getEdgeTarget(chainEdge);
+				if (!visited.set(target)) {
+					break;
+				}
+				if (distance == length - 1) {
+					if (targets == null) {
+						targets = new ArrayList<>();
+					}
+					targets.add(target);
+				}
+			}
+		}
+		level.edges[i] = edgeCount == vertexEdges.length ? vertexEdges : Arrays.copyOf(vertexEdges, edgeCount);
+		level.targets[i] = targets == null ? NO_VERTICES : targets.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * The edges and newly visited vertices found from each vertex of a frontier
+	 */
+	private static final class Level {
+
+		private final int[][] edges;
+
+		private final int[][] targets;
+
+		private Level(int size) {
+			edges = new int[size][];
+			targets = new int[size][];
+		}
+
+	}
+
+	/**
+	 * Bit set that can be set from several threads
+	 */
+	private static final class AtomicBitSet {
+
+		private final AtomicLongArray words;
+
+		private AtomicBitSet(int size) {
+			words = new AtomicLongArray((size + 63) >>> 6);
+		}
+
+		/**
+		 * @return true if the bit was not set before
+		 */
+		private boolean set(int index) {
+			int word = index >>> 6;
+			long bit = 1L << index;
+			long value;
+			do {
+				value = words.get(word);
+				if ((value & bit) != 0) {
+					return false;
+				}
+			} while (!words.compareAndSet(word, value, value | bit));
+			return true;
+		}
+
+	}
+
+}
@@ -0,0 +1,289 @@
+package com.geosparc.graph.alg;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.geosparc.graph.base.DGraphSnapshot;
+
+/**
+ * Index that tells whether a vertex can be reached from another vertex of a graph snapshot,
+ * without masks, in the direction of the snapshot.
+ *
+ * The strongly connected components of the graph are condensed into a directed acyclic graph,
+ * of which the components are numbered in reverse topological order. Each component has an
+ * interval on a spanning forest, that tells it reaches another component if it contains its
+ * number, and two intervals of post-order numbers, that tell it does not if they do not
+ * contain those of the other component. Only if neither tells, the condensed graph is
+ * searched, skipping the components the intervals rule out. On networks that are mostly
+ * trees, nearly every query is answered by the intervals.
+ *
+ */
+public class ReachabilityIndex {
+
+	// per vertex, the component; a component only reaches components with a lower number
+	private final int[] components;
+
+	private final int componentCount;
+
+	// the condensed graph, the successors of a component are at the positions start[c] to start[c + 1]
+	private final int[] successorStart;
+
+	private final int[] successors;
+
+	// per component, the pre-order number on a spanning forest and the last one of its subtree
+	private final int[] treeOrder;
+
+	private final int[] treeEnd;
+
+	// per component, the lowest component number it reaches (the component numbers are a post-order)
+	private final int[] lowest;
+
+	// per component, the post-order of the spanning forest and the lowest one it reaches
+	private final int[] postOrder;
+
+	private final int[] lowestPostOrder;
+
+	/**
+	 * Build the index
+	 *
+	 * @param graph the graph
+	 */
+	public ReachabilityIndex(DGraphSnapshot<?, ?, ?> graph) {
+		int vertexCount = graph.getVertexCount();
+		components = new int[vertexCount];
+		componentCount = findComponents(graph);
+
+		// the successors of each component, without duplicates
+		int[] componentStart = new int[componentCount + 1];
+		for (int v = 0; v < vertexCount; v++) {
+			componentStart[components[v] + 1]++;
+		}
+		for (int c = 0; c < componentCount; c++) {
+			componentStart[c + 1] += componentStart[c];
+		}
+		int[] members = new int[vertexCount];
+		int[] position = Arrays.copyOf(componentStart, componentCount);
+		for (int v = 0; v < vertexCount; v++) {
+			members[position[components[v]]++] = v;
+		}
+		int[] marks = new int[componentCount];
+		Arrays.fill(marks, -1);
+		int[] buffer = new int[Math.max(graph.getEdgeCount(), 1)];
+		int size = 0;
+		successorStart = new int[componentCount + 1];
+		for (int c = 0; c < componentCount; c++) {
+			successorStart[c] = size;
+			for (int m = componentStart[c]; m < componentStart[c + 1]; m++) {
+				int v = members[m];
+				for (int k = graph.getOutgoingStart(v); k < graph.getOutgoingEnd(v); k++) {
+					int target = components[graph.getEdgeTarget(graph.getOutgoingEdge(k))];
+					if (target != c && marks[target] != c) {
+						marks[target] = c;
+						buffer[size++] = target;
+					}
+				}
+			}
+		}
+		successorStart[componentCount] = size;
+		successors = Arrays.copyOf(buffer, size);
+
+		// successors have lower numbers, so they are done before their predecessors
+		lowest = new int[componentCount];
+		for (int c = 0; c < componentCount; c++) {
+			lowest[c] = c;
+			for (int k = successorStart[c]; k < successorStart[c + 1]; k++) {
+				lowest[c] = Math.min(lowest[c], lowest[successors[k]]);
+			}
+		}
+
+		treeOrder = new int[componentCount];
+		treeEnd = new int[componentCount];
+		postOrder = new int[componentCount];
+		lowestPostOrder = new int[componentCount];
+		numberForest();
+	}
+
+	/**
+	 * @return the number of strongly connected components
+	 */
+	public int getComponentCount() {
+		return componentCount;
+	}
+
+	/**
+	 * @param vertex the vertex index
+	 * @return the strongly connected component of the vertex
+	 */
+	public int getComponent(int vertex) {
+		return components[vertex];
+	}
+
+	/**
+	 * @param source the source vertex index
+	 * @param target the target vertex index
+	 * @return true if there is a path from the source to the target (or they are the same)
+	 */
+	public boolean isReachable(int source, int target) {
+		int from = components[source];
+		int to = components[target];
+		switch (test(from, to)) {
+		case 1:
+			return true;
+		case -1:
+			return false;
+		default:
+			break;
+		}
+
+		// depth first search of the condensed graph, skipping what the intervals rule out
+		BitSet visited = new BitSet();
+		int[] stack = new int[16];
+		int top = 0;
+		stack[top++] = from;
+		visited.set(from);
+		while (top > 0) {
+			int c = stack[--top];
+			for (int k = successorStart[c]; k < successorStart[c + 1]; k++) {
+				int successor = successors[k];
+				if (visited.get(successor)) {
+					continue;
+				}
+				visited.set(successor);
+				int result = test(successor, to);
+				if (result > 0) {
+					return true;
+				} else if (result == 0) {
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, top * 2);
+					}
+					stack[top++] = successor;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return 1 if the intervals tell that one component reaches the other, -1 if they tell it does not,
+	 * 		0 if they do not tell
+	 */
+	private int test(int from, int to) {
+		if (from == to || (treeOrder[from] <= treeOrder[to] && treeOrder[to] <= treeEnd[from])) {
+			return 1;
+		}
+		if (to > from || lowest[to] < lowest[from]
+				|| postOrder[to] > postOrder[from] || lowestPostOrder[to] < lowestPostOrder[from]) {
+			return -1;
+		}
+		return 0;
+	}
+
+	/**
+	 * Tarjan's algorithm, with an explicit stack because networks can be very deep.
+	 * Components are numbered in the order they are completed, which is a reverse topological order.
+	 *
+	 * @return the number of components
+	 */
+	private int findComponents(DGraphSnapshot<?, ?, ?> graph) {
+		int vertexCount = graph.getVertexCount();
+		int[] order = new int[vertexCount];
+		int[] low = new int[vertexCount];
+		Arrays.fill(order, -1);
+		int[] componentStack = new int[vertexCount];
+		int componentTop = 0;
+		BitSet onStack = new BitSet(vertexCount);
+		int[] callStack = new int[vertexCount];
+		int[] edgePosition = new int[vertexCount];
+		int counter = 0;
+		int count = 0;
+
+		for (int root = 0; root < vertexCount; root++) {
+			if (order[root] >= 0) {
+				continue;
+			}
+			int callTop = 0;
+			callStack[callTop++] = root;
+			edgePosition[root] = graph.getOutgoingStart(root);
+			order[root] = low[root] = counter++;
+			componentStack[componentTop++] = root;
+			onStack.set(root);
+
+			while (callTop > 0) {
+				int v = callStack[callTop - 1];
+				if (edgePosition[v] < graph.getOutgoingEnd(v)) {
+					int w = graph.getEdgeTarget(graph.getOutgoingEdge(edgePosition[v]++));
+					if (order[w] < 0) {
+						callStack[callTop++] = w;
+						edgePosition[w] = graph.getOutgoingStart(w);
+						order[w] = low[w] = counter++;
+						componentStack[componentTop++] = w;
+						onStack.set(w);
+					} else if (onStack.get(w)) {
+						low[v] = Math.min(low[v], order[w]);
+					}
+					continue;
+				}
+
+				callTop--;
+				if (callTop > 0) {
+					int parent = callStack[callTop - 1];
+					low[parent] = Math.min(low[parent], low[v]);
+				}
+				if (low[v] == order[v]) {
+					int w;
+					do {
+						w = componentStack[--componentTop];
+						onStack.clear(w);
+						components[w] = count;
+					} while (w != v);
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Number the components on a spanning forest of the condensed graph, with a depth first search
+	 * from the components without predecessors (the highest numbers come first)
+	 */
+	private void numberForest() {
+		BitSet visited = new BitSet(componentCount);
+		int[] stack = new int[componentCount];
+		int[] position = new int[componentCount];
+		int pre = 0;
+		int post = 0;
+		for (int root = componentCount - 1; root >= 0; root--) {
+			if (visited.get(root)) {
+				continue;
+			}
+			int top = 0;
+			stack[top++] = root;
+			visited.set(root);
+			treeOrder[root] = pre++;
+			// successors in reverse, for a post-order that differs from the component numbers
+			position[root] = successorStart[root + 1];
+			while (top > 0) {
+				int c = stack[top - 1];
+				if (position[c] > successorStart[c]) {
+					int successor = successors[--position[c]];
+					if (!visited.get(successor)) {
+						visited.set(successor);
+						treeOrder[successor] = pre++;
+						position[successor] = successorStart[successor + 1];
+						stack[top++] = successor;
+					}
+					continue;
+				}
+				top--;
+				treeEnd[c] = pre - 1;
+				postOrder[c] = post++;
+				lowestPostOrder[c] = postOrder[c];
+				for (int k = successorStart[c]; k < successorStart[c + 1]; k++) {
+					lowestPostOrder[c] = Math.min(lowestPostOrder[c], lowestPostOrder[successors[k]]);
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package com.geosparc.graph.alg;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Minimum weights from a number of sources, only kept for the vertices that are reached by any of them.
+ * The reached vertices are indexed by vertex index.
+ *
+ */
+public class SourceDistances {
+
+	private final int sourceCount;
+
+	private Reached[] reached = new Reached[0];
+
+	private int size;
+
+	public SourceDistances(int sourceCount) {
+		this.sourceCount = sourceCount;
+	}
+
+	public int getSourceCount() {
+		return sourceCount;
+	}
+
+	/**
+	 * @param source the source number
+	 * @param vertex the vertex index
+	 * @return the minimum weight from the source to the vertex, infinite if not reached
+	 */
+	public double get(int source, int vertex) {
+		Reached result = vertex < reached.length ? reached[vertex] : null;
+		return result == null ? Double.POSITIVE_INFINITY : result.weights[source];
+	}
+
+	/**
+	 * @return the number of reached vertices
+	 */
+	public int size() {
+		return size;
+	}
+
+	Reached getReached(int vertex) {
+		Reached result = reached[vertex];
+		if (result == null) {
+			result = new Reached(vertex, sourceCount);
+			reached[vertex] = result;
+			size++;
+		}
+		return result;
+	}
+
+	/**
+	 * Forget all reached vertices, for a graph with a number of vertices
+	 *
+	 * @param vertexCount the number of vertices of the graph
+	 */
+	void clear(int vertexCount) {
+		if (reached.length == vertexCount) {
+			Arrays.fill(reached, null);
+		} else {
+			reached = new Reached[vertexCount];
+		}
+		size = 0;
+	}
+
+	/**
+	 * A reached vertex, with the weights per source and the sources that still have to continue from it
+	 */
+	static final class Reached {
+
+		final int vertex;
+
+		final double[] weights;
+
+		final BitSet pending = new BitSet();
+
+		private Reached(int vertex, int sourceCount) {
+			this.vertex = vertex;
+			this.weights = new double[sourceCount];
+			Arrays.fill(weights, Double.POSITIVE_INFINITY);
+		}
+
+	}
+
+}
@@ -1,10 +1,10 @@
 package com.geosparc.graph.alg;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -13,7 +13,6 @@ import org.jgrapht.Graph;
 import org.jgrapht.GraphPath;
 import org.jgrapht.GraphTests;
 import org.jgrapht.graph.DirectedMultigraph;
-import org.jgrapht.graph.GraphWalk;
 import org.jgrapht.traverse.ClosestFirstIterator;
 
 /**
@@ -180,17 +179,17 @@ public class Tracing<V, E> {
          * edges whose minimum distances is small enough.
          */
         List<GraphPath<V, E>> completePaths = new ArrayList<>();
-        Deque<GraphPath<V, E>> incompletePaths = new LinkedList<>();
+        Deque<TracingPath<V, E>> incompletePaths = new ArrayDeque<>();
 		Set<V> visitedVertices = new HashSet<>();
 
         // Bootstrap the search with the source vertices
         if (sourceEdge == null) {
     		for (E edge : graph.outgoingEdgesOf(sourceVertex)) {
     			assert graph.getEdgeSource(edge).equals(sourceVertex);
-    			incompletePaths.add(newPath(edge));
+    			incompletePaths.add(new TracingPath<>(graph, edge));
     		}	
         } else {
-        	incompletePaths.add(newPath(sourceEdge));
+        	incompletePaths.add(new TracingPath<>(graph, sourceEdge));
         }
 		
 		limitReached = false;
@@ -198,11 +197,11 @@ public class Tracing<V, E> {
 		long edgeCounter = 0;
 
         // Walk through the queue of incomplete paths
-        for (GraphPath<V, E> incompletePath; (incompletePath = incompletePaths.poll()) != null;) {
+        for (TracingPath<V, E> incompletePath; (incompletePath = incompletePaths.poll()) != null;) {
         	
         	if (edgeCounter >= maxEdges ||
 					ignorePaths && visitedVertices.contains(incompletePath.getEndVertex()) ||
-        			simplePathsOnly && hasCycle(incompletePath) ||
+        			simplePathsOnly && incompletePath.passes(incompletePath.getEndVertex()) ||
         			!predicate.test(incompletePath) ) {
 
 				if (edgeCounter >= maxEdges) {
@@ -229,7 +228,7 @@ public class Tracing<V, E> {
 					noValidEdges = false;
 	
 					incompletePaths.addFirst(
-							addToPath(incompletePath, outEdge)); 
+							new TracingPath<>(incompletePath, outEdge)); 
 						// We use incompletePaths in FIFO mode to avoid memory blowup
 					
 				}
@@ -243,16 +242,6 @@ public class Tracing<V, E> {
         return completePaths;
     }
     
-    private boolean hasCycle(GraphPath<V, E> incompletePath) {
-    	List<V> vertexList = incompletePath.getVertexList();
-		for (int i = 0; i < vertexList.size() - 1; i++) {
-			if (vertexList.get(i).equals(vertexList.get(vertexList.size() - 1))) {
-				return true;
-			}
-		}
-		return false;
-	}
-    
     /**
      * Returns if limit was reached in last tracing call
      * 
@@ -310,45 +299,4 @@ public class Tracing<V, E> {
 		}
 		return map;
 	}
-
-
-	/**
-     * Adds one edge to a GraphPath
-     *
-     * @param path the old graph path
-     * @param edge the new edge
-     *
-     * @return the new GraphPath
-     */
-    private GraphPath<V, E> addToPath(GraphPath<V, E> path, E edge)
-    {
-    	List<E> edges = new ArrayList<>(path.getEdgeList());
-    	List<V> vertices = new ArrayList<>(path.getVertexList());
-    	edges.add(edge);
-    	V endVertex = graph.getEdgeTarget(edge);
-    	vertices.add(endVertex);
-    	return new GraphWalk<>(graph, path.getStartVertex(), 
-    			endVertex, vertices,
-        		edges, path.getWeight() + graph.getEdgeWeight(edge));
-    }
-    
-    /**
-    * Creates new GraphPath from a single edge
-    *
-    * @param edge the edge
-    *
-    * @return the new GraphPath
-    */
-    private GraphPath<V, E> newPath(E edge)
-    {
-    	List<E> edges = new ArrayList<>();
-    	List<V> vertices = new ArrayList<>();
-    	edges.add(edge);
-    	vertices.add(graph.getEdgeSource(edge));
-    	V endVertex = graph.getEdgeTarget(edge);
-    	vertices.add(endVertex);
-    	return new GraphWalk<>(graph, graph.getEdgeSource(edge), 
-    			endVertex, vertices, 
-        		edges, graph.getEdgeWeight(edge));
-    }
 }
\ No newline at end of file
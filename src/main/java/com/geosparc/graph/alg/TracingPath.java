@@ -0,0 +1,150 @@
+package com.geosparc.graph.alg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jgrapht.Graph;
+import org.jgrapht.GraphPath;
+
+/**
+ * Path of a trace. A path points to the path it extends, so that extending a path
+ * does not copy it. The vertex and edge lists are only built when asked for.
+ *
+ * @param <V> vertex class
+ * @param <E> edge class
+ */
+public class TracingPath<V, E> implements GraphPath<V, E> {
+
+	private final Graph<V, E> graph;
+
+	private final TracingPath<V, E> parent;
+
+	private final V startVertex;
+
+	private final E edge;
+
+	private final V endVertex;
+
+	private final double weight;
+
+	private final int length;
+
+	private List<E> edgeList;
+
+	private List<V> vertexList;
+
+	/**
+	 * Create a path of a single edge
+	 *
+	 * @param graph the graph
+	 * @param edge the edge
+	 */
+	public TracingPath(Graph<V, E> graph, E edge) {
+		this.graph = graph;
+		this.parent = null;
+		this.startVertex = graph.getEdgeSource(edge);
+		this.edge = edge;
+		this.endVertex = graph.getEdgeTarget(edge);
+		this.weight = graph.getEdgeWeight(edge);
+		this.length = 1;
+	}
+
+	/**
+	 * Create a path that extends another path with one edge
+	 *
+	 * @param parent the path to extend
+	 * @param edge the edge
+	 */
+	public TracingPath(TracingPath<V, E> parent, E edge) {
+		this.graph = parent.graph;
+		this.parent = parent;
+		this.startVertex = parent.startVertex;
+		this.edge = edge;
+		this.endVertex = graph.getEdgeTarget(edge);
+		this.weight = parent.weight + graph.getEdgeWeight(edge);
+		this.length = parent.length + 1;
+	}
+
+	/**
+	 * @return the path this path extends, null if this path is a single edge
+	 */
+	public TracingPath<V, E> getParent() {
+		return parent;
+	}
+
+	public E getLastEdge() {
+		return edge;
+	}
+
+	/**
+	 * @param vertex the vertex
+	 * @return true if the path passes the vertex before its end vertex
+	 */
+	public boolean passes(V vertex) {
+		for (TracingPath<V, E> path = parent; path != null; path = path.parent) {
+			if (path.endVertex.equals(vertex)) {
+				return true;
+			}
+		}
+		return startVertex.equals(vertex);
+	}
+
+	@Override
+	public Graph<V, E> getGraph() {
+		return graph;
+	}
+
+	@Override
+	public V getStartVertex() {
+		return startVertex;
+	}
+
+	@Override
+	public V getEndVertex() {
+		return endVertex;
+	}
+
+	@Override
+	public List<E> getEdgeList() {
+		if (edgeList == null) {
+			List<E> edges = new ArrayList<>(length);
+			for (TracingPath<V, E> path = this; path != null; path = path.parent) {
+				edges.add(path.edge);
+			}
+			Collections.reverse(edges);
+			edgeList = Collections.unmodifiableList(edges);
+		}
+		return edgeList;
+	}
+
+	@Override
+	public List<V> getVertexList() {
+		if (vertexList == null) {
+			List<V> vertices = new ArrayList<>(length + 1);
+			for (TracingPath<V, E> path = this; path != null; path = path.parent) {
+				vertices.add(path.endVertex);
+			}
+			vertices.add(startVertex);
+			Collections.reverse(vertices);
+			vertexList = Collections.unmodifiableList(vertices);
+		}
+		return vertexList;
+	}
+
+	@Override
+	public double getWeight() {
+		return weight;
+	}
+
+	@Override
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	public String toString() {
+		return getEdgeList().toString();
+	}
+
+}
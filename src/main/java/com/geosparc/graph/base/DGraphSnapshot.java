@@ -0,0 +1,609 @@
+package com.geosparc.graph.base;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntUnaryOperator;
+
+import org.jgrapht.Graph;
+
+/**
+ * Immutable compressed-sparse-row snapshot of an IDP graph.
+ *
+ * Vertices and edges are addressed by dense int indices, topology and weights
+ * are kept in primitive arrays. Edges are numbered by source vertex, so the
+ * outgoing edges of a vertex are a contiguous range of edge indices.
+ * A reverse adjacency is kept as well, see {@link #reversed()}.
+ *
+ * Chains of edges, joined by vertices with one incoming and one outgoing edge,
+ * are laid out in advance with the sums of their weights, so that a search
+ * can take the part of a chain within a weight at once, see {@link #getChainCount}.
+ *
+ * @param <I> identifier class
+ * @param <V> vertex data class
+ * @param <E> edge data class
+ */
+public class DGraphSnapshot<I, V, E> {
+
+	/**
+	 * relative tolerance of {@link #isWithin}, far above the rounding errors of summing weights
+	 */
+	private static final double WEIGHT_TOLERANCE = 1e-9;
+
+	private final Idp<I, V>[] vertices;
+
+	private final Idp<I, E>[] edges;
+
+	private final IdDictionary<I> vertexIds;
+
+	private final IdDictionary<I> edgeIds;
+
+	private final int[] edgeSources;
+
+	private final int[] edgeTargets;
+
+	private final double[] edgeWeights;
+
+	/**
+	 * outgoing edges of vertex v are outEdges[outOffsets[v]] .. outEdges[outOffsets[v + 1] - 1],
+	 * a null array means the edge index equals the position
+	 */
+	private final int[] outOffsets;
+
+	private final int[] outEdges;
+
+	private final int[] inOffsets;
+
+	private final int[] inEdges;
+
+	private final Chains chains;
+
+	/**
+	 * per position in the chains, the weight of the edges of its chain before it
+	 */
+	private final double[] chainWeights;
+
+	private final boolean reversed;
+
+	private final DGraphSnapshot<I, V, E> reverse;
+
+	/**
+	 * Freeze a graph into a snapshot.
+	 *
+	 * @param graph the graph
+	 */
+	public DGraphSnapshot(Graph<Idp<I, V>, Idp<I, E>> graph) {
+		this(graph, new HashIdDictionary<>(graph.vertexSet().size()),
+				new HashIdDictionary<>(graph.edgeSet().size()));
+	}
+
+	/**
+	 * Freeze a graph into a snapshot.
+	 *
+	 * @param graph the graph
+	 * @param vertexIds empty dictionary to index the vertex identifiers
+	 * @param edgeIds empty dictionary to index the edge identifiers
+	 */
+	@SuppressWarnings("unchecked")
+	public DGraphSnapshot(Graph<Idp<I, V>, Idp<I, E>> graph,
+			IdDictionary<I> vertexIds, IdDictionary<I> edgeIds) {
+		int vertexCount = graph.vertexSet().size();
+		int edgeCount = graph.edgeSet().size();
+
+		vertices = (Idp<I, V>[]) new Idp<?, ?>[vertexCount];
+		edges = (Idp<I, E>[]) new Idp<?, ?>[edgeCount];
+		this.vertexIds = vertexIds;
+		this.edgeIds = edgeIds;
+		edgeSources = new int[edgeCount];
+		edgeTargets = new int[edgeCount];
+		edgeWeights = new double[edgeCount];
+		outOffsets = new int[vertexCount + 1];
+		outEdges = null;
+
+		int v = 0;
+		for (Idp<I, V> vertex : graph.vertexSet()) {
+			vertices[v++] = vertex;
+			vertexIds.add(vertex.getId());
+		}
+
+		int e = 0;
+		for (v = 0; v < vertexCount; v++) {
+			outOffsets[v] = e;
+			for (Idp<I, E> edge : graph.outgoingEdgesOf(vertices[v])) {
+				edges[e] = edge;
+				edgeIds.add(edge.getId());
+				edgeSources[e] = v;
+				edgeTargets[e] = vertexIds.indexOf(graph.getEdgeTarget(edge).getId());
+				edgeWeights[e] = graph.getEdgeWeight(edge);
+				e++;
+			}
+		}
+		outOffsets[vertexCount] = e;
+
+		inOffsets = countOffsets(edgeTargets, vertexCount);
+		inEdges = sortByKey(edgeTargets, inOffsets);
+
+		chains = new Chains(this, edge -> 0);
+		chainWeights = chains.sumWeights(edgeWeights);
+		reversed = false;
+		reverse = new DGraphSnapshot<>(this);
+	}
+
+	/**
+	 * Create a snapshot without data from its topology, as stored by a previous snapshot.
+	 *
+	 * @param vertexIds the vertex identifiers, by vertex index
+	 * @param edgeIds the edge identifiers, by edge index
+	 * @param edgeSources the source vertex of each edge, edges must be ordered by source
+	 * @param edgeTargets the target vertex of each edge
+	 * @param edgeWeights the weight of each edge
+	 */
+	@SuppressWarnings("unchecked")
+	public DGraphSnapshot(IdDictionary<I> vertexIds, IdDictionary<I> edgeIds,
+			int[] edgeSources, int[] edgeTargets, double[] edgeWeights) {
+		int vertexCount = vertexIds.size();
+		int edgeCount = edgeIds.size();
+		if (edgeSources.length != edgeCount || edgeTargets.length != edgeCount
+				|| edgeWeights.length != edgeCount) {
+			throw new IllegalArgumentException("Edge arrays do not match the edge identifiers");
+		}
+		for (int e = 1; e < edgeCount; e++) {
+			if (edgeSources[e] < edgeSources[e - 1]) {
+				throw new IllegalArgumentException("Edges are not ordered by source");
+			}
+		}
+
+		vertices = (Idp<I, V>[]) new Idp<?, ?>[vertexCount];
+		for (int v = 0; v < vertexCount; v++) {
+			vertices[v] = new Idp<>(vertexIds.get(v));
+		}
+		edges = (Idp<I, E>[]) new Idp<?, ?>[edgeCount];
+		for (int e = 0; e < edgeCount; e++) {
+			edges[e] = new Idp<>(edgeIds.get(e));
+		}
+		this.vertexIds = vertexIds;
+		this.edgeIds = edgeIds;
+		this.edgeSources = edgeSources;
+		this.edgeTargets = edgeTargets;
+		this.edgeWeights = edgeWeights;
+		outOffsets = countOffsets(edgeSources, vertexCount);
+		outEdges = null;
+		inOffsets = countOffsets(edgeTargets, vertexCount);
+		inEdges = sortByKey(edgeTargets, inOffsets);
+
+		chains = new Chains(this, edge -> 0);
+		chainWeights = chains.sumWeights(edgeWeights);
+		reversed = false;
+		reverse = new DGraphSnapshot<>(this);
+	}
+
+	/**
+	 * @param keys vertex of each edge
+	 * @param vertexCount number of vertices
+	 * @return the offsets of the edges of each vertex, when sorted by key
+	 */
+	private static int[] countOffsets(int[] keys, int vertexCount) {
+		int[] offsets = new int[vertexCount + 1];
+		for (int key : keys) {
+			offsets[key + 1]++;
+		}
+		for (int v = 0; v < vertexCount; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		return offsets;
+	}
+
+	/**
+	 * Counting sort of the edges by key
+	 *
+	 * @param keys vertex of each edge
+	 * @param offsets offsets of each vertex, see {@link #countOffsets(int[], int)}
+	 * @return edge indices sorted by key
+	 */
+	private static int[] sortByKey(int[] keys, int[] offsets) {
+		int[] sorted = new int[keys.length];
+		int[] next = Arrays.copyOf(offsets, offsets.length - 1);
+		for (int e = 0; e < keys.length; e++) {
+			sorted[next[keys[e]]++] = e;
+		}
+		return sorted;
+	}
+
+	/**
+	 * Reversed view, sharing all arrays with the original.
+	 *
+	 * @param original the original snapshot
+	 */
+	private DGraphSnapshot(DGraphSnapshot<I, V, E> original) {
+		vertices = original.vertices;
+		edges = original.edges;
+		vertexIds = original.vertexIds;
+		edgeIds = original.edgeIds;
+		edgeSources = original.edgeTargets;
+		edgeTargets = original.edgeSources;
+		edgeWeights = original.edgeWeights;
+		outOffsets = original.inOffsets;
+		outEdges = original.inEdges;
+		inOffsets = original.outOffsets;
+		inEdges = original.outEdges;
+		chains = original.chains;
+		chainWeights = original.chainWeights;
+		reversed = !original.reversed;
+		reverse = original;
+	}
+
+	/**
+	 * Copy of a snapshot, sharing its topology, with other vertices, edges, weights or chains.
+	 *
+	 * @param original the original snapshot
+	 * @param vertices the vertices
+	 * @param edges the edges
+	 * @param edgeWeights the edge weights
+	 * @param chains the chains
+	 */
+	private DGraphSnapshot(DGraphSnapshot<I, V, E> original,
+			Idp<I, V>[] vertices, Idp<I, E>[] edges, double[] edgeWeights, Chains chains) {
+		this.vertices = vertices;
+		this.edges = edges;
+		vertexIds = original.vertexIds;
+		edgeIds = original.edgeIds;
+		edgeSources = original.edgeSources;
+		edgeTargets = original.edgeTargets;
+		this.edgeWeights = edgeWeights;
+		outOffsets = original.outOffsets;
+		outEdges = original.outEdges;
+		inOffsets = original.inOffsets;
+		inEdges = original.inEdges;
+		this.chains = chains;
+		chainWeights = chains == original.chains && edgeWeights == original.edgeWeights ?
+				original.chainWeights : chains.sumWeights(edgeWeights);
+		reversed = original.reversed;
+		reverse = new DGraphSnapshot<>(this);
+	}
+
+	/**
+	 * The same snapshot, sharing the topology, but of which the vertices and edges
+	 * carry no data, so that the data can be kept elsewhere.
+	 *
+	 * @return the snapshot without data
+	 */
+	@SuppressWarnings("unchecked")
+	public DGraphSnapshot<I, V, E> withoutData() {
+		Idp<I, V>[] vertices = (Idp<I, V>[]) new Idp<?, ?>[this.vertices.length];
+		for (int v = 0; v < vertices.length; v++) {
+			vertices[v] = new Idp<>(this.vertices[v].getId());
+		}
+		Idp<I, E>[] edges = (Idp<I, E>[]) new Idp<?, ?>[this.edges.length];
+		for (int e = 0; e < edges.length; e++) {
+			edges[e] = new Idp<>(this.edges[e].getId());
+		}
+		return new DGraphSnapshot<>(this, vertices, edges, edgeWeights, chains);
+	}
+
+	/**
+	 * The same snapshot, sharing vertices, edges and topology, with other edge weights.
+	 *
+	 * @param edgeWeights the weight of each edge
+	 * @return the snapshot with these weights
+	 */
+	public DGraphSnapshot<I, V, E> withWeights(double[] edgeWeights) {
+		if (edgeWeights.length != edges.length) {
+			throw new IllegalArgumentException("Edge weights do not match the edges");
+		}
+		return new DGraphSnapshot<>(this, vertices, edges, edgeWeights, chains);
+	}
+
+	/**
+	 * The same snapshot, sharing vertices, edges and topology, of which the chains of edges
+	 * do not cross from one class of edges to another, so that the edges of a part of a chain
+	 * are all of one class (such as a network). The chains are laid out in the direction
+	 * of the original snapshot.
+	 *
+	 * @param edgeClasses the class of each edge
+	 * @return the snapshot with these chains
+	 */
+	public DGraphSnapshot<I, V, E> withEdgeClasses(IntUnaryOperator edgeClasses) {
+		if (reversed) {
+			return reverse.withEdgeClasses(edgeClasses).reversed();
+		}
+		return new DGraphSnapshot<>(this, vertices, edges, edgeWeights, new Chains(this, edgeClasses));
+	}
+
+	/**
+	 * The same snapshot with all edges reversed, without copying any data.
+	 *
+	 * @return the reversed snapshot
+	 */
+	public DGraphSnapshot<I, V, E> reversed() {
+		return reverse;
+	}
+
+	public boolean isReversed() {
+		return reversed;
+	}
+
+	public int getVertexCount() {
+		return vertices.length;
+	}
+
+	public int getEdgeCount() {
+		return edges.length;
+	}
+
+	public Idp<I, V> getVertex(int vertex) {
+		return vertices[vertex];
+	}
+
+	public Idp<I, E> getEdge(int edge) {
+		return edges[edge];
+	}
+
+	/**
+	 * @param vertexId the vertex identifier
+	 * @return the vertex index, or -1 if there is no such vertex
+	 */
+	public int getVertexIndex(I vertexId) {
+		return vertexIds.indexOf(vertexId);
+	}
+
+	/**
+	 * @param edgeId the edge identifier
+	 * @return the edge index, or -1 if there is no such edge
+	 */
+	public int getEdgeIndex(I edgeId) {
+		return edgeIds.indexOf(edgeId);
+	}
+
+	public IdDictionary<I> getVertexIds() {
+		return vertexIds;
+	}
+
+	public IdDictionary<I> getEdgeIds() {
+		return edgeIds;
+	}
+
+	public int getEdgeSource(int edge) {
+		return edgeSources[edge];
+	}
+
+	public int getEdgeTarget(int edge) {
+		return edgeTargets[edge];
+	}
+
+	public double getEdgeWeight(int edge) {
+		return edgeWeights[edge];
+	}
+
+	/**
+	 * Outgoing edges of a vertex are iterated as
+	 * <code>for (int k = getOutgoingStart(v); k < getOutgoingEnd(v); k++) getOutgoingEdge(k)</code>
+	 *
+	 * @param vertex the vertex
+	 * @return first position in the outgoing adjacency
+	 */
+	public int getOutgoingStart(int vertex) {
+		return outOffsets[vertex];
+	}
+
+	public int getOutgoingEnd(int vertex) {
+		return outOffsets[vertex + 1];
+	}
+
+	public int getOutgoingEdge(int position) {
+		return outEdges == null ? position : outEdges[position];
+	}
+
+	public int getOutDegree(int vertex) {
+		return outOffsets[vertex + 1] - outOffsets[vertex];
+	}
+
+	/**
+	 * Incoming edges of a vertex are iterated as
+	 * <code>for (int k = getIncomingStart(v); k < getIncomingEnd(v); k++) getIncomingEdge(k)</code>
+	 *
+	 * @param vertex the vertex
+	 * @return first position in the incoming adjacency
+	 */
+	public int getIncomingStart(int vertex) {
+		return inOffsets[vertex];
+	}
+
+	public int getIncomingEnd(int vertex) {
+		return inOffsets[vertex + 1];
+	}
+
+	public int getIncomingEdge(int position) {
+		return inEdges == null ? position : inEdges[position];
+	}
+
+	public int getInDegree(int vertex) {
+		return inOffsets[vertex + 1] - inOffsets[vertex];
+	}
+
+	/**
+	 * A vertex that only joins a chain of edges: it can only be reached over one edge,
+	 * and only be left over one edge.
+	 *
+	 * @param vertex the vertex
+	 * @return true if the vertex has exactly one incoming and one outgoing edge
+	 */
+	public boolean isChainVertex(int vertex) {
+		return getInDegree(vertex) == 1 && getOutDegree(vertex) == 1;
+	}
+
+	/**
+	 * The edges of a chain from an edge on are the edge and the edges after it that leave
+	 * chain vertices, up to the end of the chain or an edge of another class
+	 * (see {@link #withEdgeClasses}), in the direction of this snapshot.
+	 *
+	 * @param edge the edge
+	 * @return the number of edges of the chain from the edge on, including the edge
+	 */
+	public int getChainLength(int edge) {
+		int position = chains.positions[edge];
+		int chain = chains.chainOf[position];
+		return reversed ? position - chains.offsets[chain] + 1 : chains.offsets[chain + 1] - position;
+	}
+
+	/**
+	 * @param edge the edge
+	 * @param distance the number of edges after the edge, less than {@link #getChainLength}
+	 * @return the edge of the chain at the distance from the edge
+	 */
+	public int getChainEdge(int edge, int distance) {
+		int position = chains.positions[edge];
+		return chains.edges[reversed ? position - distance : position + distance];
+	}
+
+	/**
+	 * @param edge the edge
+	 * @param count the number of edges, at most {@link #getChainLength}
+	 * @return the weight of that many edges of the chain from the edge on
+	 */
+	public double getChainWeight(int edge, int count) {
+		if (count <= 1) {
+			return count == 0 ? 0 : edgeWeights[edge];
+		}
+		int first = chains.positions[edge];
+		int last = reversed ? first - count + 1 : first + count - 1;
+		if (reversed) {
+			int swap = first;
+			first = last;
+			last = swap;
+		}
+		return chainWeights[last] + edgeWeights[chains.edges[last]] - chainWeights[first];
+	}
+
+	/**
+	 * The number of edges of the chain from an edge on that stay within a maximum weight
+	 * when added to a weight (see {@link #isWithin})
+	 *
+	 * @param edge the edge
+	 * @param length the number of edges to consider, at most {@link #getChainLength}
+	 * @param weight the weight to add the edges to
+	 * @param maxWeight the maximum weight
+	 * @return the number of edges, from 0 to length
+	 */
+	public int getChainCount(int edge, int length, double weight, double maxWeight) {
+		int low = 0;
+		int high = length;
+		while (low < high) {
+			int count = (low + high + 1) >>> 1;
+			if (isWithin(weight + getChainWeight(edge, count), maxWeight)) {
+				low = count;
+			} else {
+				high = count - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Whether a weight stays within a maximum weight, with a small tolerance relative to the maximum.
+	 * A weight summed over a part of a chain at once (see {@link #getChainWeight}) can differ in its
+	 * last bits from the same weight summed edge by edge, so a weight at the maximum could be within
+	 * it one way and not the other. Searches compare weights with this method whichever way they sum them.
+	 *
+	 * @param weight the weight
+	 * @param maxWeight the maximum weight
+	 * @return true if the weight is within the maximum
+	 */
+	public static boolean isWithin(double weight, double maxWeight) {
+		return weight <= maxWeight + WEIGHT_TOLERANCE * Math.abs(maxWeight);
+	}
+
+	/**
+	 * Rebuild a (mutable) graph from this snapshot, in the direction of this snapshot.
+	 * Meant for debugging and export, not for tracing.
+	 *
+	 * @return the graph
+	 */
+	public DGraph<I, V, E> toGraph() {
+		DGraph<I, V, E> result = new DGraph<>(true);
+		for (Idp<I, V> vertex : vertices) {
+			result.addVertex(vertex);
+		}
+		for (int e = 0; e < edges.length; e++) {
+			result.addEdge(vertices[edgeSources[e]], vertices[edgeTargets[e]], edges[e]);
+			result.setEdgeWeight(edges[e], edgeWeights[e]);
+		}
+		return result;
+	}
+
+	/**
+	 * The edges laid out chain by chain, each chain in the direction of the original snapshot.
+	 * A chain starts at an edge that does not leave a chain vertex, or of which the edge
+	 * into its source is of another class. Chains that are cycles start anywhere.
+	 */
+	private static final class Chains {
+
+		/**
+		 * the edges of chain c are edges[offsets[c]] .. edges[offsets[c + 1] - 1]
+		 */
+		private final int[] edges;
+
+		private final int[] offsets;
+
+		/**
+		 * the position of each edge in the edges
+		 */
+		private final int[] positions;
+
+		/**
+		 * the chain of each position in the edges
+		 */
+		private final int[] chainOf;
+
+		private Chains(DGraphSnapshot<?, ?, ?> graph, IntUnaryOperator edgeClasses) {
+			int edgeCount = graph.getEdgeCount();
+			edges = new int[edgeCount];
+			positions = new int[edgeCount];
+			int[] chainOffsets = new int[edgeCount + 1];
+			int chainCount = 0;
+			int position = 0;
+			BitSet placed = new BitSet(edgeCount);
+			// the chains with a start first, then the cycles
+			for (int pass = 0; pass < 2; pass++) {
+				for (int e = placed.nextClearBit(0); e < edgeCount; e = placed.nextClearBit(e + 1)) {
+					int source = graph.getEdgeSource(e);
+					if (pass == 0 && graph.isChainVertex(source) && edgeClasses.applyAsInt(
+							graph.getIncomingEdge(graph.getIncomingStart(source))) == edgeClasses.applyAsInt(e)) {
+						continue;
+					}
+					chainOffsets[chainCount++] = position;
+					for (int edge = e; edge >= 0 && !placed.get(edge);) {
+						placed.set(edge);
+						edges[position] = edge;
+						positions[edge] = position++;
+						int target = graph.getEdgeTarget(edge);
+						int next = graph.isChainVertex(target) ? graph.getOutgoingEdge(graph.getOutgoingStart(target)) : -1;
+						edge = next >= 0 && edgeClasses.applyAsInt(next) == edgeClasses.applyAsInt(edge) ? next : -1;
+					}
+				}
+			}
+			chainOffsets[chainCount] = position;
+			offsets = Arrays.copyOf(chainOffsets, chainCount + 1);
+			chainOf = new int[edgeCount];
+			for (int chain = 0; chain < chainCount; chain++) {
+				Arrays.fill(chainOf, offsets[chain], offsets[chain + 1], chain);
+			}
+		}
+
+		/**
+		 * @param edgeWeights the weight of each edge
+		 * @return per position, the weight of the edges of its chain before it
+		 */
+		private double[] sumWeights(double[] edgeWeights) {
+			double[] result = new double[edges.length];
+			for (int chain = 0; chain + 1 < offsets.length; chain++) {
+				double sum = 0;
+				for (int position = offsets[chain]; position < offsets[chain + 1]; position++) {
+					result[position] = sum;
+					sum += edgeWeights[edges[position]];
+				}
+			}
+			return result;
+		}
+
+	}
+
+}
@@ -0,0 +1,51 @@
+package com.geosparc.graph.base;
+
+/**
+ * The time by which a long running operation, such as a trace, has to stop, returning what it has.
+ * Operations check it every now and then, which also makes it possible to cancel them.
+ *
+ */
+public class Deadline {
+
+	private final boolean timed;
+
+	private final long end;
+
+	private volatile boolean cancelled;
+
+	private volatile boolean reached;
+
+	/**
+	 * @param timeBudget the time from now on in milliseconds, 0 or less for no time limit
+	 */
+	public Deadline(long timeBudget) {
+		timed = timeBudget > 0;
+		end = System.nanoTime() + Math.min(timeBudget, Long.MAX_VALUE / 2_000_000L) * 1_000_000L;
+	}
+
+	/**
+	 * Cancel the operation, the deadline is reached right away.
+	 */
+	public void cancel() {
+		cancelled = true;
+		reached = true;
+	}
+
+	/**
+	 * @return true if the operation was cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	/**
+	 * @return true if the time is up or the operation was cancelled
+	 */
+	public boolean isReached() {
+		if (!reached && timed && System.nanoTime() - end >= 0) {
+			reached = true;
+		}
+		return reached;
+	}
+
+}
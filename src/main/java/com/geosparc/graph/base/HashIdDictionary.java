@@ -0,0 +1,54 @@
+package com.geosparc.graph.base;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Id dictionary backed by a hash map, for any identifier class.
+ *
+ * @param <I> identifier class
+ */
+public class HashIdDictionary<I> implements IdDictionary<I> {
+
+	private final Map<I, Integer> indices;
+
+	private final List<I> ids;
+
+	public HashIdDictionary() {
+		this(16);
+	}
+
+	public HashIdDictionary(int capacity) {
+		indices = new HashMap<>(capacity * 4 / 3 + 1);
+		ids = new ArrayList<>(capacity);
+	}
+
+	@Override
+	public int add(I id) {
+		int index = ids.size();
+		if (indices.putIfAbsent(id, index) != null) {
+			throw new IllegalArgumentException("Identifier already added: " + id);
+		}
+		ids.add(id);
+		return index;
+	}
+
+	@Override
+	public int indexOf(I id) {
+		Integer index = indices.get(id);
+		return index == null ? -1 : index;
+	}
+
+	@Override
+	public I get(int index) {
+		return ids.get(index);
+	}
+
+	@Override
+	public int size() {
+		return ids.size();
+	}
+
+}
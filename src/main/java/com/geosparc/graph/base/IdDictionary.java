@@ -0,0 +1,33 @@
+package com.geosparc.graph.base;
+
+/**
+ * Maps identifiers to dense int indices, in the order they were added.
+ *
+ * @param <I> identifier class
+ */
+public interface IdDictionary<I> {
+
+	/**
+	 * Add an identifier.
+	 *
+	 * @param id the identifier
+	 * @return the new index, which is the size of the dictionary before adding
+	 * @throws IllegalArgumentException if the identifier was already added
+	 */
+	int add(I id);
+
+	/**
+	 * @param id the identifier
+	 * @return the index, or -1 if there is no such identifier
+	 */
+	int indexOf(I id);
+
+	/**
+	 * @param index the index
+	 * @return the identifier
+	 */
+	I get(int index);
+
+	int size();
+
+}
@@ -0,0 +1,44 @@
+package com.geosparc.graph.base;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntPredicate;
+
+/**
+ * A predicate over element indices that tests each element at most once, and then remembers
+ * the result. Elements tested at the same time by different threads may be tested twice,
+ * so the predicate must give the same result every time.
+ *
+ */
+public class MemoizedIntPredicate implements IntPredicate {
+
+	private final IntPredicate predicate;
+
+	/**
+	 * two bits per element: whether it was tested, and the result
+	 */
+	private final AtomicLongArray bits;
+
+	/**
+	 * @param predicate the predicate
+	 * @param size the number of elements
+	 */
+	public MemoizedIntPredicate(IntPredicate predicate, int size) {
+		this.predicate = predicate;
+		bits = new AtomicLongArray((int) ((2L * size + 63) / 64));
+	}
+
+	@Override
+	public boolean test(int index) {
+		int word = index >>> 5;
+		int shift = (index & 31) << 1;
+		long known = bits.get(word) >>> shift;
+		if ((known & 2) != 0) {
+			return (known & 1) != 0;
+		}
+		boolean result = predicate.test(index);
+		long set = (result ? 3L : 2L) << shift;
+		bits.getAndAccumulate(word, set, (a, b) -> a | b);
+		return result;
+	}
+
+}
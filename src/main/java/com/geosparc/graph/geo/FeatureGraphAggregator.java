@@ -1,12 +1,22 @@
 package com.geosparc.graph.geo;
 
+import com.geosparc.graph.alg.ReachabilityIndex;
+import com.geosparc.graph.base.DGraphSnapshot;
+import com.geosparc.graph.base.Deadline;
 import com.geosparc.graph.base.Idp;
 import org.geotools.util.logging.Logging;
 import org.jgrapht.Graph;
 import org.opengis.feature.simple.SimpleFeature;
 import org.springframework.lang.NonNull;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -30,10 +40,24 @@ public class FeatureGraphAggregator {
 
     private EdgeCalculator edgeCalculator;
 
+    private boolean upstream;
+
     private List<Idp<GlobalId, SimpleFeature>> orderedEdges;
 
     private Double ZERO = 0.0D;
 
+    private Deadline deadline;
+
+    private boolean deadlineReached;
+
+    // the trace, to find its strongly connected components
+    private DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> snapshot;
+
+    // the edges that close a loop, and per vertex in a loop the edge it was first reached by
+    private Set<Idp<GlobalId, SimpleFeature>> backEdges;
+
+    private Map<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> treeEdges;
+
     public FeatureGraphAggregator(Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> graph,
                                   List<Idp<GlobalId, SimpleFeature>> orderedEdges,
                                   String typeName,
@@ -44,14 +68,55 @@ public class FeatureGraphAggregator {
         this.sourceProperty = sourceProperty;
         this.typeName = typeName;
         this.edgeCalculator = getEdgeCalculatorFor(method, upstream);
+        this.upstream = upstream;
         this.orderedEdges = orderedEdges;
     }
 
+    /**
+     * Stop calculating at a deadline, with the values of the edges calculated so far.
+     *
+     * @param deadline the deadline, null for none
+     */
+    public void setDeadline(Deadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * @return true if the last calculation stopped at the deadline
+     */
+    public boolean isDeadlineReached() {
+        return deadlineReached;
+    }
+
+    /**
+     * Calculate the aggregate of all edges of the type. The edges are calculated in topological order
+     * over the condensed graph of the strongly connected components of the trace, each edge after the
+     * edges it depends on, which also makes the values independent of the order in which sets are iterated.
+     * Only the components with a loop are searched for the edges that close it, depth first, and loops
+     * are broken on those edges.
+     *
+     * @return the value per edge
+     */
     public Map<GlobalId, Object> aggregate() {
         Map<GlobalId, Object> result = new HashMap<>();
-        for (Idp<GlobalId, SimpleFeature> e : orderedEdges) {
-            if (e.getData().getType().getName().getLocalPart().equals(typeName)) {
-                edgeCalculator.calculate(e, result);
+        List<Idp<GlobalId, SimpleFeature>> edges = orderedEdges.stream().filter(this::isOfType)
+                .collect(Collectors.toList());
+        int[] positions = orderVertices(edges);
+        // downstream an edge depends on the edges before its source, upstream on the edges after its target
+        edges.sort(Comparator.comparingInt(e -> upstream
+                ? -positions[snapshot.getVertexIndex(graph.getEdgeTarget(e).getId())]
+                : positions[snapshot.getVertexIndex(graph.getEdgeSource(e).getId())]));
+        edgeCalculator.breakLoops(result);
+        deadlineReached = false;
+        for (Idp<GlobalId, SimpleFeature> e : edges) {
+            if (deadline != null && deadline.isReached()) {
+                deadlineReached = true;
+                break;
+            }
+            if (!result.containsKey(e.getId())) {
+                Object value = edgeCalculator.calculate(e, result);
+                LOGGER.finest(" -- adding edge: " + e.getId() + ", value: " + value);
+                result.put(e.getId(), value);
             }
         }
         return result;
@@ -59,6 +124,130 @@ public class FeatureGraphAggregator {
 
     // ----------------------------------------------------
 
+    private boolean isOfType(Idp<GlobalId, SimpleFeature> edge) {
+        return edge.getData().getType().getName().getLocalPart().equals(typeName);
+    }
+
+    private List<Idp<GlobalId, SimpleFeature>> filterType(Set<Idp<GlobalId, SimpleFeature>> edges) {
+        return edges.stream().filter(this::isOfType).collect(Collectors.toList());
+    }
+
+    /**
+     * Number the vertices of the trace in a topological order of the edges of the type without the edges
+     * that close a loop: the strongly connected components in topological order, and the vertices of a
+     * component with a loop in reverse post-order of a depth first search within the component.
+     *
+     * @param edges the ordered edges of the type
+     * @return the position of each vertex, by vertex index of the snapshot
+     */
+    private int[] orderVertices(List<Idp<GlobalId, SimpleFeature>> edges) {
+        snapshot = new DGraphSnapshot<>(graph);
+        ReachabilityIndex index = new ReachabilityIndex(snapshot);
+        backEdges = new HashSet<>();
+        treeEdges = new HashMap<>();
+
+        // the components with edges within them, which are the only ones that can have a loop,
+        // searched from the vertices the trace enters them by and then from the sources of those edges
+        Map<Integer, List<Idp<GlobalId, SimpleFeature>>> roots = new HashMap<>();
+        for (Idp<GlobalId, SimpleFeature> e : edges) {
+            if (getComponent(graph.getEdgeSource(e), index) == getComponent(graph.getEdgeTarget(e), index)) {
+                roots.put(getComponent(graph.getEdgeSource(e), index), new ArrayList<>());
+            }
+        }
+        for (Idp<GlobalId, SimpleFeature> e : edges) {
+            List<Idp<GlobalId, SimpleFeature>> entries = roots.get(getComponent(graph.getEdgeTarget(e), index));
+            if (entries != null && getComponent(graph.getEdgeSource(e), index)
+                    != getComponent(graph.getEdgeTarget(e), index)) {
+                entries.add(graph.getEdgeTarget(e));
+            }
+        }
+        for (Idp<GlobalId, SimpleFeature> e : edges) {
+            List<Idp<GlobalId, SimpleFeature>> sources = roots.get(getComponent(graph.getEdgeSource(e), index));
+            if (sources != null) {
+                sources.add(graph.getEdgeSource(e));
+            }
+        }
+
+        // components only reach components with a lower number
+        int[] componentStart = new int[index.getComponentCount() + 1];
+        for (int v = 0; v < snapshot.getVertexCount(); v++) {
+            componentStart[index.getComponentCount() - index.getComponent(v)]++;
+        }
+        for (int c = 0; c < index.getComponentCount(); c++) {
+            componentStart[c + 1] += componentStart[c];
+        }
+        int[] positions = new int[snapshot.getVertexCount()];
+        Arrays.fill(positions, -1);
+        for (Map.Entry<Integer, List<Idp<GlobalId, SimpleFeature>>> entry : roots.entrySet()) {
+            int position = componentStart[index.getComponentCount() - 1 - entry.getKey()];
+            for (Idp<GlobalId, SimpleFeature> vertex : findLoops(entry.getValue(), entry.getKey(), index)) {
+                positions[snapshot.getVertexIndex(vertex.getId())] = position++;
+            }
+            componentStart[index.getComponentCount() - 1 - entry.getKey()] = position;
+        }
+        for (int v = 0; v < snapshot.getVertexCount(); v++) {
+            if (positions[v] < 0) {
+                positions[v] = componentStart[index.getComponentCount() - 1 - index.getComponent(v)]++;
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Depth first search of the edges of the type within a component, from a number of its vertices.
+     * The edges that go back to a vertex on the current path are the ones that close a loop,
+     * without them the edges do not have loops.
+     *
+     * @return the vertices that were reached, in reverse post-order
+     */
+    private Deque<Idp<GlobalId, SimpleFeature>> findLoops(List<Idp<GlobalId, SimpleFeature>> roots,
+                                                         int component, ReachabilityIndex index) {
+        Deque<Idp<GlobalId, SimpleFeature>> order = new ArrayDeque<>();
+        Set<Idp<GlobalId, SimpleFeature>> visited = new HashSet<>();
+        Set<Idp<GlobalId, SimpleFeature>> onPath = new HashSet<>();
+        Deque<Idp<GlobalId, SimpleFeature>> path = new ArrayDeque<>();
+        Deque<Iterator<Idp<GlobalId, SimpleFeature>>> children = new ArrayDeque<>();
+        for (Idp<GlobalId, SimpleFeature> root : roots) {
+            if (!visited.add(root)) {
+                continue;
+            }
+            path.push(root);
+            onPath.add(root);
+            children.push(internalEdges(root, component, index));
+            while (!path.isEmpty()) {
+                if (!children.peek().hasNext()) {
+                    Idp<GlobalId, SimpleFeature> done = path.pop();
+                    onPath.remove(done);
+                    order.push(done);
+                    children.pop();
+                    continue;
+                }
+                Idp<GlobalId, SimpleFeature> child = children.peek().next();
+                Idp<GlobalId, SimpleFeature> target = graph.getEdgeTarget(child);
+                if (visited.add(target)) {
+                    treeEdges.put(target, child);
+                    path.push(target);
+                    onPath.add(target);
+                    children.push(internalEdges(target, component, index));
+                } else if (onPath.contains(target)) {
+                    backEdges.add(child);
+                }
+            }
+        }
+        return order;
+    }
+
+    private Iterator<Idp<GlobalId, SimpleFeature>> internalEdges(Idp<GlobalId, SimpleFeature> vertex,
+                                                                 int component, ReachabilityIndex index) {
+        return graph.outgoingEdgesOf(vertex).stream()
+                .filter(e -> isOfType(e) && getComponent(graph.getEdgeTarget(e), index) == component)
+                .iterator();
+    }
+
+    private int getComponent(Idp<GlobalId, SimpleFeature> vertex, ReachabilityIndex index) {
+        return index.getComponent(snapshot.getVertexIndex(vertex.getId()));
+    }
+
     private EdgeCalculator getEdgeCalculatorFor(FeatureGraphAggregatorMethod method, boolean upstream) {
         if (upstream) {
             return new UpstreamEdgeCalculator(method);
@@ -68,6 +257,14 @@ public class FeatureGraphAggregator {
     }
 
     protected interface EdgeCalculator {
+        /**
+         * Put the values of the edges that are left out of the loops.
+         */
+        void breakLoops(Map<GlobalId, Object> result);
+
+        /**
+         * Calculate the edge from the values of its dependencies.
+         */
         Object calculate(Idp<GlobalId, SimpleFeature> edge, Map<GlobalId, Object> result);
     }
 
@@ -81,25 +278,23 @@ public class FeatureGraphAggregator {
             this.method = method;
         }
 
+        @Override
+        public void breakLoops(Map<GlobalId, Object> result) {
+            // an edge that closes a loop has a value, but does not add it to the edges before it
+        }
+
         @Override
         public Object calculate(Idp<GlobalId, SimpleFeature> edge, Map<GlobalId, Object> result) {
-            Object value = result.get(edge.getId());
-            if (value == null) {
-                // this avoids infinite recursion if there is a loop
-                // therefore, it is important to follow the right order
-                // starting with the source
-                result.put(edge.getId(), 0);
-
-                Set<Idp<GlobalId, SimpleFeature>> outgoingEdges = graph.outgoingEdgesOf(graph.getEdgeTarget(edge));
-                Set<Idp<GlobalId, SimpleFeature>> incomingEdges = graph.incomingEdgesOf(graph.getEdgeTarget(edge));
-
-                value = method.computeEdgeValueOutgoing(edge.getData().getAttribute(sourceProperty), outgoingEdges.size(), incomingEdges.size());
-                for (Idp<GlobalId, SimpleFeature> e : graph.outgoingEdgesOf(graph.getEdgeTarget(edge))) {
-                    if (e.getData().getType().getName().getLocalPart().equals(typeName)) {
-                        value = method.compute(value, method.computeEdgeValueIncoming(calculate(e, result), incomingEdges.size()));
-                    }
+            Idp<GlobalId, SimpleFeature> target = graph.getEdgeTarget(edge);
+            Set<Idp<GlobalId, SimpleFeature>> outgoingEdges = graph.outgoingEdgesOf(target);
+            Set<Idp<GlobalId, SimpleFeature>> incomingEdges = graph.incomingEdgesOf(target);
+
+            Object value = method.computeEdgeValueOutgoing(edge.getData().getAttribute(sourceProperty), outgoingEdges.size(), incomingEdges.size());
+            for (Idp<GlobalId, SimpleFeature> e : outgoingEdges) {
+                if (isOfType(e)) {
+                    Object singleValue = backEdges.contains(e) ? ZERO : result.get(e.getId());
+                    value = method.compute(value, method.computeEdgeValueIncoming(singleValue, incomingEdges.size()));
                 }
-                result.put(edge.getId(), value);
             }
             return value;
         }
@@ -108,6 +303,9 @@ public class FeatureGraphAggregator {
     protected class DownstreamEdgeCalculator implements EdgeCalculator {
         private final FeatureGraphAggregatorMethod method;
 
+        // the edges of the loops that are zero
+        private final Set<Idp<GlobalId, SimpleFeature>> loopEdges = new HashSet<>();
+
         public DownstreamEdgeCalculator(FeatureGraphAggregatorMethod method) {
             if (!method.supportsDownstream()) {
                 throw new IllegalArgumentException("Method: " + method.name() + " does not support downstream calculation");
@@ -115,83 +313,43 @@ public class FeatureGraphAggregator {
             this.method = method;
         }
 
+        /**
+         * Mark the loopy part as all zero's, so they aren't used twice: the edge that closes the loop,
+         * and the edges of the loop before it, as long as they do not split.
+         */
         @Override
-        public Object calculate(Idp<GlobalId, SimpleFeature> edge, Map<GlobalId, Object> result) {
-            Object value = result.get(edge.getId());
-            LOGGER.finest("calculate edge: " + edge.getId());
-
-            if (value == null) {
-
-                // To avoid infinite recursion if there is a loop, we add the edge we are currently working on, so we can detect it
-                // therefore, it is important to follow the right order
-                // starting with the source
-                result.put(edge.getId(), edge); // adding self instead of value: implies not yet calculated (not pretty, I know)
-
-                Set<Idp<GlobalId, SimpleFeature>> siblingEdges = graph.outgoingEdgesOf(graph.getEdgeSource(edge))
-                        .stream().filter(e -> e.getData().getType().getName().getLocalPart().equals(typeName)).collect(Collectors.toSet());
-                Set<Idp<GlobalId, SimpleFeature>> parentEdges = graph.incomingEdgesOf(graph.getEdgeSource(edge))
-                        .stream().filter(e -> e.getData().getType().getName().getLocalPart().equals(typeName)).collect(Collectors.toSet());
-
-                value = method.computeEdgeValueOutgoing(edge.getData().getAttribute(sourceProperty), parentEdges.size(), siblingEdges.size());
-                for (Idp<GlobalId, SimpleFeature> e : parentEdges) {
-                    Object singleValue = calculate(e, result);
-                    if (isLoop(singleValue)) {
-                        LOGGER.finest(" -- loop detected - edge: " + e.getId());
-                        if (singleValue.equals(edge)) { // back to beginning of loop
-                            LOGGER.finest("    -- root of loop: " + edge.getId());
-                            fixLoop(e, result);
-                            singleValue = ZERO;
-                        } else { // do some backtracking
-                            LOGGER.finest("    -- backtracking: " + edge.getId());
-                            result.remove(edge.getId());
-                            return singleValue; // return the 'offending' edge, this is the start of the loop.
-                        }
-                    }
-
-                    value = method.compute(value, method.computeEdgeValueIncoming(singleValue, countValidSiblings(siblingEdges, result)));
+        public void breakLoops(Map<GlobalId, Object> result) {
+            loopEdges.clear();
+            for (Idp<GlobalId, SimpleFeature> backEdge : backEdges) {
+                Idp<GlobalId, SimpleFeature> edge = backEdge;
+                Idp<GlobalId, SimpleFeature> loopStart = graph.getEdgeTarget(backEdge);
+                while (edge != null && loopEdges.add(edge)) {
+                    LOGGER.finest(" -- fixing loopy edge: " + edge.getId());
+                    result.put(edge.getId(), ZERO);
+                    Idp<GlobalId, SimpleFeature> source = graph.getEdgeSource(edge);
+                    edge = !source.equals(loopStart) && filterType(graph.outgoingEdgesOf(source)).size() == 1
+                            ? treeEdges.get(source) : null;
                 }
-
-                LOGGER.finest(" -- adding edge: " + edge.getId() + ", value: " + value);
-                result.put(edge.getId(), value);
             }
-            return value;
         }
 
-        private boolean isLoop(Object value) {
-            return (value != null && value instanceof Idp);
+        private List<Idp<GlobalId, SimpleFeature>> getParentEdges(Idp<GlobalId, SimpleFeature> edge) {
+            return filterType(graph.incomingEdgesOf(graph.getEdgeSource(edge)));
         }
 
-        /**
-         * Siblings that have been explicitly set to zero should not be counted (in case of loop).
-         *
-         * @return
-         */
-        private long countValidSiblings(Set<Idp<GlobalId, SimpleFeature>> siblingEdges, Map<GlobalId, Object> result) {
-            return siblingEdges.stream().filter(s -> !result.containsKey(s.getId()) || !ZERO.equals(result.get(s.getId()))).count();
-        }
+        @Override
+        public Object calculate(Idp<GlobalId, SimpleFeature> edge, Map<GlobalId, Object> result) {
+            List<Idp<GlobalId, SimpleFeature>> siblingEdges = filterType(graph.outgoingEdgesOf(graph.getEdgeSource(edge)));
+            List<Idp<GlobalId, SimpleFeature>> parentEdges = getParentEdges(edge);
 
-        /**
-         * Mark the Loopy part as all zero's, so they aren't used twice.
-         * Presumes there are not unused parents (ie. edges that are not part of this tracing.)
-         *
-         * Backtracking -> Reverse order!
-         */
-        private void fixLoop(Idp<GlobalId, SimpleFeature> edge, Map<GlobalId, Object> result) {
-            if (!result.containsKey(edge.getId())) {
-                LOGGER.finest(" -- fixing loopy edge: " + edge.getId());
-                result.put(edge.getId(), ZERO);
-
-                Set<Idp<GlobalId, SimpleFeature>> siblingEdges = graph.outgoingEdgesOf(graph.getEdgeSource(edge))
-                        .stream().filter(e -> e.getData().getType().getName().getLocalPart().equals(typeName)).collect(Collectors.toSet());
-                Set<Idp<GlobalId, SimpleFeature>> parentEdges = graph.incomingEdgesOf(graph.getEdgeSource(edge))
-                        .stream().filter(e -> e.getData().getType().getName().getLocalPart().equals(typeName)).collect(Collectors.toSet());
-
-                if (siblingEdges.size() == 1 && !parentEdges.isEmpty()) { // 1 sibling == self
-                    for (Idp<GlobalId, SimpleFeature> parentEdge : parentEdges) {
-                        fixLoop(parentEdge, result);
-                    }
-                }
+            // siblings that have been set to zero should not be counted
+            long validSiblings = siblingEdges.stream().filter(s -> !loopEdges.contains(s)).count();
+
+            Object value = method.computeEdgeValueOutgoing(edge.getData().getAttribute(sourceProperty), parentEdges.size(), siblingEdges.size());
+            for (Idp<GlobalId, SimpleFeature> e : parentEdges) {
+                value = method.compute(value, method.computeEdgeValueIncoming(result.get(e.getId()), validSiblings));
             }
+            return value;
         }
     }
 
@@ -35,6 +35,7 @@ import com.geosparc.graph.base.DGraph;
 import com.google.common.collect.LinkedListMultimap;
 import com.google.common.collect.Multimap;
 import com.geosparc.graph.base.Idp;
+import com.geosparc.graph.geo.GlobalId.Kind;
 import com.geosparc.graph.geo.GlobalId.Type;
 import com.geosparc.gte.config.ConnectionConfig.ConnectionType;
 
@@ -239,7 +240,7 @@ public class FeatureGraphBuilder {
         					GlobalId nodeId = 
         							new GlobalId(network,
         	        				UUID.randomUUID().toString(),
-    								Type.GENERATED);
+    								Type.GENERATED, Kind.GENERATED_VERTEX);
         					graph.addVertexById(nodeId)
         						.setData(generateNode(network,
         								nodeId.getIdentifier(),
@@ -279,7 +280,7 @@ public class FeatureGraphBuilder {
 			if (toNodeId == null) {
 				toNodeId = new GlobalId(network,
         				UUID.randomUUID().toString(),
-						Type.GENERATED);
+						Type.GENERATED, Kind.GENERATED_VERTEX);
 				graph.addVertexById(toNodeId)
 					.setData(generateNode(network, toNodeId.getIdentifier(),
 						(Geometry) feature.getDefaultGeometry(), true));
@@ -288,7 +289,7 @@ public class FeatureGraphBuilder {
 			if (fromNodeId == null) {
 				fromNodeId = new GlobalId(network,
         				UUID.randomUUID().toString(),
-						Type.GENERATED);
+						Type.GENERATED, Kind.GENERATED_VERTEX);
 				graph.addVertexById(fromNodeId)
 					.setData(generateNode(network, fromNodeId.getIdentifier(),
 						(Geometry) feature.getDefaultGeometry(), false));
@@ -364,6 +365,7 @@ public class FeatureGraphBuilder {
 						 + vertex.toString() + " missing in network " + targetNetwork
 						 + ", skipping...");
 					} else {
+						// without a feature, this is traced as a data edge of the source network
 						graph.addEdgeById(vertex.getId(), otherVertex.getId(), 
 								new GlobalId(sourceNetwork,
 								UUID.randomUUID().toString(),
@@ -414,7 +416,7 @@ public class FeatureGraphBuilder {
 									lil.extractLine(destinationIndex, lil.getEndIndex());
 							GlobalId nodeId = new GlobalId(sourceNetwork,
 									UUID.randomUUID().toString(),
-									Type.GENERATED);
+									Type.GENERATED, Kind.CONNECTION_VERTEX);
 							otherVertex = graph.addVertexById(nodeId);
 							otherVertex.setData(generateNode(CONNECTION_VERTEX,
 											nodeId.getIdentifier(), 
@@ -424,7 +426,7 @@ public class FeatureGraphBuilder {
 								Idp<GlobalId, SimpleFeature> secondConnectingEdge = 
 										graph.addEdgeById(otherVertex.getId(), graph.getEdgeTarget(edge).getId(),
 										new GlobalId(targetNetwork, secondEdgeId,
-												Type.GENERATED));
+												Type.GENERATED, Kind.PARTIAL_EDGE));
 								secondConnectingEdge.setData(createPartialEdge(secondEdgeId, 
 										connectingEdgeGeometry, edge.getData()));
 								graph.setEdgeWeight(secondConnectingEdge, 
@@ -439,7 +441,7 @@ public class FeatureGraphBuilder {
 							Idp<GlobalId, SimpleFeature> connectingEdge = 
 									graph.addEdgeById(vertex.getId(), otherVertex.getId(), 
 									new GlobalId(targetNetwork, edgeId,
-											Type.GENERATED));
+											Type.GENERATED, Kind.CONNECTION_EDGE));
 							connectingEdge.setData(createConnectingEdge(edgeId, 
 									 point.getCoordinate(), destination.getCoordinate()));
 							double length = ((Geometry) vertex.getData().getDefaultGeometry())
@@ -505,14 +507,14 @@ public class FeatureGraphBuilder {
 				LinearLocation destinationIndex = lil.project(point.getCoordinate());
 				destination = geomFac.createPoint(lil.extractPoint(destinationIndex));
 				Geometry connectingEdgeGeometry = lil.extractLine(destinationIndex, lil.getEndIndex());
-				GlobalId nodeId = new GlobalId(sourceNetwork, UUID.randomUUID().toString(), Type.GENERATED);
+				GlobalId nodeId = new GlobalId(sourceNetwork, UUID.randomUUID().toString(), Type.GENERATED, Kind.CONNECTION_VERTEX);
 				otherVertex = graph.addVertexById(nodeId);
 				otherVertex.setData(generateNode(CONNECTION_VERTEX, nodeId.getIdentifier(), destination));
 				try {
 					String secondEdgeId = edgeId + "+";
 					Idp<GlobalId, SimpleFeature> secondConnectingEdge = graph.addEdgeById(otherVertex.getId(),
 							graph.getEdgeTarget(closestEdge).getId(),
-							new GlobalId(targetNetwork, secondEdgeId, Type.GENERATED));
+							new GlobalId(targetNetwork, secondEdgeId, Type.GENERATED, Kind.PARTIAL_EDGE));
 					secondConnectingEdge
 							.setData(createPartialEdge(secondEdgeId, connectingEdgeGeometry, closestEdge.getData()));
 					graph.setEdgeWeight(secondConnectingEdge, connectingEdgeGeometry.getLength());
@@ -522,7 +524,7 @@ public class FeatureGraphBuilder {
 				}
 				try {
 					Idp<GlobalId, SimpleFeature> connectingEdge = graph.addEdgeById(vertex.getId(), otherVertex.getId(),
-							new GlobalId(targetNetwork, edgeId, Type.GENERATED));
+							new GlobalId(targetNetwork, edgeId, Type.GENERATED, Kind.CONNECTION_EDGE));
 					connectingEdge
 							.setData(createConnectingEdge(edgeId, point.getCoordinate(), destination.getCoordinate()));
 					double length = ((Geometry) vertex.getData().getDefaultGeometry()).distance(destination);
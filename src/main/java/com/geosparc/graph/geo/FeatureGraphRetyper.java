@@ -12,6 +12,7 @@ import org.opengis.feature.simple.SimpleFeatureType;
 
 import com.geosparc.graph.base.DGraphOperation;
 import com.geosparc.graph.base.Idp;
+import com.geosparc.graph.geo.GlobalId.Kind;
 
 /**
  * Helper class for retyping feature graphs
@@ -66,7 +67,7 @@ public class FeatureGraphRetyper extends DGraphOperation<GlobalId, SimpleFeature
 		if (edge == null) {
 			return null;
 		}
-		if (edge.getFeatureType().getName().getLocalPart().equals(FeatureGraphBuilder.CONNECTION_EDGE)) {
+		if (id.getKind() == Kind.CONNECTION_EDGE) {
 			return edge;
 		}
 		return SimpleFeatureBuilder.retype(edge, 
@@ -78,7 +79,7 @@ public class FeatureGraphRetyper extends DGraphOperation<GlobalId, SimpleFeature
 		if (vertex == null) {
 			return null;
 		}
-		if (vertex.getFeatureType().getName().getLocalPart().endsWith(FeatureGraphBuilder.GENERATED_VERTEX)) {
+		if (id.getKind().isGeneratedVertex()) {
 			return vertex;
 		}
 		return SimpleFeatureBuilder.retype(vertex, 
@@ -0,0 +1,378 @@
+package com.geosparc.graph.geo;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.geotools.filter.text.cql2.CQL;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+import org.jgrapht.Graph;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+
+import com.geosparc.graph.alg.ReachabilityIndex;
+import com.geosparc.graph.base.DGraph;
+import com.geosparc.graph.base.DGraphSnapshot;
+import com.geosparc.graph.base.Idp;
+import com.geosparc.graph.geo.GlobalId.Kind;
+
+/**
+ * Snapshot of a feature graph, of which the vertices and edges are indexed
+ * by global id dictionaries.
+ *
+ * The features are kept in columnar feature stores rather than in the graph, and
+ * are only built for the vertices and edges that are requested, see {@link #getVertex(int)}
+ * and {@link #getEdge(int)}.
+ *
+ * Besides the weights of the graph (the geometric length), a snapshot can hold alternative
+ * named edge weights, read from edge attributes, see {@link #getGraph(boolean, String)}.
+ *
+ */
+public class FeatureGraphSnapshot {
+
+	private static final Logger LOGGER = Logging.getLogger(FeatureGraphSnapshot.class);
+
+	private final GlobalIdDictionary vertexIds;
+
+	private final GlobalIdDictionary edgeIds;
+
+	private final DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> graph;
+
+	private final FeatureStore vertexFeatures;
+
+	private final FeatureStore edgeFeatures;
+
+	private final Map<String, double[]> weights;
+
+	private final Map<String, DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature>> weightedGraphs =
+			new HashMap<>();
+
+	private ReachabilityIndex reachabilityIndex;
+
+	private volatile FilterMaskCache filterMasks;
+
+	/**
+	 * Freeze a feature graph into a snapshot.
+	 *
+	 * @param graph the graph
+	 */
+	public FeatureGraphSnapshot(Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> graph) {
+		this(graph, Collections.emptyMap());
+	}
+
+	/**
+	 * Freeze a feature graph into a snapshot, with alternative edge weights.
+	 * Edges without a value for a weight (such as connection edges) weigh 0.
+	 *
+	 * @param graph the graph
+	 * @param weightAttributes per weight name, the edge attribute of each network
+	 */
+	public FeatureGraphSnapshot(Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> graph,
+			Map<String, Map<String, String>> weightAttributes) {
+		vertexIds = new GlobalIdDictionary(graph.vertexSet().size());
+		edgeIds = new GlobalIdDictionary(vertexIds, graph.edgeSet().size());
+		DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> snapshot =
+				new DGraphSnapshot<>(graph, vertexIds, edgeIds);
+		vertexFeatures = new FeatureStore(snapshot.getVertexCount(),
+				v -> snapshot.getVertex(v).getData());
+		edgeFeatures = new FeatureStore(snapshot.getEdgeCount(),
+				e -> snapshot.getEdge(e).getData());
+		// a part of a chain of edges is of one network, so its weight counts for that network
+		this.graph = snapshot.withoutData().withEdgeClasses(edgeIds::getNetworkOrdinal);
+
+		weights = new LinkedHashMap<>();
+		for (Map.Entry<String, Map<String, String>> weight : weightAttributes.entrySet()) {
+			weights.put(weight.getKey(), readWeights(weight.getValue()));
+		}
+		prepareWeightedGraphs();
+	}
+
+	/**
+	 * Assemble a snapshot that was read from a file.
+	 */
+	FeatureGraphSnapshot(GlobalIdDictionary vertexIds, GlobalIdDictionary edgeIds,
+			DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> graph,
+			FeatureStore vertexFeatures, FeatureStore edgeFeatures, Map<String, double[]> weights) {
+		this.vertexIds = vertexIds;
+		this.edgeIds = edgeIds;
+		this.graph = graph.withEdgeClasses(edgeIds::getNetworkOrdinal);
+		this.vertexFeatures = vertexFeatures;
+		this.edgeFeatures = edgeFeatures;
+		this.weights = weights;
+		prepareWeightedGraphs();
+	}
+
+	private double[] readWeights(Map<String, String> attributes) {
+		String[] networkAttributes = new String[getNetworkCount()];
+		for (int network = 0; network < networkAttributes.length; network++) {
+			networkAttributes[network] = attributes.get(vertexIds.getNetwork(network));
+		}
+		double[] result = new double[edgeIds.size()];
+		for (int e = 0; e < result.length; e++) {
+			String attribute = networkAttributes[edgeIds.getNetworkOrdinal(e)];
+			Object value = attribute == null ? null : edgeFeatures.getAttribute(e, attribute);
+			Number number = value == null || value instanceof Number ? (Number) value :
+				Converters.convert(value, Double.class);
+			result[e] = number == null ? 0 : number.doubleValue();
+		}
+		return result;
+	}
+
+	private void prepareWeightedGraphs() {
+		for (Map.Entry<String, double[]> weight : weights.entrySet()) {
+			weightedGraphs.put(weight.getKey(), graph.withWeights(weight.getValue()));
+		}
+	}
+
+	public DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> getGraph() {
+		return graph;
+	}
+
+	/**
+	 * @param upstream direction of tracing
+	 * @return the graph in the direction of tracing
+	 */
+	public DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> getGraph(boolean upstream) {
+		return upstream ? graph.reversed() : graph;
+	}
+
+	/**
+	 * @param upstream direction of tracing
+	 * @param weight name of the edge weight, null for the length
+	 * @return the graph in the direction of tracing, with the requested edge weights
+	 */
+	public DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> getGraph(boolean upstream, String weight) {
+		DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> result =
+				weight == null ? graph : weightedGraphs.get(weight);
+		if (result == null) {
+			throw new IllegalArgumentException("unknown_weight");
+		}
+		return upstream ? result.reversed() : result;
+	}
+
+	/**
+	 * @return the names of the alternative edge weights
+	 */
+	public Set<String> getWeightNames() {
+		return weights.keySet();
+	}
+
+	/**
+	 * @param weight name of the edge weight
+	 * @return the weight of each edge, do not modify
+	 */
+	public double[] getWeights(String weight) {
+		return weights.get(weight);
+	}
+
+	public FeatureStore getVertexFeatures() {
+		return vertexFeatures;
+	}
+
+	public FeatureStore getEdgeFeatures() {
+		return edgeFeatures;
+	}
+
+	/**
+	 * @param vertex the vertex index
+	 * @return a new vertex with its feature
+	 */
+	public Idp<GlobalId, SimpleFeature> getVertex(int vertex) {
+		return new Idp<>(vertexIds.get(vertex), vertexFeatures.getFeature(vertex));
+	}
+
+	/**
+	 * @param edge the edge index
+	 * @return a new edge with its feature
+	 */
+	public Idp<GlobalId, SimpleFeature> getEdge(int edge) {
+		return new Idp<>(edgeIds.get(edge), edgeFeatures.getFeature(edge));
+	}
+
+	/**
+	 * Rebuild the entire graph with all features, for debugging and export.
+	 *
+	 * @return the graph
+	 */
+	public DGraph<GlobalId, SimpleFeature, SimpleFeature> toGraph() {
+		DGraph<GlobalId, SimpleFeature, SimpleFeature> result = new DGraph<>(true);
+		List<Idp<GlobalId, SimpleFeature>> vertices = new ArrayList<>(graph.getVertexCount());
+		for (int v = 0; v < graph.getVertexCount(); v++) {
+			vertices.add(getVertex(v));
+			result.addVertex(vertices.get(v));
+		}
+		for (int e = 0; e < graph.getEdgeCount(); e++) {
+			Idp<GlobalId, SimpleFeature> edge = getEdge(e);
+			result.addEdge(vertices.get(graph.getEdgeSource(e)), vertices.get(graph.getEdgeTarget(e)), edge);
+			result.setEdgeWeight(edge, graph.getEdgeWeight(e));
+		}
+		return result;
+	}
+
+	public GlobalIdDictionary getVertexIds() {
+		return vertexIds;
+	}
+
+	public GlobalIdDictionary getEdgeIds() {
+		return edgeIds;
+	}
+
+	/**
+	 * @return the reachability index of the graph, over all networks, built on first use
+	 */
+	public synchronized ReachabilityIndex getReachabilityIndex() {
+		if (reachabilityIndex == null) {
+			reachabilityIndex = new ReachabilityIndex(graph);
+			LOGGER.info("Built reachability index, " + reachabilityIndex.getComponentCount()
+					+ " strongly connected components.");
+		}
+		return reachabilityIndex;
+	}
+
+	/**
+	 * Keep the masks of the filters that are used in traces again, up to a maximum size.
+	 * Without a cache, or the first time a filter is used, filters are evaluated on the elements
+	 * a trace passes.
+	 *
+	 * @param maxBytes the maximum size of the masks together, 0 for no cache
+	 */
+	public void setFilterMaskCacheSize(long maxBytes) {
+		filterMasks = maxBytes > 0 ? new FilterMaskCache(maxBytes) : null;
+	}
+
+	/**
+	 * @return the cache of filter masks, or null if there is none
+	 */
+	public FilterMaskCache getFilterMaskCache() {
+		return filterMasks;
+	}
+
+	/**
+	 * The vertices of a network that do not pass a filter, evaluated once over the whole network
+	 * when the filter is used again.
+	 * Generated vertices are left out, filters do not apply to them.
+	 *
+	 * @param network the network name
+	 * @param filter the filter
+	 * @return the mask, or null if there is no cache, the filter is used for the first time
+	 * or can not be written as CQL
+	 */
+	public BitSet getVertexFilterMask(String network, Filter filter) {
+		return getFilterMask(true, network, filter);
+	}
+
+	/**
+	 * The edges of a network that do not pass a filter, evaluated once over the whole network
+	 * when the filter is used again.
+	 * Connection edges are left out, filters do not apply to them.
+	 *
+	 * @param network the network name
+	 * @param filter the filter
+	 * @return the mask, or null if there is no cache, the filter is used for the first time
+	 * or can not be written as CQL
+	 */
+	public BitSet getEdgeFilterMask(String network, Filter filter) {
+		return getFilterMask(false, network, filter);
+	}
+
+	private BitSet getFilterMask(boolean vertices, String network, Filter filter) {
+		FilterMaskCache cache = filterMasks;
+		int networkOrdinal = getNetworkOrdinal(network);
+		if (cache == null || networkOrdinal < 0) {
+			return null;
+		}
+		String cql;
+		try {
+			// equal filters are written the same, however they were typed
+			cql = CQL.toCQL(filter);
+		} catch (RuntimeException e) {
+			return null;
+		}
+		GlobalIdDictionary ids = vertices ? vertexIds : edgeIds;
+		FeatureStore features = vertices ? vertexFeatures : edgeFeatures;
+		return cache.getMask(vertices, network, cql, () -> {
+			BitSet mask = new BitSet(ids.size());
+			for (int i = 0; i < ids.size(); i++) {
+				if (ids.getNetworkOrdinal(i) != networkOrdinal) {
+					continue;
+				}
+				Kind kind = ids.getKind(i);
+				if (vertices ? kind.isGeneratedVertex() : kind == Kind.CONNECTION_EDGE) {
+					continue;
+				}
+				mask.set(i);
+			}
+			mask.andNot(features.evaluate(filter, mask));
+			return mask;
+		});
+	}
+
+	/**
+	 * Tell whether a node or edge is part of the trace from another node or edge, over all networks
+	 * and without filters, with the reachability index instead of tracing. Only when starting from an
+	 * edge of which the source node can be reached again, the nodes around that source are searched.
+	 * See {@link TraceMembership} for the rules of a trace it follows.
+	 *
+	 * @param from the start node or edge
+	 * @param to the node or edge to look for
+	 * @param upstream direction of tracing
+	 * @return true if the trace contains the node or edge
+	 */
+	public boolean isReachable(GlobalId from, GlobalId to, boolean upstream) {
+		int fromVertex = graph.getVertexIndex(from);
+		int fromEdge = fromVertex < 0 ? graph.getEdgeIndex(from) : -1;
+		int toVertex = graph.getVertexIndex(to);
+		int toEdge = toVertex < 0 ? graph.getEdgeIndex(to) : -1;
+		if ((fromVertex < 0 && fromEdge < 0) || (toVertex < 0 && toEdge < 0)) {
+			throw new IllegalArgumentException("node_or_edge_not_found");
+		}
+
+		TraceMembership trace = new TraceMembership(this, upstream, fromVertex, fromEdge);
+		return toVertex >= 0 ? trace.containsVertex(toVertex) : trace.containsEdge(toEdge);
+	}
+
+	/**
+	 * Estimate the memory footprint of the snapshot, per network.
+	 *
+	 * @return the footprint of each network, by network ordinal
+	 */
+	public List<NetworkFootprint> getFootprint() {
+		List<NetworkFootprint> result = new ArrayList<>();
+		for (int network = 0; network < getNetworkCount(); network++) {
+			result.add(new NetworkFootprint(vertexIds.getNetwork(network)));
+		}
+		// the offsets in both directions, and an Idp object
+		for (int v = 0; v < graph.getVertexCount(); v++) {
+			result.get(vertexIds.getNetworkOrdinal(v)).addVertex(8, 24 + vertexIds.estimateBytes(v),
+					vertexFeatures.estimateAttributeBytes(v), vertexFeatures.estimateGeometryBytes(v));
+		}
+		// source, target, both adjacencies, the place in the chains, the weights with their sums
+		// along the chains, and an Idp object
+		long edgeTopologyBytes = 16 + 12 + 16 + 16L * weights.size();
+		for (int e = 0; e < graph.getEdgeCount(); e++) {
+			result.get(edgeIds.getNetworkOrdinal(e)).addEdge(edgeTopologyBytes, 24 + edgeIds.estimateBytes(e),
+					edgeFeatures.estimateAttributeBytes(e), edgeFeatures.estimateGeometryBytes(e));
+		}
+		return result;
+	}
+
+	/**
+	 * @param network the network name
+	 * @return the network ordinal, or -1 if the network is not in the graph
+	 */
+	public int getNetworkOrdinal(String network) {
+		return vertexIds.getNetworkOrdinal(network);
+	}
+
+	public int getNetworkCount() {
+		return vertexIds.getNetworkCount();
+	}
+
+}
@@ -0,0 +1,225 @@
+package com.geosparc.graph.geo;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.geosparc.graph.base.DGraphSnapshot;
+import com.geosparc.graph.geo.GlobalId.Kind;
+import com.geosparc.graph.geo.GlobalId.Type;
+
+/**
+ * Binary file with a feature graph snapshot, so that the graph can be loaded
+ * without going to the data sources.
+ *
+ * The file holds a header (with the serial of the graph), the networks, the vertex and
+ * edge ids, the topology and weights, the vertex and edge feature stores and
+ * the alternative edge weights.
+ * A file is always replaced as a whole, so readers never see a partially written file.
+ *
+ * A snapshot can also be mapped rather than read, in which case the attribute
+ * columns stay in the file and are shared (through the page cache) with other
+ * processes that map the same file. Replacing the file does not affect existing
+ * mappings, they keep the previous snapshot until it is no longer used.
+ * The ids, their dictionaries and the topology are read on the heap of each process
+ * all the same, mapping only saves the memory of the attributes.
+ *
+ */
+public class FeatureGraphSnapshotFile {
+
+	private static final int MAGIC = 0x47544547; // GTEG
+
+	private static final int VERSION = 3;
+
+	private final File file;
+
+	private long serial;
+
+	public FeatureGraphSnapshotFile(File file) {
+		this.file = file;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public boolean exists() {
+		return file.isFile();
+	}
+
+	/**
+	 * @return the serial of the last snapshot that was read or written
+	 */
+	public long getSerial() {
+		return serial;
+	}
+
+	/**
+	 * Write a snapshot, replacing the file (if any).
+	 *
+	 * @param snapshot the snapshot
+	 * @param serial the serial of the graph
+	 * @throws IOException
+	 */
+	public void write(FeatureGraphSnapshot snapshot, long serial) throws IOException {
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try {
+			try (SnapshotOutput out = new SnapshotOutput(
+					new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeLong(serial);
+
+				GlobalIdDictionary vertexIds = snapshot.getVertexIds();
+				out.writeInt(vertexIds.getNetworkCount());
+				for (int network = 0; network < vertexIds.getNetworkCount(); network++) {
+					out.writeString(vertexIds.getNetwork(network));
+				}
+				writeIds(out, vertexIds);
+				writeIds(out, snapshot.getEdgeIds());
+
+				DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> graph = snapshot.getGraph();
+				for (int e = 0; e < graph.getEdgeCount(); e++) {
+					out.writeInt(graph.getEdgeSource(e));
+				}
+				for (int e = 0; e < graph.getEdgeCount(); e++) {
+					out.writeInt(graph.getEdgeTarget(e));
+				}
+				for (int e = 0; e < graph.getEdgeCount(); e++) {
+					out.writeDouble(graph.getEdgeWeight(e));
+				}
+
+				snapshot.getVertexFeatures().write(out);
+				snapshot.getEdgeFeatures().write(out);
+
+				out.writeInt(snapshot.getWeightNames().size());
+				for (String weight : snapshot.getWeightNames()) {
+					out.writeString(weight);
+					out.writeDoubles(snapshot.getWeights(weight));
+				}
+			}
+			Files.move(temp.toPath(), file.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			this.serial = serial;
+		} finally {
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+
+	/**
+	 * Read the serial of the snapshot in the file, without reading the snapshot.
+	 *
+	 * @return the serial
+	 * @throws IOException
+	 */
+	public long readSerial() throws IOException {
+		try (SnapshotInput in = new SnapshotInput(FileChannel.open(file.toPath(), StandardOpenOption.READ))) {
+			return readHeader(in);
+		}
+	}
+
+	/**
+	 * Read the snapshot in the file.
+	 *
+	 * @return the snapshot
+	 * @throws IOException
+	 */
+	public FeatureGraphSnapshot read() throws IOException {
+		return read(false);
+	}
+
+	/**
+	 * Map the snapshot in the file. The attribute columns are read-only views on the file,
+	 * ids and topology are not: they are read on the heap, as by {@link #read()}.
+	 *
+	 * @return the snapshot
+	 * @throws IOException
+	 */
+	public FeatureGraphSnapshot map() throws IOException {
+		return read(true);
+	}
+
+	private FeatureGraphSnapshot read(boolean mapped) throws IOException {
+		try (SnapshotInput in = new SnapshotInput(
+				FileChannel.open(file.toPath(), StandardOpenOption.READ), mapped)) {
+			long serial = readHeader(in);
+
+			List<String> networks = new ArrayList<>();
+			int networkCount = in.readInt();
+			for (int network = 0; network < networkCount; network++) {
+				networks.add(in.readString());
+			}
+			GlobalIdDictionary vertexIds = readIds(in, networks, null);
+			GlobalIdDictionary edgeIds = readIds(in, networks, vertexIds);
+
+			int edgeCount = edgeIds.size();
+			int[] edgeSources = in.readInts(edgeCount);
+			int[] edgeTargets = in.readInts(edgeCount);
+			double[] edgeWeights = in.readDoubles(edgeCount);
+			DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> graph = new DGraphSnapshot<>(
+					vertexIds, edgeIds, edgeSources, edgeTargets, edgeWeights);
+
+			FeatureStore vertexFeatures = new FeatureStore(in);
+			FeatureStore edgeFeatures = new FeatureStore(in);
+			if (vertexFeatures.size() != vertexIds.size() || edgeFeatures.size() != edgeCount) {
+				throw new IOException("Corrupt snapshot file " + file);
+			}
+
+			Map<String, double[]> weights = new LinkedHashMap<>();
+			int weightCount = in.readInt();
+			for (int i = 0; i < weightCount; i++) {
+				weights.put(in.readString(), in.readDoubles(edgeCount));
+			}
+
+			this.serial = serial;
+			return new FeatureGraphSnapshot(vertexIds, edgeIds, graph, vertexFeatures, edgeFeatures, weights);
+		}
+	}
+
+	private long readHeader(SnapshotInput in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Not a snapshot file: " + file);
+		}
+		int version = in.readInt();
+		if (version != VERSION) {
+			throw new IOException("Unsupported snapshot version " + version + " in " + file);
+		}
+		return in.readLong();
+	}
+
+	private static void writeIds(SnapshotOutput out, GlobalIdDictionary ids) throws IOException {
+		out.writeInt(ids.size());
+		for (int i = 0; i < ids.size(); i++) {
+			out.writeInt(ids.getNetworkOrdinal(i));
+			out.writeByte(ids.get(i).getType().ordinal());
+			out.writeByte(ids.get(i).getKind().ordinal());
+			out.writeString(ids.get(i).getIdentifier());
+		}
+	}
+
+	private static GlobalIdDictionary readIds(SnapshotInput in, List<String> networks,
+			GlobalIdDictionary shareNetworks) throws IOException {
+		int size = in.readInt();
+		GlobalIdDictionary ids = shareNetworks == null ? new GlobalIdDictionary(size) :
+			new GlobalIdDictionary(shareNetworks, size);
+		for (int i = 0; i < size; i++) {
+			String network = networks.get(in.readInt());
+			Type type = Type.values()[in.readByte()];
+			Kind kind = Kind.values()[in.readByte()];
+			ids.add(new GlobalId(network, in.readString(), type, kind));
+		}
+		return ids;
+	}
+
+}
@@ -1,18 +1,29 @@
 package com.geosparc.graph.geo;
 
-import com.geosparc.graph.alg.Tracing;
+import com.geosparc.graph.alg.IndexedPath;
+import com.geosparc.graph.alg.IndexedTracing;
+import com.geosparc.graph.alg.Reachability;
+import com.geosparc.graph.alg.SourceDistances;
 import com.geosparc.graph.base.DGraph;
+import com.geosparc.graph.base.DGraphSnapshot;
+import com.geosparc.graph.base.Deadline;
 import com.geosparc.graph.base.Idp;
+import com.geosparc.graph.base.MemoizedIntPredicate;
+import com.geosparc.graph.geo.GlobalId.Kind;
 import org.jgrapht.Graph;
-import org.jgrapht.GraphPath;
-import org.jgrapht.graph.EdgeReversedGraph;
-import org.jgrapht.graph.MaskSubgraph;
 import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.filter.Filter;
 
 import java.util.*;
-import java.util.Map.Entry;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BiFunction;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
 import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Helper class for tracing.
@@ -22,7 +33,9 @@ import java.util.function.Predicate;
  */
 public class FeatureGraphTracer {
 
-	private DGraph<GlobalId, SimpleFeature, SimpleFeature> graph;
+	private FeatureGraphSnapshot snapshot;
+
+	private DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> graph;
 
 	private Set<String> networks = new HashSet<>();
 
@@ -30,6 +43,8 @@ public class FeatureGraphTracer {
 
 	private Double maxDistance;
 
+	private String weight;
+
 	private Map<String, Filter> vertexFilters = new HashMap<>();
 
 	private Map<String, Filter> edgeFilters = new HashMap<>();
@@ -42,49 +57,105 @@ public class FeatureGraphTracer {
 
 	private boolean limitReached;
 
+	private Deadline deadline;
+
+	private boolean deadlineReached;
+
 	private boolean ignorePaths;
 
-	private final Predicate<Idp<GlobalId, SimpleFeature>> edgePredicate =
-			e -> {
-				if (!networks.contains(e.getId().getNetwork())) {
+	private boolean enumeratePaths;
+
+	private long maxPathBytes = Long.MAX_VALUE;
+
+	private boolean pathsAbandoned;
+
+	private ForkJoinPool pool;
+
+	// the settings above per network ordinal, prepared at the start of tracing
+
+	private boolean[] tracedNetworks;
+
+	private Filter[] networkEdgeFilters;
+
+	private Filter[] networkVertexFilters;
+
+	// the filters prepared on the feature stores, to evaluate on single elements
+
+	private IntPredicate[] networkEdgeTests;
+
+	private IntPredicate[] networkVertexTests;
+
+	// the elements that do not pass the filters, if they were evaluated over the whole network
+
+	private BitSet[] networkEdgeMasks;
+
+	private BitSet[] networkVertexMasks;
+
+	private int[] distanceNetworks;
+
+	private double[] networkMaxDistances;
+
+	private double totalMaxDistance;
+
+	private int[] networkDistanceIndices;
+
+	private final IntPredicate edgePredicate =
+			index -> {
+				int network = snapshot.getEdgeIds().getNetworkOrdinal(index);
+				if (!tracedNetworks[network]) {
 					return true;
 				}
-				if (e.getData().getType().getName().getLocalPart().equals(
-						FeatureGraphBuilder.CONNECTION_EDGE)) {
+				if (snapshot.getEdgeIds().getKind(index) == Kind.CONNECTION_EDGE) {
 					return false;
 				}
-				Filter filter = edgeFilters.get(e.getId().getNetwork());
-				return filter != null && !filter.evaluate(e.getData());
+				BitSet mask = networkEdgeMasks[network];
+				if (mask != null) {
+					return mask.get(index);
+				}
+				IntPredicate test = networkEdgeTests[network];
+				return test != null && !test.test(index);
 			};
 
-	private final Predicate<Idp<GlobalId, SimpleFeature>> vertexPredicate =
-			v -> {
-				if (!networks.contains(v.getId().getNetwork())) {
+	private final IntPredicate vertexPredicate =
+			index -> {
+				int network = snapshot.getVertexIds().getNetworkOrdinal(index);
+				if (!tracedNetworks[network]) {
 					return true;
 				}
-				if (v.getData().getType().getName().getLocalPart().endsWith(
-						FeatureGraphBuilder.GENERATED_VERTEX)) {
+				if (snapshot.getVertexIds().getKind(index).isGeneratedVertex()) {
 					return false;
 				}
-				Filter filter = vertexFilters.get(v.getId().getNetwork());
-				return filter != null && !filter.evaluate(v.getData());
+				BitSet mask = networkVertexMasks[network];
+				if (mask != null) {
+					return mask.get(index);
+				}
+				IntPredicate test = networkVertexTests[network];
+				return test != null && !test.test(index);
 			};
 
-	private final Predicate<GraphPath<Idp<GlobalId, SimpleFeature>,
-		Idp<GlobalId, SimpleFeature>>> weightPredicate =
+	// the predicates of a trace, memoized when filters are evaluated per feature
+
+	private IntPredicate vertexMask;
+
+	private IntPredicate edgeMask;
+
+	// the maximum distance of the network of an edge, or -1
+	private final IntUnaryOperator edgeDistanceIndex =
+			index -> networkDistanceIndices[snapshot.getEdgeIds().getNetworkOrdinal(index)];
+
+	// a path is only extended while within the distances, so only the last edge can exceed one;
+	// compared as the searches that take chains at once do
+	private final Predicate<IndexedPath> weightPredicate =
 			p -> {
-				if (maxDistance != null && p.getWeight() > maxDistance) {
+				if (!DGraphSnapshot.isWithin(p.getWeight(), totalMaxDistance)) {
 					return false;
 				}
-				for(Entry<String, Double> entry : maxDistances.entrySet()) {
-					if (getNetworkWeight(p, entry.getKey()) > entry.getValue()) {
-						return false;
-					}
-				}
-				return true;
+				int budget = edgeDistanceIndex.applyAsInt(p.getLastEdge());
+				return budget < 0 || DGraphSnapshot.isWithin(p.getBudgetWeight(budget), networkMaxDistances[budget]);
 			};
 
-	private Map<GlobalId, Map<Idp<GlobalId, SimpleFeature>, Double>> distances = new HashMap<>();
+	// per source, the minimum distance by vertex index
+	private Map<GlobalId, IntToDoubleFunction> distances = new HashMap<>();
 
 	public FeatureGraphTracer(DGraph<GlobalId, SimpleFeature, SimpleFeature> graph,
 			GlobalId source, boolean upstream) {
@@ -93,12 +164,13 @@ public class FeatureGraphTracer {
 
 	public FeatureGraphTracer(DGraph<GlobalId, SimpleFeature, SimpleFeature> graph,
 			List<GlobalId> sources, boolean upstream) {
-		this(graph, sources, upstream, null, false);
+		this(new FeatureGraphSnapshot(graph), sources, upstream, null, false);
 	}
 
-	public FeatureGraphTracer(DGraph<GlobalId, SimpleFeature, SimpleFeature> graph,
+	public FeatureGraphTracer(FeatureGraphSnapshot snapshot,
 			List<GlobalId> sources, boolean upstream, Long limit, boolean ignorePaths) {
-		this.graph = graph;
+		this.snapshot = snapshot;
+		this.graph = snapshot.getGraph();
 		this.sources = sources;
 		this.upstream = upstream;
 		this.limit = limit == null ? Long.MAX_VALUE : limit;
@@ -117,6 +189,67 @@ public class FeatureGraphTracer {
 		maxDistance = distance;
 	}
 
+	/**
+	 * Use an alternative edge weight for distances, instead of the length
+	 *
+	 * @param weight name of the edge weight, null for the length
+	 */
+	public void setWeight(String weight) {
+		this.weight = weight;
+	}
+
+	/**
+	 * Enumerate all paths to apply maximum distances, instead of a label-setting search.
+	 * Gives the same edges, but takes exponential time on meshed networks. Only when enumerating paths,
+	 * paths can be ignored (see the constructor) and the limit counts the times a path is extended,
+	 * rather than the edges of the result.
+	 *
+	 * @param enumeratePaths true to enumerate all paths
+	 */
+	public void setEnumeratePaths(boolean enumeratePaths) {
+		this.enumeratePaths = enumeratePaths;
+	}
+
+	/**
+	 * Limit the memory of the paths that are enumerated, estimated while they are created.
+	 * When they exceed it, the trace is done again with the label-setting search if that gives
+	 * the same edges, which is unless paths are ignored with maximum distances. Otherwise the
+	 * paths so far are kept, and the limit counts as reached.
+	 *
+	 * @param maxPathBytes the estimated size of the paths of all sources together
+	 */
+	public void setMaxPathBytes(long maxPathBytes) {
+		this.maxPathBytes = maxPathBytes;
+	}
+
+	/**
+	 * @return true if enumerating paths was given up for the label-setting search
+	 */
+	public boolean isPathsAbandoned() {
+		return pathsAbandoned;
+	}
+
+	/**
+	 * Trace the sources in parallel on a pool, instead of one by one on the calling thread.
+	 * Applies where the sources are traced separately, which is with distances per network
+	 * or when enumerating paths. Without any distance, the levels of the search are expanded
+	 * in parallel instead.
+	 *
+	 * @param pool the pool, null to trace on the calling thread
+	 */
+	public void setPool(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Stop tracing at a deadline, with the edges found so far.
+	 *
+	 * @param deadline the deadline, null for none
+	 */
+	public void setDeadline(Deadline deadline) {
+		this.deadline = deadline;
+	}
+
 	public void setEdgeFilter(String network, Filter edgeFilter) {
 		edgeFilters.put(network, edgeFilter);
 	}
@@ -128,92 +261,289 @@ public class FeatureGraphTracer {
 	public Graph<Idp<GlobalId, SimpleFeature>,
 		Idp<GlobalId, SimpleFeature>> trace() {
 
-		Graph<Idp<GlobalId, SimpleFeature>,
-			Idp<GlobalId, SimpleFeature>> baseGraph = graph;
+		graph = snapshot.getGraph(false, weight);
+		prepareNetworks();
 
-		if (upstream) {
-			baseGraph = new EdgeReversedGraph<>(baseGraph);
-		}
+		IndexedTracing<GlobalId, SimpleFeature, SimpleFeature> tracing =
+				new IndexedTracing<>(snapshot.getGraph(upstream, weight),
+						vertexMask, edgeMask);
+		tracing.setDeadline(deadline);
+
+		int[] sourceVertices = new int[sources.size()];
+		int[] sourceEdges = new int[sources.size()];
+		for (int i = 0; i < sources.size(); i++) {
+			sourceEdges[i] = getSourceEdge(sources.get(i));
+			sourceVertices[i] = getSourceVertex(sources.get(i), tracing.getGraph());
 
-		Graph<Idp<GlobalId, SimpleFeature>,
-				Idp<GlobalId, SimpleFeature>> workingGraph = new MaskSubgraph<>(
-				baseGraph,
-				vertexPredicate,
-				edgePredicate);
-
-		Tracing<Idp<GlobalId, SimpleFeature>,
-			Idp<GlobalId, SimpleFeature>> tracing =
-				new Tracing<>(workingGraph);
-
-		List<GraphPath<Idp<GlobalId, SimpleFeature>,
-			Idp<GlobalId, SimpleFeature>>> paths = new ArrayList<>();
-		for (GlobalId source : sources) {
-			Idp<GlobalId, SimpleFeature> sourceVertex =
-					getSourceVertex(source, baseGraph);
-			Idp<GlobalId, SimpleFeature> sourceEdge =
-					getSourceEdge(source);
-	
 			// Check if starting vertex and edge still exist and have not been filtered out
-			if ((sourceEdge != null && !workingGraph.containsEdge(sourceEdge))
-					|| (sourceVertex != null && !workingGraph.containsVertex(sourceVertex))) {
+			if ((sourceEdges[i] >= 0 && !tracing.containsEdge(sourceEdges[i]))
+					|| !tracing.containsVertex(sourceVertices[i])) {
 				return tracing.asGraph(Collections.emptyList());
 			}
-	
-	        //We can ignore all paths when maximum distance is not set (no weight predicate).
-	        if (maxDistance == null && maxDistances.isEmpty()) {
-	            ignorePaths = true;
-	        }
-	
-			paths.addAll(tracing.getAllPaths(
-							sourceVertex,
-							sourceEdge,
+		}
+
+		if (!enumeratePaths) {
+			return traceShortestFirst(tracing, sourceVertices, sourceEdges);
+		}
+
+        //We can ignore all paths when maximum distance is not set (no weight predicate).
+        if (maxDistance == null && maxDistances.isEmpty()) {
+            ignorePaths = true;
+        }
+
+		List<SourceTrace> sourceTraces = traceSources(tracing, (sourceTracing, i) -> {
+			sourceTracing.setMaxPathBytes(maxPathBytes / sources.size());
+			List<IndexedPath> sourcePaths = sourceTracing.getAllPaths(
+							sourceVertices[i],
+							sourceEdges[i],
 							true,
 							weightPredicate,
-							limit, ignorePaths));
-	
-			Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> graph = tracing.asGraph(paths);
-			distances.put(source, tracing.getMimimumWeights(graph, sourceVertex, sourceEdge));
-	
-			limitReached = limitReached || tracing.isLimitReached();
+							limit, ignorePaths,
+							edgeDistanceIndex, distanceNetworks.length);
+
+			BitSet edges = new BitSet(graph.getEdgeCount());
+			for (IndexedPath path : sourcePaths) {
+				for (IndexedPath part = path; part != null; part = part.getParent()) {
+					edges.set(part.getLastEdge());
+				}
+			}
+			double[] sourceDistances = sourceTracing.getMinimumWeights(sourceVertices[i], edges);
+			return new SourceTrace(edges, sourcePaths, sourceDistances,
+					sourceTracing.isLimitReached(), sourceTracing.isPathBudgetReached());
+		});
+
+		if (sourceTraces.stream().anyMatch(sourceTrace -> sourceTrace.pathBudgetReached)
+				&& (!ignorePaths || maxDistance == null && maxDistances.isEmpty())) {
+			pathsAbandoned = true;
+			return traceShortestFirst(tracing, sourceVertices, sourceEdges);
 		}
 
-		return tracing.asGraph(paths);
+		List<IndexedPath> paths = new ArrayList<>();
+		for (int i = 0; i < sources.size(); i++) {
+			SourceTrace sourceTrace = sourceTraces.get(i);
+			paths.addAll(sourceTrace.paths);
+			distances.put(sources.get(i), vertex -> sourceTrace.distances[vertex]);
+			limitReached = limitReached || sourceTrace.limitReached || sourceTrace.pathBudgetReached;
+		}
+
+		deadlineReached = deadline != null && deadline.isReached();
+
+		// only the features of the result are built
+		return tracing.asGraph(paths, snapshot::getVertex, snapshot::getEdge);
+	}
+
+	/**
+	 * Trace shortest paths first, with a label-setting search over the distances if there are any,
+	 * instead of enumerating all paths. The minimum distances follow from the same search.
+	 * Without distances per network or a limit, all sources are traced in a single traversal,
+	 * and without any distance it is a breadth first search for the reachable edges.
+	 * The limit applies to each source, as when enumerating paths.
+	 */
+	private Graph<Idp<GlobalId, SimpleFeature>,
+		Idp<GlobalId, SimpleFeature>> traceShortestFirst(
+				IndexedTracing<GlobalId, SimpleFeature, SimpleFeature> tracing,
+				int[] sourceVertices, int[] sourceEdges) {
+		BitSet edges;
+		if (Double.isInfinite(totalMaxDistance) && distanceNetworks.length == 0) {
+			// only reachability, the distances are calculated on the trace of each source when asked for
+			Reachability<GlobalId, SimpleFeature, SimpleFeature> reachability = new Reachability<>(tracing, pool);
+			BitSet[] sourceEdgeSets;
+			if (limit < Long.MAX_VALUE) {
+				sourceEdgeSets = reachability.getEdgesPerSource(sourceVertices, sourceEdges, limit);
+				edges = new BitSet(graph.getEdgeCount());
+				for (BitSet sourceEdgeSet : sourceEdgeSets) {
+					edges.or(sourceEdgeSet);
+				}
+			} else {
+				// without a limit, a source reaches no other edges of the sources together than its own
+				edges = reachability.getEdges(sourceVertices, sourceEdges, limit);
+				sourceEdgeSets = new BitSet[sources.size()];
+				Arrays.fill(sourceEdgeSets, edges);
+			}
+			for (int i = 0; i < sources.size(); i++) {
+				int source = i;
+				distances.put(sources.get(i), new LazyDistances(() -> tracing.getMinimumWeights(
+						sourceVertices[source], sourceEdges[source], sourceEdgeSets[source])));
+			}
+			limitReached = reachability.isLimitReached();
+		} else if (sources.size() > 1 && distanceNetworks.length == 0 && limit == Long.MAX_VALUE) {
+			// all sources in one traversal, which can not keep a limit per source
+			SourceDistances sourceDistances = new SourceDistances(sources.size());
+			edges = tracing.getEdgesFromSources(sourceVertices, sourceEdges,
+					totalMaxDistance, limit, sourceDistances);
+			for (int i = 0; i < sources.size(); i++) {
+				int source = i;
+				distances.put(sources.get(i), vertex -> sourceDistances.get(source, vertex));
+			}
+			limitReached = tracing.isLimitReached();
+		} else {
+			List<SourceTrace> sourceTraces = traceSources(tracing, (sourceTracing, i) -> {
+				double[] sourceDistances = new double[graph.getVertexCount()];
+				BitSet sourceEdgeSet = sourceTracing.getEdgesWithinWeights(sourceVertices[i], sourceEdges[i],
+						totalMaxDistance, edgeDistanceIndex, networkMaxDistances, limit, sourceDistances);
+				return new SourceTrace(sourceEdgeSet, null, sourceDistances, sourceTracing.isLimitReached(), false);
+			});
+
+			edges = new BitSet(graph.getEdgeCount());
+			for (int i = 0; i < sources.size(); i++) {
+				SourceTrace sourceTrace = sourceTraces.get(i);
+				edges.or(sourceTrace.edges);
+				distances.put(sources.get(i), vertex -> sourceTrace.distances[vertex]);
+				limitReached = limitReached || sourceTrace.limitReached;
+			}
+		}
+
+		deadlineReached = deadline != null && deadline.isReached();
+
+		// only the features of the result are built
+		return tracing.asGraph(edges, snapshot::getVertex, snapshot::getEdge);
+	}
+
+	/**
+	 * Trace each source on its own, on the pool if there is one. The snapshot and the prepared
+	 * settings are only read, so the sources can be traced at the same time.
+	 *
+	 * @return the traces in the order of the sources
+	 */
+	private List<SourceTrace> traceSources(IndexedTracing<GlobalId, SimpleFeature, SimpleFeature> tracing,
+			BiFunction<IndexedTracing<GlobalId, SimpleFeature, SimpleFeature>, Integer, SourceTrace> sourceTrace) {
+		if (pool == null || sources.size() < 2) {
+			List<SourceTrace> result = new ArrayList<>(sources.size());
+			for (int i = 0; i < sources.size(); i++) {
+				result.add(sourceTrace.apply(tracing, i));
+			}
+			return result;
+		}
+		// a tracing per task, because it keeps whether its limit was reached
+		return pool.submit(() -> IntStream.range(0, sources.size()).parallel()
+				.mapToObj(i -> {
+					IndexedTracing<GlobalId, SimpleFeature, SimpleFeature> sourceTracing =
+							new IndexedTracing<>(tracing.getGraph(), vertexMask, edgeMask);
+					sourceTracing.setDeadline(deadline);
+					return sourceTrace.apply(sourceTracing, i);
+				})
+				.collect(Collectors.toList())).join();
+	}
+
+	private void prepareNetworks() {
+		int networkCount = snapshot.getNetworkCount();
+		tracedNetworks = new boolean[networkCount];
+		networkEdgeFilters = new Filter[networkCount];
+		networkVertexFilters = new Filter[networkCount];
+		networkEdgeTests = new IntPredicate[networkCount];
+		networkVertexTests = new IntPredicate[networkCount];
+		networkEdgeMasks = new BitSet[networkCount];
+		networkVertexMasks = new BitSet[networkCount];
+		for (int network = 0; network < networkCount; network++) {
+			String name = snapshot.getVertexIds().getNetwork(network);
+			tracedNetworks[network] = networks.contains(name);
+			networkEdgeFilters[network] = edgeFilters.get(name);
+			networkVertexFilters[network] = vertexFilters.get(name);
+			if (tracedNetworks[network] && networkEdgeFilters[network] != null) {
+				networkEdgeTests[network] = snapshot.getEdgeFeatures().prepare(networkEdgeFilters[network]);
+				networkEdgeMasks[network] = snapshot.getEdgeFilterMask(name, networkEdgeFilters[network]);
+			}
+			if (tracedNetworks[network] && networkVertexFilters[network] != null) {
+				networkVertexTests[network] = snapshot.getVertexFeatures().prepare(networkVertexFilters[network]);
+				networkVertexMasks[network] = snapshot.getVertexFilterMask(name, networkVertexFilters[network]);
+			}
+		}
+
+		// a search tests vertices and edges again and again, filters are only evaluated once per element
+		edgeMask = edgePredicate;
+		vertexMask = vertexPredicate;
+		for (int network = 0; network < networkCount; network++) {
+			if (networkEdgeFilters[network] != null && networkEdgeMasks[network] == null
+					&& tracedNetworks[network] && edgeMask == edgePredicate) {
+				edgeMask = new MemoizedIntPredicate(edgePredicate, graph.getEdgeCount());
+			}
+			if (networkVertexFilters[network] != null && networkVertexMasks[network] == null
+					&& tracedNetworks[network] && vertexMask == vertexPredicate) {
+				vertexMask = new MemoizedIntPredicate(vertexPredicate, graph.getVertexCount());
+			}
+		}
+
+		// networks that are not in the graph can never exceed their distance
+		distanceNetworks = maxDistances.keySet().stream()
+				.mapToInt(snapshot::getNetworkOrdinal).filter(network -> network >= 0).toArray();
+		networkMaxDistances = new double[distanceNetworks.length];
+		totalMaxDistance = maxDistance == null ? Double.POSITIVE_INFINITY : maxDistance;
+		networkDistanceIndices = new int[networkCount];
+		Arrays.fill(networkDistanceIndices, -1);
+		for (int i = 0; i < distanceNetworks.length; i++) {
+			networkMaxDistances[i] = maxDistances.get(snapshot.getVertexIds().getNetwork(distanceNetworks[i]));
+			networkDistanceIndices[distanceNetworks[i]] = i;
+		}
 	}
 
 	public boolean isLimitReached() {
 		return limitReached;
 	}
 
+	/**
+	 * @return true if tracing stopped at the deadline, with the edges found so far
+	 */
+	public boolean isDeadlineReached() {
+		return deadlineReached;
+	}
+
 	public Double getDistance(GlobalId source, GlobalId leaf) {
-		return distances.get(source).get(graph.getVertexById(leaf));
+		IntToDoubleFunction sourceDistances = distances.get(source);
+		int leafIndex = graph.getVertexIndex(leaf);
+		double distance = sourceDistances == null || leafIndex < 0 ?
+				Double.POSITIVE_INFINITY : sourceDistances.applyAsDouble(leafIndex);
+		return Double.isInfinite(distance) ? null : distance;
 	}
 
 	public Double getDistance(GlobalId source, Idp<GlobalId, SimpleFeature> leaf) {
-		return distances.get(source).get(leaf);
+		return getDistance(source, leaf.getId());
 	}
 
-	private Double getNetworkWeight(GraphPath<Idp<GlobalId, SimpleFeature>,
-			Idp<GlobalId, SimpleFeature>> p,
-			String network) {
-		double result = 0;
-		for (Idp<GlobalId, SimpleFeature> e : p.getEdgeList()) {
-			if (e.getId().getNetwork().equals(network)) {
-				result += graph.getEdgeWeight(e);
+	/**
+	 * The distances from a source to the vertices of a trace, as a view
+	 *
+	 * @param source the source
+	 * @param trace trace result
+	 * @return for each vertex except the source, the minimum distance within the trace of this source
+	 *      (null if not reached from this source)
+	 */
+	public Map<GlobalId, Double> getDistances(GlobalId source, Graph<Idp<GlobalId, SimpleFeature>,
+			Idp<GlobalId, SimpleFeature>> trace) {
+		return new AbstractMap<GlobalId, Double>() {
+
+			@Override
+			public Double get(Object key) {
+				return key instanceof GlobalId && !key.equals(source) && trace.containsVertex(new Idp<>((GlobalId) key)) ?
+						getDistance(source, (GlobalId) key) : null;
 			}
-		}
-		return result;
+
+			@Override
+			public boolean containsKey(Object key) {
+				return key instanceof GlobalId && !key.equals(source) && trace.containsVertex(new Idp<>((GlobalId) key));
+			}
+
+			@Override
+			public Set<Entry<GlobalId, Double>> entrySet() {
+				Set<Entry<GlobalId, Double>> result = new LinkedHashSet<>();
+				for (Idp<GlobalId, SimpleFeature> vertex : trace.vertexSet()) {
+					if (!vertex.getId().equals(source)) {
+						result.add(new SimpleImmutableEntry<>(vertex.getId(), getDistance(source, vertex)));
+					}
+				}
+				return result;
+			}
+
+		};
 	}
 
-	protected Idp<GlobalId, SimpleFeature> getSourceVertex(
-			GlobalId source,
-			Graph<Idp<GlobalId, SimpleFeature>,
-			Idp<GlobalId, SimpleFeature>> baseGraph) {
-		Idp<GlobalId, SimpleFeature> sourceVertex = graph.getVertexById(source);
+	protected int getSourceVertex(GlobalId source,
+			DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> baseGraph) {
+		int sourceVertex = baseGraph.getVertexIndex(source);
 
-		if (sourceVertex == null) {
+		if (sourceVertex < 0) {
 			//try edge
-			Idp<GlobalId, SimpleFeature> sourceEdge = graph.getEdgeById(source);
-			if (sourceEdge == null) {
+			int sourceEdge = baseGraph.getEdgeIndex(source);
+			if (sourceEdge < 0) {
 				throw new IllegalArgumentException("start_node_or_edge_not_found");
 			} else {
 				sourceVertex = baseGraph.getEdgeSource(sourceEdge);
@@ -223,16 +553,32 @@ public class FeatureGraphTracer {
 		return sourceVertex;
 	}
 
-	protected Idp<GlobalId, SimpleFeature> getSourceEdge(GlobalId source) {
-		Idp<GlobalId, SimpleFeature> sourceVertex = graph.getVertexById(source);
+	protected int getSourceEdge(GlobalId source) {
+		if (graph.getVertexIndex(source) < 0) {
+			//try edge
+			return graph.getEdgeIndex(source);
+		}
 
-		if (sourceVertex == null) {
+		return -1;
+	}
+
+	protected Idp<GlobalId, SimpleFeature> getSourceVertex(
+			GlobalId source,
+			Graph<Idp<GlobalId, SimpleFeature>,
+			Idp<GlobalId, SimpleFeature>> baseGraph) {
+		int sourceVertex = graph.getVertexIndex(source);
+
+		if (sourceVertex < 0) {
 			//try edge
-			Idp<GlobalId, SimpleFeature> sourceEdge = graph.getEdgeById(source);
-			return sourceEdge;
+			int sourceEdge = graph.getEdgeIndex(source);
+			if (sourceEdge < 0) {
+				throw new IllegalArgumentException("start_node_or_edge_not_found");
+			} else {
+				return baseGraph.getEdgeSource(graph.getEdge(sourceEdge));
+			}
 		}
 
-		return null;
+		return graph.getVertex(sourceVertex);
 	}
 
 	/**
@@ -244,13 +590,14 @@ public class FeatureGraphTracer {
 	public List<Idp<GlobalId, SimpleFeature>> orderVertices(Graph<Idp<GlobalId, SimpleFeature>,
 			Idp<GlobalId, SimpleFeature>> trace) {
 		List<Idp<GlobalId, SimpleFeature>> result
-			= new ArrayList<>();
+			= new ArrayList<>(trace.vertexSet().size());
+		Set<Idp<GlobalId, SimpleFeature>> visited = new HashSet<>();
 		if (trace.vertexSet().size() > 0) {
 			for (GlobalId source : sources) {
 				Idp<GlobalId, SimpleFeature> sourceVertex =
 					getSourceVertex(source, trace);
 				if (trace.containsVertex(sourceVertex)) {
-					addNodeAndChildrenIfNotYetInThere(trace, result, sourceVertex);
+					addNodeAndChildrenIfNotYetInThere(trace, result, visited, sourceVertex);
 				}
 			}
 		}
@@ -258,14 +605,29 @@ public class FeatureGraphTracer {
 		return result;
 	}
 
+	/**
+	 * Depth first, with an explicit stack because traces can be very deep
+	 */
 	private void addNodeAndChildrenIfNotYetInThere(Graph<Idp<GlobalId, SimpleFeature>,
 				Idp<GlobalId, SimpleFeature>> trace,
 				List<Idp<GlobalId, SimpleFeature>> result,
+				Set<Idp<GlobalId, SimpleFeature>> visited,
 				Idp<GlobalId, SimpleFeature> node) {
-		if (!result.contains(node)) {
+		Deque<Iterator<Idp<GlobalId, SimpleFeature>>> stack = new ArrayDeque<>();
+		if (visited.add(node)) {
 			result.add(node);
-			for (Idp<GlobalId, SimpleFeature> edge : trace.outgoingEdgesOf(node)) {
-				addNodeAndChildrenIfNotYetInThere(trace, result, trace.getEdgeTarget(edge));
+			stack.push(trace.outgoingEdgesOf(node).iterator());
+		}
+		while (!stack.isEmpty()) {
+			Iterator<Idp<GlobalId, SimpleFeature>> edges = stack.peek();
+			if (!edges.hasNext()) {
+				stack.pop();
+				continue;
+			}
+			Idp<GlobalId, SimpleFeature> child = trace.getEdgeTarget(edges.next());
+			if (visited.add(child)) {
+				result.add(child);
+				stack.push(trace.outgoingEdgesOf(child).iterator());
 			}
 		}
 	}
@@ -279,14 +641,15 @@ public class FeatureGraphTracer {
 	public List<Idp<GlobalId, SimpleFeature>> orderEdges(Graph<Idp<GlobalId, SimpleFeature>,
 			Idp<GlobalId, SimpleFeature>> trace) {
 		List<Idp<GlobalId, SimpleFeature>> result
-			= new ArrayList<>();
+			= new ArrayList<>(trace.edgeSet().size());
+		Set<Idp<GlobalId, SimpleFeature>> visited = new HashSet<>();
 		if (trace.edgeSet().size() > 0) {
 			for (GlobalId source : sources) {
 				Idp<GlobalId, SimpleFeature> sourceVertex =
 						getSourceVertex(source, trace);
 				if (trace.containsVertex(sourceVertex)) {
 					for (Idp<GlobalId, SimpleFeature> edge : trace.outgoingEdgesOf(sourceVertex)) {
-						addEdgeAndChildrenIfNotYetInThere(trace, result, edge);
+						addEdgeAndChildrenIfNotYetInThere(trace, result, visited, edge);
 					}
 				}
 			}
@@ -295,17 +658,80 @@ public class FeatureGraphTracer {
 		return result;
 	}
 
+	/**
+	 * Depth first, with an explicit stack because traces can be very deep
+	 */
 	private void addEdgeAndChildrenIfNotYetInThere(Graph<Idp<GlobalId, SimpleFeature>,
 				Idp<GlobalId, SimpleFeature>> trace,
 				List<Idp<GlobalId, SimpleFeature>> result,
+				Set<Idp<GlobalId, SimpleFeature>> visited,
 				Idp<GlobalId, SimpleFeature> edge) {
-		if (!result.contains(edge)) {
+		Deque<Iterator<Idp<GlobalId, SimpleFeature>>> stack = new ArrayDeque<>();
+		if (visited.add(edge)) {
 			result.add(edge);
-			for (Idp<GlobalId, SimpleFeature> child : trace.outgoingEdgesOf(
-					trace.getEdgeTarget(edge))) {
-				addEdgeAndChildrenIfNotYetInThere(trace, result, child);
+			stack.push(trace.outgoingEdgesOf(trace.getEdgeTarget(edge)).iterator());
+		}
+		while (!stack.isEmpty()) {
+			Iterator<Idp<GlobalId, SimpleFeature>> children = stack.peek();
+			if (!children.hasNext()) {
+				stack.pop();
+				continue;
+			}
+			Idp<GlobalId, SimpleFeature> child = children.next();
+			if (visited.add(child)) {
+				result.add(child);
+				stack.push(trace.outgoingEdgesOf(trace.getEdgeTarget(child)).iterator());
+			}
+		}
+	}
+
+	/**
+	 * Distances of a source, calculated on first use
+	 */
+	private static final class LazyDistances implements IntToDoubleFunction {
+
+		private final Supplier<double[]> supplier;
+
+		private double[] distances;
+
+		private LazyDistances(Supplier<double[]> supplier) {
+			this.supplier = supplier;
+		}
+
+		@Override
+		public double applyAsDouble(int vertex) {
+			if (distances == null) {
+				distances = supplier.get();
 			}
+			return distances[vertex];
 		}
+
+	}
+
+	/**
+	 * The result of tracing a single source
+	 */
+	private static final class SourceTrace {
+
+		private final BitSet edges;
+
+		private final List<IndexedPath> paths;
+
+		private final double[] distances;
+
+		private final boolean limitReached;
+
+		private final boolean pathBudgetReached;
+
+		private SourceTrace(BitSet edges, List<IndexedPath> paths, double[] distances, boolean limitReached,
+				boolean pathBudgetReached) {
+			this.edges = edges;
+			this.paths = paths;
+			this.distances = distances;
+			this.limitReached = limitReached;
+			this.pathBudgetReached = pathBudgetReached;
+		}
+
 	}
 
 }
@@ -0,0 +1,1073 @@
+package com.geosparc.graph.geo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.referencing.CRS;
+import org.geotools.util.Converters;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.feature.type.AttributeDescriptor;
+import org.opengis.feature.type.GeometryDescriptor;
+import org.opengis.filter.And;
+import org.opengis.filter.BinaryComparisonOperator;
+import org.opengis.filter.BinaryLogicOperator;
+import org.opengis.filter.ExcludeFilter;
+import org.opengis.filter.Filter;
+import org.opengis.filter.IncludeFilter;
+import org.opengis.filter.Not;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.PropertyIsGreaterThan;
+import org.opengis.filter.PropertyIsGreaterThanOrEqualTo;
+import org.opengis.filter.PropertyIsLessThan;
+import org.opengis.filter.PropertyIsLessThanOrEqualTo;
+import org.opengis.filter.PropertyIsLike;
+import org.opengis.filter.PropertyIsNotEqualTo;
+import org.opengis.filter.PropertyIsNull;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
+import org.opengis.referencing.FactoryException;
+import org.opengis.referencing.crs.CoordinateReferenceSystem;
+
+/**
+ * Columnar store of the features of the vertices or the edges of a snapshot, by element index.
+ *
+ * Features are kept in one table per feature type (so in practice per network), with
+ * primitive columns for numbers, dictionary encoded columns for strings and
+ * off-heap WKB columns for geometries. Simple features (and their geometries)
+ * are only built on request. Once built, the column values are held in buffers,
+ * so that a store read from a mapped snapshot file does not copy them on the heap.
+ *
+ */
+public class FeatureStore {
+
+	private final List<FeatureTable> tables = new ArrayList<>();
+
+	/**
+	 * table of each element, -1 if it has no feature
+	 */
+	private final int[] elementTables;
+
+	private final int[] elementRows;
+
+	private final String[] featureIds;
+
+	/**
+	 * Copy features into a store.
+	 *
+	 * @param size the number of elements
+	 * @param features the feature of each element (may be null)
+	 */
+	public FeatureStore(int size, IntFunction<SimpleFeature> features) {
+		elementTables = new int[size];
+		elementRows = new int[size];
+		featureIds = new String[size];
+
+		Map<SimpleFeatureType, Integer> tableIndex = new IdentityHashMap<>();
+		for (int i = 0; i < size; i++) {
+			SimpleFeature feature = features.apply(i);
+			if (feature == null) {
+				elementTables[i] = -1;
+			} else {
+				Integer table = tableIndex.get(feature.getFeatureType());
+				if (table == null) {
+					table = tables.size();
+					tables.add(new FeatureTable(feature.getFeatureType()));
+					tableIndex.put(feature.getFeatureType(), table);
+				}
+				elementTables[i] = table;
+				elementRows[i] = tables.get(table).add(feature);
+				featureIds[i] = feature.getID();
+			}
+		}
+		for (FeatureTable table : tables) {
+			table.trim();
+		}
+	}
+
+	/**
+	 * Read a store from a snapshot file.
+	 *
+	 * @param in the input
+	 */
+	FeatureStore(SnapshotInput in) throws IOException {
+		int size = in.readInt();
+		elementTables = in.readInts(size);
+		elementRows = in.readInts(size);
+		featureIds = new String[size];
+		for (int i = 0; i < size; i++) {
+			featureIds[i] = in.readString();
+		}
+		int tableCount = in.readInt();
+		for (int t = 0; t < tableCount; t++) {
+			tables.add(new FeatureTable(in));
+		}
+	}
+
+	/**
+	 * Write the store to a snapshot file.
+	 *
+	 * @param out the output
+	 */
+	void write(SnapshotOutput out) throws IOException {
+		out.writeInt(elementTables.length);
+		out.writeInts(elementTables);
+		out.writeInts(elementRows);
+		for (String featureId : featureIds) {
+			out.writeString(featureId);
+		}
+		out.writeInt(tables.size());
+		for (FeatureTable table : tables) {
+			table.write(out);
+		}
+	}
+
+	public int size() {
+		return elementTables.length;
+	}
+
+	/**
+	 * @param element the element index
+	 * @return the feature type, or null if the element has no feature
+	 */
+	public SimpleFeatureType getFeatureType(int element) {
+		return elementTables[element] < 0 ? null : tables.get(elementTables[element]).type;
+	}
+
+	/**
+	 * Read a single attribute, without building the feature.
+	 *
+	 * @param element the element index
+	 * @param name the attribute name
+	 * @return the value, or null if the element has no such attribute
+	 */
+	public Object getAttribute(int element, String name) {
+		if (elementTables[element] < 0) {
+			return null;
+		}
+		FeatureTable table = tables.get(elementTables[element]);
+		Integer column = table.columnIndex.get(name);
+		return column == null ? null : table.columns[column].get(elementRows[element]);
+	}
+
+	/**
+	 * Build the feature of an element.
+	 *
+	 * @param element the element index
+	 * @return a new feature, or null if the element has no feature
+	 */
+	public SimpleFeature getFeature(int element) {
+		if (elementTables[element] < 0) {
+			return null;
+		}
+		FeatureTable table = tables.get(elementTables[element]);
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(table.type);
+		for (Column column : table.columns) {
+			builder.add(column.get(elementRows[element]));
+		}
+		return builder.buildFeature(featureIds[element]);
+	}
+
+	/**
+	 * Evaluate a filter over a selection of elements. Comparisons of attributes with literals, LIKE and
+	 * IS NULL, combined with AND, OR and NOT, are evaluated a column at a time over each table, without
+	 * building features. Other filters are evaluated on the elements one by one, see {@link #prepare}.
+	 *
+	 * @param filter the filter
+	 * @param elements the elements to evaluate
+	 * @return the selected elements that pass the filter
+	 */
+	public BitSet evaluate(Filter filter, BitSet elements) {
+		BitSet[] tableRows = new BitSet[tables.size()];
+		boolean[] evaluated = new boolean[tables.size()];
+		IntPredicate single = null;
+		BitSet result = new BitSet(size());
+		for (int i = elements.nextSetBit(0); i >= 0; i = elements.nextSetBit(i + 1)) {
+			int table = elementTables[i];
+			boolean pass;
+			if (table < 0) {
+				pass = filter.evaluate(null);
+			} else {
+				if (!evaluated[table]) {
+					tableRows[table] = evaluate(tables.get(table), filter);
+					evaluated[table] = true;
+				}
+				if (tableRows[table] != null) {
+					pass = tableRows[table].get(elementRows[i]);
+				} else {
+					if (single == null) {
+						single = prepare(filter);
+					}
+					pass = single.test(i);
+				}
+			}
+			if (pass) {
+				result.set(i);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Prepare a filter to evaluate on single elements. Only the attributes the filter refers to are read
+	 * from the columns, so that a filter on a few attributes does not build the whole feature, nor
+	 * decode its geometry unless the filter uses it. Filters that refer to other properties than
+	 * the attributes of a table are evaluated on the whole feature.
+	 *
+	 * @param filter the filter
+	 * @return per element, true if it passes the filter
+	 */
+	public IntPredicate prepare(Filter filter) {
+		String[] names = DataUtilities.attributeNames(filter);
+		// per table the columns to read, null to build the whole feature
+		int[][] tableColumns = new int[tables.size()][];
+		for (int t = 0; t < tables.size(); t++) {
+			FeatureTable table = tables.get(t);
+			int[] columns = new int[names.length];
+			for (int i = 0; i < names.length && columns != null; i++) {
+				Integer column = table.columnIndex.get(names[i]);
+				if (column == null) {
+					columns = null;
+				} else {
+					columns[i] = column;
+				}
+			}
+			tableColumns[t] = columns;
+		}
+		return element -> {
+			int table = elementTables[element];
+			if (table < 0) {
+				return filter.evaluate(null);
+			}
+			int[] columns = tableColumns[table];
+			if (columns == null) {
+				return filter.evaluate(getFeature(element));
+			}
+			FeatureTable featureTable = tables.get(table);
+			Object[] values = new Object[featureTable.columns.length];
+			for (int column : columns) {
+				values[column] = featureTable.columns[column].get(elementRows[element]);
+			}
+			return filter.evaluate(SimpleFeatureBuilder.build(featureTable.type, values, featureIds[element]));
+		};
+	}
+
+	/**
+	 * Estimated size of the attributes of an element, except for geometries
+	 *
+	 * @param element the element index
+	 * @return estimated bytes
+	 */
+	public long estimateAttributeBytes(int element) {
+		// table, row and feature id
+		long result = 8 + 8 + estimateBytes(featureIds[element]);
+		if (elementTables[element] >= 0) {
+			for (Column column : tables.get(elementTables[element]).columns) {
+				if (!(column instanceof GeometryColumn)) {
+					result += column.estimateBytes(elementRows[element]);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Estimated size of the geometries of an element
+	 *
+	 * @param element the element index
+	 * @return estimated bytes
+	 */
+	public long estimateGeometryBytes(int element) {
+		long result = 0;
+		if (elementTables[element] >= 0) {
+			for (Column column : tables.get(elementTables[element]).columns) {
+				if (column instanceof GeometryColumn) {
+					result += column.estimateBytes(elementRows[element]);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @param string a string
+	 * @return estimated heap size of the string
+	 */
+	static long estimateBytes(String string) {
+		return string == null ? 0 : 40 + 2L * string.length();
+	}
+
+	/**
+	 * The features of one feature type, one column per attribute
+	 */
+	private static class FeatureTable {
+
+		private final SimpleFeatureType type;
+
+		private final Column[] columns;
+
+		private final Map<String, Integer> columnIndex = new HashMap<>();
+
+		private int rowCount;
+
+		public FeatureTable(SimpleFeatureType type) {
+			this.type = type;
+			columns = new Column[type.getAttributeCount()];
+			for (int i = 0; i < columns.length; i++) {
+				AttributeDescriptor descriptor = type.getDescriptor(i);
+				columns[i] = createColumn(descriptor.getType().getBinding());
+				columnIndex.put(descriptor.getLocalName(), i);
+			}
+		}
+
+		public FeatureTable(SnapshotInput in) throws IOException {
+			type = readType(in);
+			rowCount = in.readInt();
+			columns = new Column[type.getAttributeCount()];
+			for (int i = 0; i < columns.length; i++) {
+				AttributeDescriptor descriptor = type.getDescriptor(i);
+				columns[i] = createColumn(descriptor.getType().getBinding());
+				columns[i].read(in, rowCount);
+				columnIndex.put(descriptor.getLocalName(), i);
+			}
+		}
+
+		public void write(SnapshotOutput out) throws IOException {
+			writeType(out, type);
+			out.writeInt(rowCount);
+			for (Column column : columns) {
+				column.write(out, rowCount);
+			}
+		}
+
+		public int add(SimpleFeature feature) {
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].add(rowCount, feature.getAttribute(i));
+			}
+			return rowCount++;
+		}
+
+		public void trim() {
+			for (Column column : columns) {
+				column.trim(rowCount);
+			}
+		}
+
+	}
+
+	/**
+	 * Evaluate a filter over all rows of a table, a column at a time.
+	 *
+	 * @return the rows that pass, or null if the filter can not be evaluated on the columns
+	 */
+	private static BitSet evaluate(FeatureTable table, Filter filter) {
+		if (filter instanceof IncludeFilter) {
+			BitSet result = new BitSet(table.rowCount);
+			result.set(0, table.rowCount);
+			return result;
+		} else if (filter instanceof ExcludeFilter) {
+			return new BitSet();
+		} else if (filter instanceof Not) {
+			BitSet result = evaluate(table, ((Not) filter).getFilter());
+			if (result != null) {
+				result.flip(0, table.rowCount);
+			}
+			return result;
+		} else if (filter instanceof And || filter instanceof Or) {
+			BitSet result = null;
+			for (Filter child : ((BinaryLogicOperator) filter).getChildren()) {
+				BitSet rows = evaluate(table, child);
+				if (rows == null) {
+					return null;
+				} else if (result == null) {
+					result = rows;
+				} else if (filter instanceof And) {
+					result.and(rows);
+				} else {
+					result.or(rows);
+				}
+			}
+			return result;
+		}
+
+		// a single attribute, compared with a literal
+		Expression expression;
+		Comparison comparison = null;
+		if (filter instanceof PropertyIsNull) {
+			expression = ((PropertyIsNull) filter).getExpression();
+			comparison = new Comparison(Operator.NULL, null);
+		} else if (filter instanceof PropertyIsLike) {
+			expression = ((PropertyIsLike) filter).getExpression();
+		} else if (filter instanceof BinaryComparisonOperator) {
+			BinaryComparisonOperator operator = (BinaryComparisonOperator) filter;
+			boolean swap = operator.getExpression1() instanceof Literal;
+			expression = swap ? operator.getExpression2() : operator.getExpression1();
+			Expression literal = swap ? operator.getExpression1() : operator.getExpression2();
+			if (!(literal instanceof Literal)) {
+				return null;
+			}
+			Object value = ((Literal) literal).getValue();
+			Operator compare = Operator.of(operator, swap);
+			if (value instanceof Number && compare != null) {
+				comparison = new Comparison(compare, (Number) value);
+			}
+		} else {
+			return null;
+		}
+		if (!(expression instanceof PropertyName)) {
+			return null;
+		}
+		Integer column = table.columnIndex.get(((PropertyName) expression).getPropertyName());
+		if (column == null) {
+			return null;
+		}
+		// the filter itself decides for single values, such as null
+		Predicate<Object> probe = value -> {
+			Object[] values = new Object[table.columns.length];
+			values[column] = value;
+			return filter.evaluate(SimpleFeatureBuilder.build(table.type, values, null));
+		};
+		return table.columns[column].evaluate(comparison, probe, table.rowCount);
+	}
+
+	private enum Operator {EQ, NE, LT, LE, GT, GE, NULL;
+
+		private static Operator of(BinaryComparisonOperator operator, boolean swap) {
+			if (operator instanceof PropertyIsEqualTo) {
+				return EQ;
+			} else if (operator instanceof PropertyIsNotEqualTo) {
+				return NE;
+			} else if (operator instanceof PropertyIsLessThan) {
+				return swap ? GT : LT;
+			} else if (operator instanceof PropertyIsLessThanOrEqualTo) {
+				return swap ? GE : LE;
+			} else if (operator instanceof PropertyIsGreaterThan) {
+				return swap ? LT : GT;
+			} else if (operator instanceof PropertyIsGreaterThanOrEqualTo) {
+				return swap ? LE : GE;
+			}
+			return null;
+		}
+
+		/**
+		 * @param compare the comparison of a value with the literal
+		 */
+		private boolean test(int compare) {
+			switch (this) {
+			case EQ: return compare == 0;
+			case NE: return compare != 0;
+			case LT: return compare < 0;
+			case LE: return compare <= 0;
+			case GT: return compare > 0;
+			case GE: return compare >= 0;
+			default: return false;
+			}
+		}
+	}
+
+	/**
+	 * A filter that compares an attribute with a number, or tests it for null
+	 */
+	private static final class Comparison {
+
+		private final Operator operator;
+
+		private final Number literal;
+
+		private Comparison(Operator operator, Number literal) {
+			this.operator = operator;
+			this.literal = literal;
+		}
+
+		/**
+		 * @return the literal as a long, or null if it is not exactly one
+		 */
+		private Long getLong(long min, long max) {
+			if (!(literal instanceof Long || literal instanceof Integer
+					|| literal instanceof Short || literal instanceof Byte)) {
+				return null;
+			}
+			long value = literal.longValue();
+			return value >= min && value <= max ? value : null;
+		}
+
+		/**
+		 * @return the literal as a double, or null if it is not exactly one
+		 */
+		private Double getDouble(boolean asFloat) {
+			double value = literal.doubleValue();
+			if (literal instanceof Double || literal instanceof Float) {
+				if (Double.isNaN(value)) {
+					return null;
+				}
+			} else if (getLong(-(1L << 53), 1L << 53) == null) {
+				return null;
+			}
+			return !asFloat || (float) value == value ? value : null;
+		}
+
+	}
+
+	private static void writeType(SnapshotOutput out, SimpleFeatureType type) throws IOException {
+		out.writeString(type.getName().getLocalPart());
+		out.writeString(type.getName().getNamespaceURI());
+		out.writeString(type.getGeometryDescriptor() == null ? null :
+			type.getGeometryDescriptor().getLocalName());
+		out.writeInt(type.getAttributeCount());
+		for (AttributeDescriptor descriptor : type.getAttributeDescriptors()) {
+			out.writeString(descriptor.getLocalName());
+			out.writeString(descriptor.getType().getBinding().getName());
+			CoordinateReferenceSystem crs = descriptor instanceof GeometryDescriptor ?
+					((GeometryDescriptor) descriptor).getCoordinateReferenceSystem() : null;
+			out.writeString(crs == null ? null : crs.toWKT());
+		}
+	}
+
+	private static SimpleFeatureType readType(SnapshotInput in) throws IOException {
+		SimpleFeatureTypeBuilder builder = new SimpleFeatureTypeBuilder();
+		builder.setName(in.readString());
+		builder.setNamespaceURI(in.readString());
+		String defaultGeometry = in.readString();
+		int attributeCount = in.readInt();
+		try {
+			for (int i = 0; i < attributeCount; i++) {
+				String name = in.readString();
+				Class<?> binding = Class.forName(in.readString());
+				String crs = in.readString();
+				if (crs == null) {
+					builder.add(name, binding);
+				} else {
+					builder.add(name, binding, CRS.parseWKT(crs));
+				}
+			}
+		} catch (ClassNotFoundException | FactoryException e) {
+			throw new IOException("Invalid feature type in snapshot", e);
+		}
+		if (defaultGeometry != null) {
+			builder.setDefaultGeometry(defaultGeometry);
+		}
+		return builder.buildFeatureType();
+	}
+
+	private static Column createColumn(Class<?> binding) {
+		if (binding == Double.class || binding == Float.class) {
+			return new DoubleColumn(binding);
+		} else if (binding == Long.class || binding == Integer.class
+				|| binding == Short.class || binding == Byte.class) {
+			return new LongColumn(binding);
+		} else if (binding == String.class) {
+			return new StringColumn();
+		} else if (Geometry.class.isAssignableFrom(binding)) {
+			return new GeometryColumn();
+		} else {
+			return new ObjectColumn();
+		}
+	}
+
+	/**
+	 * Column of attribute values, rows are added in order
+	 */
+	private abstract static class Column {
+
+		public abstract void add(int row, Object value);
+
+		public abstract Object get(int row);
+
+		public abstract void trim(int rowCount);
+
+		public abstract void write(SnapshotOutput out, int rowCount) throws IOException;
+
+		/**
+		 * Read the rows of a trimmed column
+		 */
+		public abstract void read(SnapshotInput in, int rowCount) throws IOException;
+
+		/**
+		 * @return estimated size of a row
+		 */
+		public abstract long estimateBytes(int row);
+
+		/**
+		 * Evaluate a filter of this attribute alone over all rows.
+		 *
+		 * @param comparison the filter as a comparison with a number, or null if it is not one
+		 * @param probe evaluates the filter for a single value
+		 * @param rowCount the number of rows
+		 * @return the rows that pass, or null if the column can not evaluate the filter
+		 */
+		public BitSet evaluate(Comparison comparison, Predicate<Object> probe, int rowCount) {
+			return null;
+		}
+
+		protected static int capacity(int row) {
+			return Math.max(16, row * 2);
+		}
+
+	}
+
+	private static class DoubleColumn extends Column {
+
+		private final Class<?> binding;
+
+		private double[] building = new double[0];
+
+		private DoubleBuffer values;
+
+		private BitSet nulls = new BitSet();
+
+		public DoubleColumn(Class<?> binding) {
+			this.binding = binding;
+		}
+
+		@Override
+		public void add(int row, Object value) {
+			if (row == building.length) {
+				building = Arrays.copyOf(building, capacity(row));
+			}
+			Number number = value instanceof Number ? (Number) value :
+				Converters.convert(value, Double.class);
+			if (number == null) {
+				nulls.set(row);
+			} else {
+				building[row] = number.doubleValue();
+			}
+		}
+
+		@Override
+		public Object get(int row) {
+			if (nulls.get(row)) {
+				return null;
+			}
+			double value = values.get(row);
+			return binding == Float.class ? (Object) (float) value : (Object) value;
+		}
+
+		@Override
+		public void trim(int rowCount) {
+			values = DoubleBuffer.wrap(Arrays.copyOf(building, rowCount));
+			building = null;
+		}
+
+		@Override
+		public void write(SnapshotOutput out, int rowCount) throws IOException {
+			out.writeDoubles(values);
+			long[] nullWords = nulls.toLongArray();
+			out.writeInt(nullWords.length);
+			out.writeLongs(nullWords);
+		}
+
+		@Override
+		public void read(SnapshotInput in, int rowCount) throws IOException {
+			values = in.readDoubleBuffer(rowCount);
+			building = null;
+			nulls = BitSet.valueOf(in.readLongs(in.readInt()));
+		}
+
+		@Override
+		public long estimateBytes(int row) {
+			return 8;
+		}
+
+		@Override
+		public BitSet evaluate(Comparison comparison, Predicate<Object> probe, int rowCount) {
+			if (comparison == null) {
+				return null;
+			} else if (comparison.operator == Operator.NULL) {
+				return nulls.get(0, rowCount);
+			}
+			Double literal = comparison.getDouble(binding == Float.class);
+			if (literal == null) {
+				return null;
+			}
+			double bound = literal;
+			Operator operator = comparison.operator;
+			BitSet result = new BitSet(rowCount);
+			// nulls, NaN and signed zeros are left to the filter
+			Map<Object, Boolean> special = new HashMap<>();
+			for (int row = 0; row < rowCount; row++) {
+				double value = values.get(row);
+				boolean pass;
+				if (value == 0.0 || Double.isNaN(value) || nulls.get(row)) {
+					pass = special.computeIfAbsent(get(row), probe::test);
+				} else {
+					pass = operator.test(value < bound ? -1 : value > bound ? 1 : 0);
+				}
+				if (pass) {
+					result.set(row);
+				}
+			}
+			return result;
+		}
+
+	}
+
+	private static class LongColumn extends Column {
+
+		private final Class<?> binding;
+
+		private long[] building = new long[0];
+
+		private LongBuffer values;
+
+		private BitSet nulls = new BitSet();
+
+		public LongColumn(Class<?> binding) {
+			this.binding = binding;
+		}
+
+		@Override
+		public void add(int row, Object value) {
+			if (row == building.length) {
+				building = Arrays.copyOf(building, capacity(row));
+			}
+			Number number = value instanceof Number ? (Number) value :
+				Converters.convert(value, Long.class);
+			if (number == null) {
+				nulls.set(row);
+			} else {
+				building[row] = number.longValue();
+			}
+		}
+
+		@Override
+		public Object get(int row) {
+			if (nulls.get(row)) {
+				return null;
+			}
+			long value = values.get(row);
+			if (binding == Integer.class) {
+				return (int) value;
+			} else if (binding == Short.class) {
+				return (short) value;
+			} else if (binding == Byte.class) {
+				return (byte) value;
+			}
+			return value;
+		}
+
+		@Override
+		public void trim(int rowCount) {
+			values = LongBuffer.wrap(Arrays.copyOf(building, rowCount));
+			building = null;
+		}
+
+		@Override
+		public void write(SnapshotOutput out, int rowCount) throws IOException {
+			out.writeLongs(values);
+			long[] nullWords = nulls.toLongArray();
+			out.writeInt(nullWords.length);
+			out.writeLongs(nullWords);
+		}
+
+		@Override
+		public void read(SnapshotInput in, int rowCount) throws IOException {
+			values = in.readLongBuffer(rowCount);
+			building = null;
+			nulls = BitSet.valueOf(in.readLongs(in.readInt()));
+		}
+
+		@Override
+		public long estimateBytes(int row) {
+			return 8;
+		}
+
+		@Override
+		public BitSet evaluate(Comparison comparison, Predicate<Object> probe, int rowCount) {
+			if (comparison == null) {
+				return null;
+			} else if (comparison.operator == Operator.NULL) {
+				return nulls.get(0, rowCount);
+			}
+			Long literal = binding == Integer.class ? comparison.getLong(Integer.MIN_VALUE, Integer.MAX_VALUE) :
+				binding == Short.class ? comparison.getLong(Short.MIN_VALUE, Short.MAX_VALUE) :
+				binding == Byte.class ? comparison.getLong(Byte.MIN_VALUE, Byte.MAX_VALUE) :
+				comparison.getLong(Long.MIN_VALUE, Long.MAX_VALUE);
+			if (literal == null) {
+				return null;
+			}
+			long bound = literal;
+			Operator operator = comparison.operator;
+			BitSet result = new BitSet(rowCount);
+			boolean nullPass = probe.test(null);
+			for (int row = 0; row < rowCount; row++) {
+				if (nulls.get(row) ? nullPass : operator.test(Long.compare(values.get(row), bound))) {
+					result.set(row);
+				}
+			}
+			return result;
+		}
+
+	}
+
+	/**
+	 * Dictionary encoded strings
+	 */
+	private static class StringColumn extends Column {
+
+		private int[] building = new int[0];
+
+		private IntBuffer codes;
+
+		private final List<String> dictionary = new ArrayList<>();
+
+		private Map<String, Integer> encoding = new HashMap<>();
+
+		private long dictionaryBytes = -1;
+
+		@Override
+		public void add(int row, Object value) {
+			if (row == building.length) {
+				building = Arrays.copyOf(building, capacity(row));
+			}
+			if (value == null) {
+				building[row] = -1;
+			} else {
+				String string = value.toString();
+				Integer code = encoding.get(string);
+				if (code == null) {
+					code = dictionary.size();
+					dictionary.add(string);
+					encoding.put(string, code);
+				}
+				building[row] = code;
+			}
+		}
+
+		@Override
+		public Object get(int row) {
+			int code = codes.get(row);
+			return code < 0 ? null : dictionary.get(code);
+		}
+
+		@Override
+		public void trim(int rowCount) {
+			codes = IntBuffer.wrap(Arrays.copyOf(building, rowCount));
+			building = null;
+			encoding = null;
+		}
+
+		@Override
+		public void write(SnapshotOutput out, int rowCount) throws IOException {
+			out.writeInt(dictionary.size());
+			for (String string : dictionary) {
+				out.writeString(string);
+			}
+			out.writeInts(codes);
+		}
+
+		@Override
+		public void read(SnapshotInput in, int rowCount) throws IOException {
+			int dictionarySize = in.readInt();
+			for (int i = 0; i < dictionarySize; i++) {
+				dictionary.add(in.readString());
+			}
+			codes = in.readIntBuffer(rowCount);
+			building = null;
+			encoding = null;
+		}
+
+		@Override
+		public long estimateBytes(int row) {
+			// the code, and the dictionary spread over all rows
+			if (dictionaryBytes < 0) {
+				dictionaryBytes = 0;
+				for (String string : dictionary) {
+					dictionaryBytes += FeatureStore.estimateBytes(string) + 8;
+				}
+			}
+			return 4 + dictionaryBytes / Math.max(1, codes.limit());
+		}
+
+		@Override
+		public BitSet evaluate(Comparison comparison, Predicate<Object> probe, int rowCount) {
+			// evaluate the filter once per distinct value
+			boolean[] passes = new boolean[dictionary.size()];
+			for (int code = 0; code < passes.length; code++) {
+				passes[code] = probe.test(dictionary.get(code));
+			}
+			boolean nullPass = probe.test(null);
+			BitSet result = new BitSet(rowCount);
+			for (int row = 0; row < rowCount; row++) {
+				int code = codes.get(row);
+				if (code < 0 ? nullPass : passes[code]) {
+					result.set(row);
+				}
+			}
+			return result;
+		}
+
+	}
+
+	/**
+	 * Geometries as WKB in a direct (off-heap) or mapped buffer, decoded on request.
+	 * While building, the WKB is collected on the heap.
+	 */
+	private static class GeometryColumn extends Column {
+
+		private static final GeometryFactory geomFac = new GeometryFactory();
+
+		/**
+		 * row r is stored from offsets[r] to offsets[r + 1], an empty range means null
+		 */
+		private int[] offsets = new int[1];
+
+		private byte[] building = new byte[0];
+
+		private ByteBuffer buffer;
+
+		@Override
+		public void add(int row, Object value) {
+			if (row + 1 == offsets.length) {
+				offsets = Arrays.copyOf(offsets, capacity(row + 1));
+			}
+			int start = offsets[row];
+			byte[] wkb = new byte[0];
+			if (value != null) {
+				Geometry geometry = value instanceof Geometry ? (Geometry) value :
+					Converters.convert(value, Geometry.class);
+				Coordinate coordinate = geometry.getCoordinate();
+				// only keep a third dimension when there is one
+				wkb = new WKBWriter(coordinate != null && !Double.isNaN(coordinate.z) ? 3 : 2,
+						true).write(geometry);
+			}
+			if (start + (long) wkb.length > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Geometry column exceeds 2GB");
+			}
+			if (start + wkb.length > building.length) {
+				building = Arrays.copyOf(building,
+						(int) Math.min(Integer.MAX_VALUE, Math.max(start + wkb.length, building.length * 2L)));
+			}
+			System.arraycopy(wkb, 0, building, start, wkb.length);
+			offsets[row + 1] = start + wkb.length;
+		}
+
+		@Override
+		public Object get(int row) {
+			int length = offsets[row + 1] - offsets[row];
+			if (length == 0) {
+				return null;
+			}
+			byte[] wkb = new byte[length];
+			ByteBuffer view = buffer.duplicate();
+			view.position(offsets[row]);
+			view.get(wkb);
+			try {
+				return new WKBReader(geomFac).read(wkb);
+			} catch (ParseException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		@Override
+		public void trim(int rowCount) {
+			offsets = Arrays.copyOf(offsets, rowCount + 1);
+			buffer = ByteBuffer.allocateDirect(offsets[rowCount]);
+			buffer.put(building, 0, offsets[rowCount]);
+			buffer.flip();
+			buffer = buffer.asReadOnlyBuffer();
+			building = null;
+		}
+
+		@Override
+		public void write(SnapshotOutput out, int rowCount) throws IOException {
+			out.writeInts(offsets);
+			out.writeBuffer(buffer);
+		}
+
+		@Override
+		public void read(SnapshotInput in, int rowCount) throws IOException {
+			offsets = in.readInts(rowCount + 1);
+			buffer = in.readByteBuffer(offsets[rowCount]);
+			building = null;
+		}
+
+		@Override
+		public long estimateBytes(int row) {
+			return 4 + offsets[row + 1] - offsets[row];
+		}
+
+	}
+
+	/**
+	 * Any other values, as they are
+	 */
+	private static class ObjectColumn extends Column {
+
+		private Object[] values = new Object[0];
+
+		@Override
+		public void add(int row, Object value) {
+			if (row == values.length) {
+				values = Arrays.copyOf(values, capacity(row));
+			}
+			values[row] = value;
+		}
+
+		@Override
+		public Object get(int row) {
+			return values[row];
+		}
+
+		@Override
+		public void trim(int rowCount) {
+			values = Arrays.copyOf(values, rowCount);
+		}
+
+		@Override
+		public void write(SnapshotOutput out, int rowCount) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream objects = new ObjectOutputStream(bytes)) {
+				objects.writeObject(values);
+			}
+			out.writeInt(bytes.size());
+			bytes.writeTo(out);
+		}
+
+		@Override
+		public void read(SnapshotInput in, int rowCount) throws IOException {
+			byte[] bytes = in.readBytes(in.readInt());
+			try (ObjectInputStream objects = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+				values = (Object[]) objects.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Invalid attribute values in snapshot", e);
+			}
+		}
+
+		@Override
+		public long estimateBytes(int row) {
+			Object value = values[row];
+			return 8 + (value instanceof String ? FeatureStore.estimateBytes((String) value) :
+				value == null ? 0 : 16);
+		}
+
+	}
+
+}
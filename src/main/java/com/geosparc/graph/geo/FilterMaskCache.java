@@ -0,0 +1,145 @@
+package com.geosparc.graph.geo;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Cache of the masks of filters that were evaluated over a whole network, such as the elements
+ * of a network that do not pass a filter. Masks are kept as long as they fit in a maximum size,
+ * the least recently used are evicted first.
+ *
+ * A filter is only evaluated over its network when it is used again: the first time, no mask is
+ * made, so that filters that are used once cost no more than evaluating them on the elements
+ * a trace passes.
+ *
+ * A cache belongs to a single snapshot, so that masks are never used on another graph.
+ *
+ */
+public class FilterMaskCache {
+
+	private static final int MAX_SEEN = 1024;
+
+	private final long maxBytes;
+
+	private long bytes;
+
+	private final LinkedHashMap<Key, BitSet> masks = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * the filters that were used once, without a mask, the least recently used are forgotten first
+	 */
+	private final LinkedHashMap<Key, Boolean> seen = new LinkedHashMap<Key, Boolean>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Boolean> eldest) {
+			return size() > MAX_SEEN;
+		}
+
+	};
+
+	/**
+	 * @param maxBytes the maximum size of the masks together, 0 to keep none
+	 */
+	public FilterMaskCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Get a mask, or evaluate it if it is not in the cache and the filter was used before. Masks that
+	 * are evaluated at the same time by different threads are evaluated more than once, only one
+	 * of them is kept.
+	 *
+	 * @param vertices true for a mask of vertices, false for edges
+	 * @param network the network name
+	 * @param cql the normalized filter
+	 * @param evaluate evaluates the mask
+	 * @return the mask, which must not be modified, or null the first time the filter is used
+	 */
+	public BitSet getMask(boolean vertices, String network, String cql, Supplier<BitSet> evaluate) {
+		Key key = new Key(vertices, network, cql);
+		synchronized (this) {
+			BitSet mask = masks.get(key);
+			if (mask != null) {
+				return mask;
+			}
+			if (seen.put(key, Boolean.TRUE) == null) {
+				return null;
+			}
+		}
+		BitSet mask = evaluate.get();
+		long maskBytes = getBytes(mask);
+		if (maskBytes > maxBytes) {
+			return mask;
+		}
+		synchronized (this) {
+			BitSet other = masks.get(key);
+			if (other != null) {
+				return other;
+			}
+			masks.put(key, mask);
+			seen.remove(key);
+			bytes += maskBytes;
+			Iterator<BitSet> eldest = masks.values().iterator();
+			while (bytes > maxBytes) {
+				bytes -= getBytes(eldest.next());
+				eldest.remove();
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * @return the number of masks in the cache
+	 */
+	public synchronized int size() {
+		return masks.size();
+	}
+
+	/**
+	 * @return the size of the masks in the cache
+	 */
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	private static long getBytes(BitSet mask) {
+		return mask.size() / 8;
+	}
+
+	private static final class Key {
+
+		private final boolean vertices;
+
+		private final String network;
+
+		private final String cql;
+
+		private Key(boolean vertices, String network, String cql) {
+			this.vertices = vertices;
+			this.network = network;
+			this.cql = cql;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof Key)) {
+				return false;
+			}
+			Key key = (Key) other;
+			return vertices == key.vertices && network.equals(key.network) && cql.equals(key.cql);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(vertices, network, cql);
+		}
+
+	}
+
+}
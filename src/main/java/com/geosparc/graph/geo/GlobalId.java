@@ -10,22 +10,42 @@ public class GlobalId {
 	
 	public enum Type {DATA, GENERATED};
 	
+	/**
+	 * What the graph builder made of the element, so this need not be derived from the feature type.
+	 */
+	public enum Kind {DATA, GENERATED_VERTEX, CONNECTION_VERTEX, CONNECTION_EDGE, PARTIAL_EDGE;
+		
+		/**
+		 * @return true for all vertices that were generated by the builder
+		 */
+		public boolean isGeneratedVertex() {
+			return this == GENERATED_VERTEX || this == CONNECTION_VERTEX;
+		}
+	};
+	
 	private String network;
 	
 	private String identifier;
 	
 	private Type type;
 	
+	private Kind kind;
+	
 	public GlobalId(String network, String identifier) {
 		this(network, identifier, Type.DATA);
 	}
 	
 	public GlobalId(String network, String identifier, Type type) {
+		this(network, identifier, type, Kind.DATA);
+	}
+	
+	public GlobalId(String network, String identifier, Type type, Kind kind) {
 		assert(network != null);
 		assert(identifier != null);
 		this.network = network;
 		this.identifier = identifier;
 		this.type = type;
+		this.kind = kind;
 	}
 
 	public String getNetwork() {
@@ -43,6 +63,13 @@ public class GlobalId {
 	public void setType(Type type) {
 		this.type = type;
 	}
+	
+	/**
+	 * @return the kind of element, not part of the identity
+	 */
+	public Kind getKind() {
+		return kind;
+	}
 
 	@Override
 	public String toString() {
@@ -59,7 +86,8 @@ public class GlobalId {
 	
 	@Override
 	public int hashCode() {
-		return identifier.hashCode();
+		// type is left out because it can be changed
+		return 31 * network.hashCode() + identifier.hashCode();
 	}
 
 }
@@ -0,0 +1,171 @@
+package com.geosparc.graph.geo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.geosparc.graph.base.IdDictionary;
+import com.geosparc.graph.geo.GlobalId.Kind;
+import com.geosparc.graph.geo.GlobalId.Type;
+
+/**
+ * Dictionary of global ids. Networks are numbered by small ordinals, and identifiers
+ * are looked up per network and type, so no global id needs to be hashed or compared.
+ *
+ * The network ordinal and kind of each identifier are kept in primitive arrays,
+ * for cheap checks during tracing.
+ *
+ * Dictionaries created from each other share their network ordinals.
+ *
+ */
+public class GlobalIdDictionary implements IdDictionary<GlobalId> {
+
+	private static final int TYPE_COUNT = Type.values().length;
+
+	private static final Kind[] KINDS = Kind.values();
+
+	private final List<String> networks;
+
+	private final Map<String, Integer> networkOrdinals;
+
+	/**
+	 * identifier to index, per network ordinal * TYPE_COUNT + type ordinal
+	 */
+	private final List<Map<String, Integer>> indices = new ArrayList<>();
+
+	private final List<GlobalId> ids;
+
+	private int[] idNetworks;
+
+	private byte[] idKinds;
+
+	public GlobalIdDictionary(int capacity) {
+		networks = new ArrayList<>();
+		networkOrdinals = new HashMap<>();
+		ids = new ArrayList<>(capacity);
+		idNetworks = new int[capacity];
+		idKinds = new byte[capacity];
+	}
+
+	/**
+	 * Create a dictionary that shares its network ordinals with another one.
+	 *
+	 * @param other the other dictionary
+	 * @param capacity the expected number of identifiers
+	 */
+	public GlobalIdDictionary(GlobalIdDictionary other, int capacity) {
+		networks = other.networks;
+		networkOrdinals = other.networkOrdinals;
+		ids = new ArrayList<>(capacity);
+		idNetworks = new int[capacity];
+		idKinds = new byte[capacity];
+	}
+
+	@Override
+	public int add(GlobalId id) {
+		Integer networkOrdinal = networkOrdinals.get(id.getNetwork());
+		if (networkOrdinal == null) {
+			networkOrdinal = networks.size();
+			networks.add(id.getNetwork());
+			networkOrdinals.put(id.getNetwork(), networkOrdinal);
+		}
+		int slot = networkOrdinal * TYPE_COUNT + id.getType().ordinal();
+		while (indices.size() <= slot) {
+			indices.add(new HashMap<>());
+		}
+
+		int index = ids.size();
+		if (indices.get(slot).putIfAbsent(id.getIdentifier(), index) != null) {
+			throw new IllegalArgumentException("Identifier already added: " + id);
+		}
+		ids.add(id);
+		if (index == idNetworks.length) {
+			idNetworks = Arrays.copyOf(idNetworks, Math.max(16, index * 2));
+			idKinds = Arrays.copyOf(idKinds, idNetworks.length);
+		}
+		idNetworks[index] = networkOrdinal;
+		idKinds[index] = (byte) id.getKind().ordinal();
+		return index;
+	}
+
+	@Override
+	public int indexOf(GlobalId id) {
+		return indexOf(id.getNetwork(), id.getIdentifier(), id.getType());
+	}
+
+	/**
+	 * @param network the network
+	 * @param identifier the identifier within the network
+	 * @param type the type
+	 * @return the index, or -1 if there is no such identifier
+	 */
+	public int indexOf(String network, String identifier, Type type) {
+		int networkOrdinal = getNetworkOrdinal(network);
+		if (networkOrdinal < 0) {
+			return -1;
+		}
+		int slot = networkOrdinal * TYPE_COUNT + type.ordinal();
+		if (slot >= indices.size()) {
+			return -1;
+		}
+		Integer index = indices.get(slot).get(identifier);
+		return index == null ? -1 : index;
+	}
+
+	@Override
+	public GlobalId get(int index) {
+		return ids.get(index);
+	}
+
+	@Override
+	public int size() {
+		return ids.size();
+	}
+
+	/**
+	 * @param index the index
+	 * @return the ordinal of the network of the identifier
+	 */
+	public int getNetworkOrdinal(int index) {
+		return idNetworks[index];
+	}
+
+	/**
+	 * @param index the index
+	 * @return the kind of the identifier
+	 */
+	public Kind getKind(int index) {
+		return KINDS[idKinds[index]];
+	}
+
+	/**
+	 * Estimated heap size of an identifier, including its dictionary entry
+	 *
+	 * @param index the index
+	 * @return estimated bytes
+	 */
+	public long estimateBytes(int index) {
+		// global id, identifier string, map entry with boxed index, list slot, network and kind
+		return 32 + FeatureStore.estimateBytes(ids.get(index).getIdentifier()) + 48 + 8 + 5;
+	}
+
+	/**
+	 * @param network the network name
+	 * @return the network ordinal, or -1 if the network has no identifiers (yet)
+	 */
+	public int getNetworkOrdinal(String network) {
+		Integer ordinal = networkOrdinals.get(network);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	public String getNetwork(int networkOrdinal) {
+		return networks.get(networkOrdinal);
+	}
+
+	public int getNetworkCount() {
+		return networks.size();
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.geosparc.graph.geo;
+
+/**
+ * Estimated memory footprint of the part of a graph snapshot that belongs to one network.
+ *
+ * Topology and index structures are on the heap. Attribute columns are on the heap
+ * (unless the snapshot is mapped), geometries are always off-heap.
+ *
+ */
+public class NetworkFootprint {
+
+	private final String network;
+
+	private int vertexCount;
+
+	private int edgeCount;
+
+	private long topologyBytes;
+
+	private long indexBytes;
+
+	private long attributeBytes;
+
+	private long geometryBytes;
+
+	public NetworkFootprint(String network) {
+		this.network = network;
+	}
+
+	void addVertex(long topology, long index, long attributes, long geometry) {
+		vertexCount++;
+		add(topology, index, attributes, geometry);
+	}
+
+	void addEdge(long topology, long index, long attributes, long geometry) {
+		edgeCount++;
+		add(topology, index, attributes, geometry);
+	}
+
+	private void add(long topology, long index, long attributes, long geometry) {
+		topologyBytes += topology;
+		indexBytes += index;
+		attributeBytes += attributes;
+		geometryBytes += geometry;
+	}
+
+	public String getNetwork() {
+		return network;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * @return adjacency arrays and edge weights
+	 */
+	public long getTopologyBytes() {
+		return topologyBytes;
+	}
+
+	/**
+	 * @return identifiers, their dictionaries and the vertex and edge objects
+	 */
+	public long getIndexBytes() {
+		return indexBytes;
+	}
+
+	/**
+	 * @return attribute columns and feature ids
+	 */
+	public long getAttributeBytes() {
+		return attributeBytes;
+	}
+
+	/**
+	 * @return WKB geometries
+	 */
+	public long getGeometryBytes() {
+		return geometryBytes;
+	}
+
+	public long getTotalBytes() {
+		return topologyBytes + indexBytes + attributeBytes + geometryBytes;
+	}
+
+	@Override
+	public String toString() {
+		return network + ": " + vertexCount + " nodes, " + edgeCount + " edges, "
+				+ (getTotalBytes() >> 20) + " MB";
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.geosparc.graph.geo;
 
 import com.geosparc.graph.base.Idp;
+import com.geosparc.graph.geo.GlobalId.Kind;
 import com.geosparc.gte.engine.GraphTracingResult;
 import com.google.common.base.Predicates;
 import org.apache.commons.io.FileUtils;
@@ -101,17 +102,14 @@ public class ShapeExporter implements GraphExporter<Idp<GlobalId, SimpleFeature>
 				dumpSubgraph(dumper, network, graph, 
 						o -> {
 							return !network.equals(o.getId().getNetwork()) ||
-									FeatureGraphBuilder.CONNECTION_EDGE.equals(
-											o.getData().getType().getName().getLocalPart());
+									o.getId().getKind() == Kind.CONNECTION_EDGE;
 						});
 			}
 
 			dumpSubgraph(dumper, "connections", graph,
 					o -> {
-						return !o.getData().getType().getName().getLocalPart()
-								.equals(FeatureGraphBuilder.CONNECTION_EDGE);
-					}, o -> {return !o.getData().getType().getName().getLocalPart()
-							.equals(FeatureGraphBuilder.CONNECTION_VERTEX);
+						return o.getId().getKind() != Kind.CONNECTION_EDGE;
+					}, o -> {return o.getId().getKind() != Kind.CONNECTION_VERTEX;
 					});
 
 			if (areas != null) {
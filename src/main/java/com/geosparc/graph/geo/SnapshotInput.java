@@ -0,0 +1,200 @@
+package com.geosparc.graph.geo;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sequential reader of a snapshot file, as written by {@link SnapshotOutput}.
+ *
+ * Large blocks can be read as buffers. In mapped mode these are read-only views on
+ * the file itself (shared through the page cache by all processes that map it),
+ * otherwise they are copies.
+ *
+ */
+class SnapshotInput implements Closeable {
+
+	private final FileChannel channel;
+
+	private final boolean mapped;
+
+	private final ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+	public SnapshotInput(FileChannel channel) {
+		this(channel, false);
+	}
+
+	/**
+	 * @param channel the file channel
+	 * @param mapped if true, blocks are mapped rather than copied
+	 */
+	public SnapshotInput(FileChannel channel, boolean mapped) {
+		this.channel = channel;
+		this.mapped = mapped;
+		buffer.flip();
+	}
+
+	/**
+	 * Make sure that a number of bytes is buffered
+	 *
+	 * @param count the number of bytes, at most the buffer capacity
+	 */
+	private void require(int count) throws IOException {
+		if (buffer.remaining() < count) {
+			buffer.compact();
+			while (buffer.position() < count) {
+				if (channel.read(buffer) < 0) {
+					throw new EOFException("Unexpected end of snapshot file");
+				}
+			}
+			buffer.flip();
+		}
+	}
+
+	public byte readByte() throws IOException {
+		require(1);
+		return buffer.get();
+	}
+
+	public int readInt() throws IOException {
+		require(4);
+		return buffer.getInt();
+	}
+
+	public long readLong() throws IOException {
+		require(8);
+		return buffer.getLong();
+	}
+
+	public double readDouble() throws IOException {
+		require(8);
+		return buffer.getDouble();
+	}
+
+	public String readString() throws IOException {
+		int length = readInt();
+		return length < 0 ? null : new String(readBytes(length), StandardCharsets.UTF_8);
+	}
+
+	public byte[] readBytes(int count) throws IOException {
+		byte[] bytes = new byte[count];
+		readBytes(ByteBuffer.wrap(bytes));
+		return bytes;
+	}
+
+	/**
+	 * Fill the remainder of a buffer
+	 *
+	 * @param target the buffer to fill
+	 */
+	public void readBytes(ByteBuffer target) throws IOException {
+		while (target.hasRemaining()) {
+			require(1);
+			int count = Math.min(buffer.remaining(), target.remaining());
+			ByteBuffer chunk = buffer.duplicate();
+			chunk.limit(chunk.position() + count);
+			target.put(chunk);
+			buffer.position(buffer.position() + count);
+		}
+	}
+
+	public int[] readInts(int count) throws IOException {
+		int[] values = new int[count];
+		for (int i = 0; i < count;) {
+			require(4);
+			int chunk = Math.min(count - i, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(values, i, chunk);
+			buffer.position(buffer.position() + chunk * 4);
+			i += chunk;
+		}
+		return values;
+	}
+
+	public long[] readLongs(int count) throws IOException {
+		long[] values = new long[count];
+		for (int i = 0; i < count;) {
+			require(8);
+			int chunk = Math.min(count - i, buffer.remaining() / 8);
+			buffer.asLongBuffer().get(values, i, chunk);
+			buffer.position(buffer.position() + chunk * 8);
+			i += chunk;
+		}
+		return values;
+	}
+
+	public double[] readDoubles(int count) throws IOException {
+		double[] values = new double[count];
+		for (int i = 0; i < count;) {
+			require(8);
+			int chunk = Math.min(count - i, buffer.remaining() / 8);
+			buffer.asDoubleBuffer().get(values, i, chunk);
+			buffer.position(buffer.position() + chunk * 8);
+			i += chunk;
+		}
+		return values;
+	}
+
+	public IntBuffer readIntBuffer(int count) throws IOException {
+		return mapped ? map(count * 4L).asIntBuffer() : IntBuffer.wrap(readInts(count));
+	}
+
+	public LongBuffer readLongBuffer(int count) throws IOException {
+		return mapped ? map(count * 8L).asLongBuffer() : LongBuffer.wrap(readLongs(count));
+	}
+
+	public DoubleBuffer readDoubleBuffer(int count) throws IOException {
+		return mapped ? map(count * 8L).asDoubleBuffer() : DoubleBuffer.wrap(readDoubles(count));
+	}
+
+	/**
+	 * Read a block of bytes, if not mapped into a direct (off-heap) buffer
+	 *
+	 * @param count the number of bytes
+	 * @return read-only buffer
+	 */
+	public ByteBuffer readByteBuffer(int count) throws IOException {
+		if (mapped) {
+			return map(count);
+		}
+		ByteBuffer target = ByteBuffer.allocateDirect(count);
+		readBytes(target);
+		target.flip();
+		return target.asReadOnlyBuffer();
+	}
+
+	/**
+	 * Map the next bytes of the file and skip them. The mapping stays valid
+	 * after the channel is closed.
+	 *
+	 * @param count the number of bytes
+	 * @return the mapped bytes
+	 */
+	private ByteBuffer map(long count) throws IOException {
+		long position = channel.position() - buffer.remaining();
+		if (position + count > channel.size()) {
+			throw new EOFException("Unexpected end of snapshot file");
+		}
+		ByteBuffer mapping = channel.map(MapMode.READ_ONLY, position, count);
+		if (count <= buffer.remaining()) {
+			buffer.position(buffer.position() + (int) count);
+		} else {
+			channel.position(position + count);
+			buffer.clear();
+			buffer.flip();
+		}
+		return mapping;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+}
@@ -0,0 +1,85 @@
+package com.geosparc.graph.geo;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writer of a snapshot file, see {@link SnapshotInput} for reading it back.
+ *
+ */
+class SnapshotOutput extends DataOutputStream {
+
+	public SnapshotOutput(OutputStream out) {
+		super(out);
+	}
+
+	/**
+	 * Write a string of any length, or null
+	 */
+	public void writeString(String string) throws IOException {
+		if (string == null) {
+			writeInt(-1);
+		} else {
+			byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+			writeInt(bytes.length);
+			write(bytes);
+		}
+	}
+
+	public void writeInts(int[] values) throws IOException {
+		for (int value : values) {
+			writeInt(value);
+		}
+	}
+
+	public void writeLongs(long[] values) throws IOException {
+		for (long value : values) {
+			writeLong(value);
+		}
+	}
+
+	public void writeDoubles(double[] values) throws IOException {
+		for (double value : values) {
+			writeDouble(value);
+		}
+	}
+
+	public void writeInts(IntBuffer values) throws IOException {
+		for (int i = 0; i < values.limit(); i++) {
+			writeInt(values.get(i));
+		}
+	}
+
+	public void writeLongs(LongBuffer values) throws IOException {
+		for (int i = 0; i < values.limit(); i++) {
+			writeLong(values.get(i));
+		}
+	}
+
+	public void writeDoubles(DoubleBuffer values) throws IOException {
+		for (int i = 0; i < values.limit(); i++) {
+			writeDouble(values.get(i));
+		}
+	}
+
+	/**
+	 * Write all bytes of a buffer (from 0 to its limit)
+	 */
+	public void writeBuffer(ByteBuffer values) throws IOException {
+		ByteBuffer view = values.duplicate();
+		view.rewind();
+		byte[] chunk = new byte[64 * 1024];
+		while (view.hasRemaining()) {
+			int count = Math.min(chunk.length, view.remaining());
+			view.get(chunk, 0, count);
+			write(chunk, 0, count);
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package com.geosparc.graph.geo;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.geosparc.graph.alg.ReachabilityIndex;
+import com.geosparc.graph.base.DGraphSnapshot;
+import com.geosparc.graph.geo.GlobalId.Kind;
+
+/**
+ * Tells which nodes and edges are part of the trace from a start node or edge, over all networks
+ * and without filters, without tracing: with the reachability index, and the rules of a trace.
+ *
+ * A trace takes the outgoing edges of every node it reaches, except that a trace from an edge does
+ * not pass the source node of that edge again. The connection edges at the loose ends of a trace,
+ * to a node without outgoing edges, are left out of its result, together with that node and the
+ * connection node they start from (with the edges of both).
+ *
+ */
+final class TraceMembership {
+
+	private final FeatureGraphSnapshot snapshot;
+
+	private final DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> graph;
+
+	private final boolean upstream;
+
+	private final ReachabilityIndex index;
+
+	private final int startEdge;
+
+	// the node the trace continues from: the start node, or the target of the start edge
+	private final int start;
+
+	// the source of the start edge, which the trace does not pass again, otherwise -1
+	private final int blocked;
+
+	// the nodes reached without passing the blocked node, only searched if the index can not tell
+	private BitSet reachedAround;
+
+	/**
+	 * @param snapshot the snapshot
+	 * @param upstream direction of tracing
+	 * @param startVertex the start node, if starting from a node, otherwise -1
+	 * @param startEdge the start edge, if starting from an edge, otherwise -1
+	 */
+	TraceMembership(FeatureGraphSnapshot snapshot, boolean upstream, int startVertex, int startEdge) {
+		this.snapshot = snapshot;
+		this.graph = snapshot.getGraph(upstream);
+		this.upstream = upstream;
+		this.index = snapshot.getReachabilityIndex();
+		this.startEdge = startEdge;
+		this.start = startEdge < 0 ? startVertex : graph.getEdgeTarget(startEdge);
+		this.blocked = startEdge < 0 ? -1 : graph.getEdgeSource(startEdge);
+	}
+
+	/**
+	 * @param vertex the node index
+	 * @return true if the result of the trace contains the node
+	 */
+	boolean containsVertex(int vertex) {
+		return isReached(vertex) && !isRemoved(vertex);
+	}
+
+	/**
+	 * @param edge the edge index
+	 * @return true if the result of the trace contains the edge
+	 */
+	boolean containsEdge(int edge) {
+		return isTaken(edge) && !isLooseEnd(edge)
+				&& !isRemoved(graph.getEdgeSource(edge)) && !isRemoved(graph.getEdgeTarget(edge));
+	}
+
+	/**
+	 * @return true if the trace reaches the node
+	 */
+	private boolean isReached(int vertex) {
+		if (vertex == start || vertex == blocked) {
+			return true;
+		}
+		if (!reaches(start, vertex)) {
+			return false;
+		}
+		if (blocked < 0 || !reaches(start, blocked)) {
+			return true;
+		}
+		// only a path around the blocked node counts
+		if (reachedAround == null) {
+			reachedAround = searchAround();
+		}
+		return reachedAround.get(vertex);
+	}
+
+	/**
+	 * @return true if the trace takes the edge
+	 */
+	private boolean isTaken(int edge) {
+		int source = graph.getEdgeSource(edge);
+		return edge == startEdge || (source != blocked && isReached(source));
+	}
+
+	/**
+	 * @return true if the edge is a connection edge to a node the trace does not continue from,
+	 * 		which is left out of the result if the trace takes it
+	 */
+	private boolean isLooseEnd(int edge) {
+		int target = graph.getEdgeTarget(edge);
+		// the blocked node still has the start edge
+		return snapshot.getEdgeIds().getKind(edge) == Kind.CONNECTION_EDGE
+				&& target != blocked && graph.getOutDegree(target) == 0;
+	}
+
+	/**
+	 * @return true if the node is left out of the result, at a loose end
+	 */
+	private boolean isRemoved(int vertex) {
+		if (vertex != blocked && graph.getOutDegree(vertex) == 0) {
+			for (int k = graph.getIncomingStart(vertex); k < graph.getIncomingEnd(vertex); k++) {
+				int edge = graph.getIncomingEdge(k);
+				if (isLooseEnd(edge) && isTaken(edge)) {
+					return true;
+				}
+			}
+		}
+		if (snapshot.getVertexIds().getKind(vertex) == Kind.CONNECTION_VERTEX) {
+			for (int k = graph.getOutgoingStart(vertex); k < graph.getOutgoingEnd(vertex); k++) {
+				int edge = graph.getOutgoingEdge(k);
+				if (isLooseEnd(edge) && isTaken(edge)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if there is a path from the source to the target, in the direction of tracing
+	 */
+	private boolean reaches(int source, int target) {
+		// the index is in the direction of the graph
+		return upstream ? index.isReachable(target, source) : index.isReachable(source, target);
+	}
+
+	/**
+	 * Depth first search from the start, without passing the blocked node
+	 */
+	private BitSet searchAround() {
+		BitSet visited = new BitSet(graph.getVertexCount());
+		visited.set(blocked);
+		if (visited.get(start)) {
+			return visited;
+		}
+		int[] stack = new int[16];
+		int top = 0;
+		stack[top++] = start;
+		visited.set(start);
+		while (top > 0) {
+			int vertex = stack[--top];
+			for (int k = graph.getOutgoingStart(vertex); k < graph.getOutgoingEnd(vertex); k++) {
+				int target = graph.getEdgeTarget(graph.getOutgoingEdge(k));
+				if (!visited.get(target)) {
+					visited.set(target);
+					if (top == stack.length) {
+						stack = Arrays.copyOf(stack, top * 2);
+					}
+					stack[top++] = target;
+				}
+			}
+		}
+		return visited;
+	}
+
+}
@@ -2,6 +2,7 @@ package com.geosparc.gte.config;
 
 import java.net.URL;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.apache.logging.log4j.util.Strings;
@@ -60,6 +61,11 @@ public class NetworkConfig {
 	 * Only applicable for NodeType GEOGRAPHICAL, the tolerance difference to snap edges to a node
 	 */
 	private double tolerance;
+	
+	/**
+	 * Alternative edge weights (such as travel time), weight name to numeric edge attribute
+	 */
+	private Map<String, String> weightAttributes = new HashMap<>();
 
 	public String getName() {
 		return name;
@@ -133,6 +139,29 @@ public class NetworkConfig {
 		this.tolerance = tolerance;
 	}
 
+	public Map<String, String> getWeightAttributes() {
+		return weightAttributes;
+	}
+
+	public void setWeightAttributes(Map<String, String> weightAttributes) {
+		this.weightAttributes = weightAttributes;
+	}
+
+	/**
+	 * @return all edge attributes to read, including those of the weights
+	 */
+	public List<String> getAllEdgeAttributes() {
+		List<String> attributes = getEdgeFeature().getAllAttributes();
+		if (weightAttributes != null) {
+			for (String attribute : weightAttributes.values()) {
+				if (!attributes.contains(attribute)) {
+					attributes.add(attribute);
+				}
+			}
+		}
+		return attributes;
+	}
+
 	private Map<String, String> parseClassPathFromDataStore(Map<String, String> dataStore) {
 		if (dataStore != null) {
 			if (dataStore.containsKey("url") && dataStore.get("url").contains("classpath:")) {
@@ -184,6 +213,9 @@ public class NetworkConfig {
 				!getNodeFeature().getAggregatedAttributes().isEmpty()) {
 			throw new IllegalStateException("Aggregated node attributes not (yet) supported");			
 		}
+		if (getWeightAttributes() != null && getWeightAttributes().values().stream().anyMatch(Strings::isEmpty)) {
+			throw new IllegalStateException("Missing weight attribute for network " + getName());
+		}
 		if (getNodeType() == NodeType.LOGICAL) {
 			if (getNodeFeature() == null) {
 				throw new IllegalStateException("Missing node feature for logical network " + getName());
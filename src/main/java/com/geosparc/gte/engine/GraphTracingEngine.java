@@ -1,7 +1,10 @@
 package com.geosparc.gte.engine;
 
 import com.geosparc.graph.base.DGraph;
+import com.geosparc.graph.base.Deadline;
+import com.geosparc.graph.geo.FeatureGraphSnapshot;
 import com.geosparc.graph.geo.GlobalId;
+import com.geosparc.graph.geo.NetworkFootprint;
 import org.geotools.filter.text.cql2.CQLException;
 import org.opengis.feature.simple.SimpleFeature;
 
@@ -15,15 +18,21 @@ public interface GraphTracingEngine {
 	void start();
 
 	/**
-	 * Get the entire graph
+	 * Get the entire graph (rebuilt from the snapshot, for debugging and export)
 	 */
 	DGraph<GlobalId, SimpleFeature, SimpleFeature> getGraph();
+
+	/**
+	 * Get the immutable snapshot of the entire graph that is used for tracing
+	 */
+	FeatureGraphSnapshot getSnapshot();
 	
 	/**
 	 * Perform a trace.
 	 * 
 	 * @param startNode the start node or edge id
 	 * @param maxDistance the maximum total distance
+	 * @param weight the edge weight for all distances (configured per network), null for the length
 	 * @param networks the list of networks
 	 * @param nodeFilters the list of node filters per network (same order as networks)
 	 * @param edgeFilters the list of edge filters per network (same order as networks)
@@ -31,17 +40,42 @@ public interface GraphTracingEngine {
 	 * @param edgeAggregatedAtts the lists of aggregated attributes (same order as networks), null = all
 	 * @param upstream true if upstream, false if downstream
 	 * @param includeOverlappingAreas calculate overlapping areas
-	 * @param limit the max amount of edges per single path
+	 * @param limit the max amount of edges: when enumerating paths, the number of times a path of a start node
+	 *      is extended, otherwise the number of edges in the result
 	 * @param ignorePaths If true, do not calculate all possible paths, but stop when an already visited vertex is met.
-	 *      This means that predicates and limits will not be calculated correctly.
+	 *      This means that predicates and limits will not be calculated correctly. Only applies when enumerating paths.
+	 * @param enumeratePaths true to enumerate all paths, false for a label-setting search,
+	 *      null for the configured default
+	 * @param deadline stop tracing, aggregating and finding overlapping areas at this deadline,
+	 *      with the result so far (null for none)
 	 * @return the tracing result
 	 * @throws CQLException malformed filter
 	 */
-	GraphTracingResult trace(List<GlobalId> startNodes, Double maxDistance, 
+	GraphTracingResult trace(List<GlobalId> startNodes, Double maxDistance, String weight,
 			List<String> networks, List<String> nodeFilters, List<String> edgeFilters,
 			List<Double> maxDistances, List<List<String>> edgeAggregatedAtts, boolean upstream,
 			boolean includeOverlappingAreas, List<String> overlapTypes, Long limit, boolean ignorePaths,
-			Double bufferSize) throws CQLException;
+			Boolean enumeratePaths, Double bufferSize, Deadline deadline) throws CQLException;
+
+	/**
+	 * Create the deadline of a trace, within the maximum time budget of the engine.
+	 *
+	 * @param timeBudget the time budget in milliseconds, null for the maximum
+	 * @return the deadline, from now on
+	 */
+	Deadline newDeadline(Long timeBudget);
+
+	/**
+	 * Check for pairs of nodes or edges whether the trace from the first contains the second,
+	 * over all networks and without filters, with the reachability index of the graph.
+	 * See {@link com.geosparc.graph.geo.FeatureGraphSnapshot#isReachable}.
+	 *
+	 * @param from the start node or edge of each pair
+	 * @param to the node or edge to look for, of each pair (same order as from)
+	 * @param upstream true if upstream, false if downstream
+	 * @return per pair, true if the trace contains the node or edge
+	 */
+	List<Boolean> isReachable(List<GlobalId> from, List<GlobalId> to, boolean upstream);
 
 	/**
 	 * Return a list of all networks.
@@ -53,6 +87,11 @@ public interface GraphTracingEngine {
 	 */
 	GraphStatus getStatus();
 
+	/**
+	 * Return the estimated memory footprint of the graph, per network.
+	 */
+	List<NetworkFootprint> getFootprint();
+
 	/**
 	 * Reload the entire graph.
 	 */
@@ -67,6 +67,16 @@ public interface GraphTracingResult {
 	 * 
 	 */
 	boolean isLimitReached();
+
+	/**
+	 * @return true if the time budget ran out, so that the result is what was found so far
+	 */
+	boolean isTimeBudgetReached();
+
+	/**
+	 * @return true if enumerating paths took too much memory, so that the trace was done without
+	 */
+	boolean isPathsAbandoned();
 	
 	/**
 	 * @return buffer if one was requested
@@ -10,6 +10,7 @@
 package com.geosparc.gte.engine.impl;
 
 import com.geosparc.graph.base.DGraph;
+import com.geosparc.graph.base.Deadline;
 import com.geosparc.graph.base.Idp;
 import com.geosparc.graph.geo.*;
 import com.geosparc.gte.config.*;
@@ -44,11 +45,15 @@ import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -79,19 +84,37 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
     private Integer retrytimeMaxMinutes;
     @Value("${engine.standoff-multiplier:2.0}")
     private Double standoffMultiplier;
+    @Value("${engine.snapshot-file:}")
+    private String snapshotFile;
+    @Value("${engine.snapshot-publisher:true}")
+    private Boolean snapshotPublisher;
+    @Value("${engine.tracing-parallelism:1}")
+    private Integer tracingParallelism;
+    @Value("${engine.filter-cache-mb:64}")
+    private Integer filterCacheMb;
+    @Value("${engine.max-time-budget-millis:0}")
+    private Long maxTimeBudgetMillis;
+    @Value("${engine.enumerate-paths:true}")
+    private Boolean defaultEnumeratePaths;
+    @Value("#{${engine.max-path-mb:256} * 1024L * 1024L}")
+    private Long maxPathBytes;
 
     private int retryCountMailing = 3;
 
-    private DGraph<GlobalId, SimpleFeature, SimpleFeature> graph = new DGraph<>(true);
+    private FeatureGraphSnapshot graph = new FeatureGraphSnapshot(new DGraph<>(true));
 
     private GraphStatus status = new GraphStatus();
 
+    private volatile List<NetworkFootprint> footprint = Collections.emptyList();
+
     private volatile boolean updating;
 
     private List<String> networks;
 
     private StandoffTimer timer;
 
+    private ForkJoinPool tracingPool;
+
     @EventListener(ApplicationPreparedEvent.class)
     public void start() {
         config.validate();
@@ -104,6 +127,10 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
         if (!updating) {
             try {
                 resetTimer();
+                if (UNINITIALIZED.equals(status.getStatus())) {
+                    // get ready from the last snapshot, then refresh from the data sources
+                    loadSnapshotFile();
+                }
                 load();
             } catch (Exception ex) {
                 LOGGER.warning("Tracingserver failed updating: \n" + ExceptionUtils.getStackTrace(ex));
@@ -146,6 +173,10 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
      * Load the graph from the database
      */
     protected void load() {
+        if (!isSnapshotPublisher()) {
+            attachSnapshotFile();
+            return;
+        }
         try {
             LOGGER.info("Building network...");
             updating = true;
@@ -158,16 +189,22 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
             for (ConnectionConfig connConfig : config.getConnections()) {
                 addConnection(graphBuilder, connConfig);
             }
-            DGraph<GlobalId, SimpleFeature, SimpleFeature> graph = graphBuilder.get();
+            // the builder graph and its features are only kept until they are frozen into the snapshot
+            FeatureGraphSnapshot graph = new FeatureGraphSnapshot(graphBuilder.get(), getWeightAttributes());
             LOGGER.info("Successfully built network from data sources, " +
-                    graph.vertexSet().size() + " nodes, " +
-                    graph.edgeSet().size() + " edges.");
+                    graph.getGraph().getVertexCount() + " nodes, " +
+                    graph.getGraph().getEdgeCount() + " edges.");
 
+            prepareGraph(graph);
             synchronized (this.graph) {
                 this.graph = graph;
             }
+            updateFootprint(graph);
+            long serial = System.currentTimeMillis();
             status.setStatus(GraphStatus.Status.READY);
-            status.setSerial(System.currentTimeMillis());
+            status.setSerial(serial);
+
+            writeSnapshotFile(graph, serial);
         } catch (Exception ex) {
             throw ex;
         } finally {
@@ -175,6 +212,134 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
         }
     }
 
+    /**
+     * Set up the filter cache of a new graph, before tracing starts on it.
+     * The reachability index is built on the first reachability request instead.
+     */
+    private void prepareGraph(FeatureGraphSnapshot graph) {
+        graph.setFilterMaskCacheSize(filterCacheMb * 1024L * 1024L);
+    }
+
+    /**
+     * Estimate the memory footprint of a new graph, per network
+     */
+    private void updateFootprint(FeatureGraphSnapshot graph) {
+        footprint = graph.getFootprint();
+        for (NetworkFootprint network : footprint) {
+            LOGGER.info("Network " + network);
+        }
+    }
+
+    /**
+     * @return per weight name, the edge attribute of each network
+     */
+    private Map<String, Map<String, String>> getWeightAttributes() {
+        Map<String, Map<String, String>> result = new HashMap<>();
+        for (NetworkConfig networkConfig : config.getNetworks()) {
+            if (networkConfig.getWeightAttributes() != null) {
+                networkConfig.getWeightAttributes().forEach((weight, attribute) ->
+                        result.computeIfAbsent(weight, w -> new HashMap<>()).put(networkConfig.getName(), attribute));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the pool shared by all tracings to trace start nodes in parallel, null if not configured
+     */
+    private synchronized ForkJoinPool getTracingPool() {
+        if (tracingPool == null && tracingParallelism != null && tracingParallelism > 1) {
+            tracingPool = new ForkJoinPool(tracingParallelism);
+        }
+        return tracingPool;
+    }
+
+    private FeatureGraphSnapshotFile getSnapshotFile() {
+        return snapshotFile == null || snapshotFile.isEmpty() ? null :
+                new FeatureGraphSnapshotFile(new File(snapshotFile));
+    }
+
+    /**
+     * @return false if the graph is not built here, but attached from the snapshot file of another instance
+     */
+    private boolean isSnapshotPublisher() {
+        return getSnapshotFile() == null || snapshotPublisher == null || snapshotPublisher;
+    }
+
+    /**
+     * Load the graph from the snapshot file of a previous load, if there is one
+     */
+    protected void loadSnapshotFile() {
+        FeatureGraphSnapshotFile file = getSnapshotFile();
+        if (file == null || !file.exists()) {
+            return;
+        }
+        try {
+            LOGGER.info("Loading network from snapshot " + file.getFile() + "...");
+            FeatureGraphSnapshot graph = file.map();
+            networks = config.getNetworks().stream().map(NetworkConfig::getName).collect(Collectors.toList());
+            prepareGraph(graph);
+            synchronized (this.graph) {
+                this.graph = graph;
+            }
+            updateFootprint(graph);
+            status.setStatus(GraphStatus.Status.READY);
+            status.setSerial(file.getSerial());
+            LOGGER.info("Successfully loaded network from snapshot, " +
+                    graph.getGraph().getVertexCount() + " nodes, " +
+                    graph.getGraph().getEdgeCount() + " edges.");
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to load snapshot " + file.getFile() + ", building from data sources", e);
+        }
+    }
+
+    /**
+     * Attach to the snapshot file published by another instance, unless it has not changed
+     */
+    protected void attachSnapshotFile() {
+        FeatureGraphSnapshotFile file = getSnapshotFile();
+        try {
+            updating = true;
+            long serial = file.readSerial();
+            if (GraphStatus.Status.READY.equals(status.getStatus()) && serial == status.getSerial()) {
+                return;
+            }
+            LOGGER.info("Attaching to network snapshot " + file.getFile() + "...");
+            FeatureGraphSnapshot graph = file.map();
+            networks = config.getNetworks().stream().map(NetworkConfig::getName).collect(Collectors.toList());
+            prepareGraph(graph);
+            synchronized (this.graph) {
+                this.graph = graph;
+            }
+            updateFootprint(graph);
+            status.setStatus(GraphStatus.Status.READY);
+            status.setSerial(file.getSerial());
+            LOGGER.info("Successfully attached to network snapshot, " +
+                    graph.getGraph().getVertexCount() + " nodes, " +
+                    graph.getGraph().getEdgeCount() + " edges.");
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to attach to snapshot " + file.getFile(), e);
+        } finally {
+            updating = false;
+        }
+    }
+
+    /**
+     * Save the graph to the snapshot file, if configured
+     */
+    protected void writeSnapshotFile(FeatureGraphSnapshot graph, long serial) {
+        FeatureGraphSnapshotFile file = getSnapshotFile();
+        if (file == null) {
+            return;
+        }
+        try {
+            file.write(graph, serial);
+            LOGGER.info("Saved network snapshot to " + file.getFile());
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Failed to save snapshot " + file.getFile(), e);
+        }
+    }
+
     /**
      * Add a network to the graph that is being built.
      *
@@ -207,7 +372,7 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
                         fac.property(networkConfig.getEdgeFeature().getIdAttribute()),
                         fac.property(networkConfig.getStartAttribute()),
                         fac.property(networkConfig.getEndAttribute()),
-                        networkConfig.getEdgeFeature().getAllAttributes());
+                        networkConfig.getAllEdgeAttributes());
 
             } catch (IOException e) {
                 LOGGER.log(Level.SEVERE, "Failed to add network " + networkConfig.getName(), e);
@@ -233,7 +398,7 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
                         fac.property(networkConfig.getEdgeFeature().getIdAttribute()),
                         CQL.toExpression(networkConfig.getStartAttribute()),
                         CQL.toExpression(networkConfig.getEndAttribute()),
-                        networkConfig.getEdgeFeature().getAllAttributes(),
+                        networkConfig.getAllEdgeAttributes(),
                         networkConfig.getTolerance());
 
             } catch (IOException | CQLException e) {
@@ -270,6 +435,11 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
 
     @Override
     public DGraph<GlobalId, SimpleFeature, SimpleFeature> getGraph() {
+        return getSnapshot().toGraph();
+    }
+
+    @Override
+    public FeatureGraphSnapshot getSnapshot() {
         synchronized (graph) { // locks in case of reload
             return graph;
         }
@@ -277,20 +447,20 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
 
 
     @Override
-    public GraphTracingResult trace(List<GlobalId> startNodes, Double maxDistance,
+    public GraphTracingResult trace(List<GlobalId> startNodes, Double maxDistance, String weight,
                                     List<String> networks, List<String> nodeFilters, List<String> edgeFilters,
                                     List<Double> maxDistances, List<List<String>> edgeAggregatedAtts,
                                     boolean upstream, boolean includeOverlappingAreas,
                                     List<String> overlapTypes, Long limit, boolean ignorePaths,
-                                    Double bufferSize)
+                                    Boolean enumeratePaths, Double bufferSize, Deadline deadline)
             throws CQLException {
 
         try {
             if (UNINITIALIZED.equals(status.getStatus())) {
                 throw new IllegalStateException("Graph not initialized.");
             }
-            synchronized (graph) { // locks in case of reload, so no new tracings will happen while reloading
-            }
+            // locks in case of reload, so no new tracings will happen while reloading
+            FeatureGraphSnapshot graph = getSnapshot();
 
             FeatureGraphTracer tracer = new FeatureGraphTracer(graph, startNodes, upstream, limit, ignorePaths);
 
@@ -314,6 +484,14 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
                 tracer.setMaximumDistance(maxDistance);
             }
 
+            tracer.setWeight(weight);
+            tracer.setEnumeratePaths(enumeratePaths == null ? defaultEnumeratePaths : enumeratePaths);
+            if (maxPathBytes != null && maxPathBytes > 0) {
+                tracer.setMaxPathBytes(maxPathBytes);
+            }
+            tracer.setPool(getTracingPool());
+            tracer.setDeadline(deadline);
+
             for (int i = 0; i < networks.size(); i++) {
                 tracer.addNetwork(networks.get(i));
 
@@ -335,18 +513,29 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
 
             Graph<Idp<GlobalId, SimpleFeature>,
                     Idp<GlobalId, SimpleFeature>> trace = tracer.trace();
+            boolean timeBudgetReached = tracer.isDeadlineReached();
 
             Map<String, Map<GlobalId, Object>> aggregates = new HashMap<>();
+            // the trace is in the direction of tracing, so it can be ordered once for all aggregates
+            List<Idp<GlobalId, SimpleFeature>> orderedEdges = null;
 			for (int i = 0; i < edgeAggregatedAtts.size(); i++) {
                 NetworkConfig networkConfig = config.findNetworkByName(networks.get(i));
                 if (networkConfig != null && networkConfig.getEdgeFeature().getAggregatedAttributes() != null) {
                     for (AggregateConfig agg : networkConfig.getEdgeFeature().getAggregatedAttributes()) {
                         if (edgeAggregatedAtts.get(i) == null || edgeAggregatedAtts.get(i).contains(agg.getTarget())) {
-                            aggregates.put(agg.getTarget(),
-                                    new FeatureGraphAggregator(trace, tracer.orderEdges(trace),
-                                            networkConfig.getEdgeFeature().getName(), agg.getSource(),
-                                            FeatureGraphAggregatorMethod.valueOf(agg.getMethod()), upstream)
-                                            .aggregate());
+                            if (isReached(deadline)) {
+                                timeBudgetReached = true;
+                                continue;
+                            }
+                            if (orderedEdges == null) {
+                                orderedEdges = tracer.orderEdges(trace);
+                            }
+                            FeatureGraphAggregator aggregator = new FeatureGraphAggregator(trace, orderedEdges,
+                                    networkConfig.getEdgeFeature().getName(), agg.getSource(),
+                                    FeatureGraphAggregatorMethod.valueOf(agg.getMethod()), upstream);
+                            aggregator.setDeadline(deadline);
+                            aggregates.put(agg.getTarget(), aggregator.aggregate());
+                            timeBudgetReached = timeBudgetReached || aggregator.isDeadlineReached();
                         }
                     }
                 }
@@ -366,24 +555,28 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
             }
             trace = retyper.process();
 
+			// views on the distances the tracer kept per start node
 			Map<GlobalId, Map<GlobalId, Double>> nodeDistances = new HashMap<>();
 			for (GlobalId startNode : startNodes) {
-				Map<GlobalId, Double> distances = new HashMap<>();
-				nodeDistances.put(startNode, distances);
-				for (Idp<GlobalId, SimpleFeature> vertex : trace.vertexSet()) {
-					if (!vertex.getId().equals(startNode)) {
-						distances.put(vertex.getId(), tracer.getDistance(startNode, vertex));
-					}
-				}
+				nodeDistances.put(startNode, tracer.getDistances(startNode, trace));
 			}
             
             List<Idp<GlobalId, SimpleFeature>> edges = tracer.orderEdges(trace);
             List<Idp<GlobalId, SimpleFeature>> vertices = tracer.orderVertices(trace);
 
+            Map<String, List<SimpleFeature>> areas = null;
+            if (includeOverlappingAreas) {
+                areas = findOverlappingAreas(trace, overlapTypes, deadline);
+                // the types that were skipped are missing
+                timeBudgetReached = timeBudgetReached || isReached(deadline);
+            }
+
             return new GraphTracingResultImpl(trace, nodeDistances, aggregates,
-                    includeOverlappingAreas ? findOverlappingAreas(trace, overlapTypes) : null,
+                    areas,
                     edges, vertices,
                     tracer.isLimitReached(),
+                    timeBudgetReached,
+                    tracer.isPathsAbandoned(),
                     createBuffer(bufferSize, edges));
 
         } catch (Exception ex) {
@@ -391,6 +584,17 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
         }
     }
 
+    @Override
+    public Deadline newDeadline(Long timeBudget) {
+        long budget = timeBudget == null || timeBudget <= 0 ? maxTimeBudgetMillis :
+                maxTimeBudgetMillis > 0 ? Math.min(timeBudget, maxTimeBudgetMillis) : timeBudget;
+        return new Deadline(budget);
+    }
+
+    private static boolean isReached(Deadline deadline) {
+        return deadline != null && deadline.isReached();
+    }
+
     private Geometry createBuffer(Double bufferSize, List<Idp<GlobalId, SimpleFeature>> edges) {
     	if (bufferSize == null) {
 			return null;
@@ -417,9 +621,7 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
         List<Idp<GlobalId, SimpleFeature>> verticesToBeRemoved = new ArrayList<>();
 
         for (Idp<GlobalId, SimpleFeature> edge : trace.edgeSet()) {
-            if (edge.getData() != null
-                    && edge.getData().getFeatureType().getName().getLocalPart().equals(
-                    FeatureGraphBuilder.CONNECTION_EDGE)) {
+            if (edge.getId().getKind() == GlobalId.Kind.CONNECTION_EDGE) {
                 Idp<GlobalId, SimpleFeature> targetVertex = trace.getEdgeTarget(edge);
                 if (trace.outgoingEdgesOf(targetVertex).isEmpty()) {
                     edgesToBeRemoved.add(edge);
@@ -428,9 +630,7 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
                     // we don't want to end with a connection vertex either
                     Idp<GlobalId, SimpleFeature> sourceVertex =
                             trace.getEdgeSource(edge);
-                    if (sourceVertex.getData() != null
-                            && sourceVertex.getData().getFeatureType().getName().getLocalPart().equals(
-                            FeatureGraphBuilder.CONNECTION_VERTEX)) {
+                    if (sourceVertex.getId().getKind() == GlobalId.Kind.CONNECTION_VERTEX) {
                         verticesToBeRemoved.add(sourceVertex);
                         edgesToBeRemoved.addAll(trace.incomingEdgesOf(sourceVertex));
                     }
@@ -446,15 +646,19 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
      * Find overlapping areas for a trace
      *
      * @param trace the result of a trace
+     * @param deadline the types of areas that are not queried yet are left out at this deadline (null for none)
      * @return the overlapping areas mapped per network
      */
     protected Map<String, List<SimpleFeature>>
     findOverlappingAreas(Graph<Idp<GlobalId, SimpleFeature>,
-            Idp<GlobalId, SimpleFeature>> trace, List<String> types) {
+            Idp<GlobalId, SimpleFeature>> trace, List<String> types, Deadline deadline) {
 
         Map<String, List<SimpleFeature>> result = new HashMap<>();
 
         for (AreasConfig areasConfig : config.getAreas()) {
+            if (isReached(deadline)) {
+                break;
+            }
             if (types == null || types.contains(areasConfig.getName())) {
                 DataStore store;
                 try {
@@ -482,7 +686,7 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
                     SimpleFeatureIterator it = source.getFeatures(query).features();
 
                     List<SimpleFeature> list = new ArrayList<>();
-                    while (it.hasNext()) {
+                    while (it.hasNext() && !isReached(deadline)) {
                         list.add(it.next());
                     }
                     result.put(areasConfig.getName(), list);
@@ -498,6 +702,22 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
         return result;
     }
 
+    @Override
+    public List<Boolean> isReachable(List<GlobalId> from, List<GlobalId> to, boolean upstream) {
+        if (UNINITIALIZED.equals(status.getStatus())) {
+            throw new IllegalStateException("Graph not initialized.");
+        }
+        if (from.size() != to.size()) {
+            throw new IllegalArgumentException("reachable_size_mismatch");
+        }
+        FeatureGraphSnapshot graph = getSnapshot();
+        List<Boolean> result = new ArrayList<>(from.size());
+        for (int i = 0; i < from.size(); i++) {
+            result.add(graph.isReachable(from.get(i), to.get(i), upstream));
+        }
+        return result;
+    }
+
     @Override
     public List<String> getNetworks() {
         return networks;
@@ -508,6 +728,11 @@ public class GraphTracingEngineImpl implements GraphTracingEngine {
         return status;
     }
 
+    @Override
+    public List<NetworkFootprint> getFootprint() {
+        return footprint;
+    }
+
     public boolean isUpdating() {
         return updating;
     }
@@ -34,6 +34,10 @@ public class GraphTracingResultImpl implements GraphTracingResult {
 	private Map<String, Map<GlobalId, Object>> aggregates;
 
 	private boolean limitReached;
+
+	private boolean timeBudgetReached;
+
+	private boolean pathsAbandoned;
 	
 	private Geometry buffer;
 		
@@ -44,6 +48,8 @@ public class GraphTracingResultImpl implements GraphTracingResult {
 			List<Idp<GlobalId, SimpleFeature>> edges,
 			List<Idp<GlobalId, SimpleFeature>> vertices,
 			boolean limitReached,
+			boolean timeBudgetReached,
+			boolean pathsAbandoned,
 			Geometry buffer) {
 		this.graph = graph;
 		this.distances = distances;
@@ -52,6 +58,8 @@ public class GraphTracingResultImpl implements GraphTracingResult {
 		this.vertices = vertices;
 		this.aggregates = aggregates;
 		this.limitReached = limitReached;
+		this.timeBudgetReached = timeBudgetReached;
+		this.pathsAbandoned = pathsAbandoned;
 		this.buffer = buffer;
 	}
 
@@ -89,6 +97,16 @@ public class GraphTracingResultImpl implements GraphTracingResult {
 		return limitReached;
 	}
 
+	@Override
+	public boolean isTimeBudgetReached() {
+		return timeBudgetReached;
+	}
+
+	@Override
+	public boolean isPathsAbandoned() {
+		return pathsAbandoned;
+	}
+
 	@Override
 	public Geometry getBuffer() {
 		return buffer;
@@ -0,0 +1,73 @@
+package com.geosparc.gte.rest;
+
+import java.util.List;
+
+import com.geosparc.gte.rest.TraceRequest.TraceRequestStartNode;
+
+/**
+ * The Reachability Request: for pairs of nodes or edges, whether the trace
+ * from the first contains the second.
+ *
+ */
+public class ReachabilityRequest {
+
+	/**
+	 * A pair of nodes or edges
+	 *
+	 */
+	public static class ReachabilityRequestPair {
+
+		/**
+		 * Start node or edge
+		 */
+		private TraceRequestStartNode from;
+
+		/**
+		 * Node or edge to look for
+		 */
+		private TraceRequestStartNode to;
+
+		public TraceRequestStartNode getFrom() {
+			return from;
+		}
+
+		public void setFrom(TraceRequestStartNode from) {
+			this.from = from;
+		}
+
+		public TraceRequestStartNode getTo() {
+			return to;
+		}
+
+		public void setTo(TraceRequestStartNode to) {
+			this.to = to;
+		}
+	}
+
+	/**
+	 * The pairs
+	 */
+	private List<ReachabilityRequestPair> pairs;
+
+	/**
+	 * Upstream or downstream
+	 */
+	private boolean upstream;
+
+	public List<ReachabilityRequestPair> getPairs() {
+		return pairs;
+	}
+
+	public void setPairs(List<ReachabilityRequestPair> pairs) {
+		this.pairs = pairs;
+	}
+
+	public boolean isUpstream() {
+		return upstream;
+	}
+
+	public void setUpstream(boolean upstream) {
+		this.upstream = upstream;
+	}
+
+}
@@ -1,5 +1,6 @@
 package com.geosparc.gte.rest;
 
+import com.geosparc.graph.base.Deadline;
 import com.geosparc.graph.base.Idp;
 import com.geosparc.graph.base.JsonWrapper;
 import com.geosparc.graph.geo.FeatureJsonExporter;
@@ -26,11 +27,18 @@ import org.json.simple.JSONObject;
 import org.json.simple.JSONStreamAware;
 import org.opengis.feature.simple.SimpleFeature;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.MessageSource;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.http.MediaType;
 import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.AsyncRequestTimeoutException;
+import org.springframework.web.context.request.async.WebAsyncTask;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
@@ -61,6 +69,32 @@ public class TraceController {
     @Autowired
     private MessageSource messageSource;
 
+	@Value("${engine.trace-threads:8}")
+	private Integer traceThreads;
+
+	@Value("${engine.trace-queue-size:100}")
+	private Integer traceQueueSize;
+
+	/**
+	 * traces run on their own threads, apart from other asynchronous work such as reloads
+	 */
+	private ThreadPoolTaskExecutor traceExecutor;
+
+	@PostConstruct
+	public void startTraceExecutor() {
+		traceExecutor = new ThreadPoolTaskExecutor();
+		traceExecutor.setCorePoolSize(traceThreads);
+		traceExecutor.setMaxPoolSize(traceThreads);
+		traceExecutor.setQueueCapacity(traceQueueSize);
+		traceExecutor.setThreadNamePrefix("trace-");
+		traceExecutor.initialize();
+	}
+
+	@PreDestroy
+	public void stopTraceExecutor() {
+		traceExecutor.shutdown();
+	}
+
 	@ExceptionHandler({IllegalArgumentException.class, CQLException.class,
 		HttpMessageNotReadableException.class})
     public void illegalArgument(
@@ -82,7 +116,7 @@ public class TraceController {
         response.sendError(500, exception.getMessage());
     }
 
-	@ExceptionHandler({IllegalStateException.class})
+	@ExceptionHandler({IllegalStateException.class, TaskRejectedException.class})
 	public void illegalstateException(
 			Exception exception,
 			HttpServletRequest request,
@@ -92,19 +126,23 @@ public class TraceController {
 		response.sendError(503, exception.getMessage());
 	}
 
-	@SuppressWarnings("unchecked")
 	@ApiOperation("Perform a trace and retrieve the result in json.")
 	@PostMapping(value = "/trace", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
-	public void trace(@RequestBody TraceRequest request,
+	public WebAsyncTask<Void> trace(@RequestBody TraceRequest request,
 			HttpServletResponse response,
-			Locale locale) throws CQLException, ExportException, IOException {
+			Locale locale) {
 
 		LOGGER.fine("Start Trace -> start ID/Netwerk: " + request.getStartId() + " / " + request.getStartNetwork());
 		
 		//backwards compatibility mode (single distance)
 		final boolean BC_MODE = request.getStartNodes() == null;
 
-		GraphTracingResult result = getGraphTracingResult(request);
+		return traceAsync(request, result -> writeTrace(request, result, BC_MODE, response, locale));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void writeTrace(TraceRequest request, GraphTracingResult result, boolean BC_MODE,
+			HttpServletResponse response, Locale locale) throws ExportException, IOException {
 
 		JSONObject jsonResult = new JSONObject();
 		jsonResult.put("graph", new JsonWrapper<>(result.getGraph(),
@@ -189,6 +227,14 @@ public class TraceController {
 			warnings.add(messageSource.getMessage("max_edges_reached",
 	        		new Object[] {}, locale));
 		}
+		if (result.isTimeBudgetReached()) {
+			warnings.add(messageSource.getMessage("time_budget_reached",
+	        		new Object[] {}, locale));
+		}
+		if (result.isPathsAbandoned()) {
+			warnings.add(messageSource.getMessage("paths_abandoned",
+	        		new Object[] {}, locale));
+		}
 
 		if (request.getOverlappingTypes() != null) {
 			for (String type : request.getOverlappingTypes()) {
@@ -203,14 +249,16 @@ public class TraceController {
 
 	@ApiOperation("Perform a trace and retrieve the result as zip with shapefiles.")
 	@PostMapping(value = "/trace-shape", produces = "application/zip")
-	public void traceAsZip(@RequestBody TraceRequest request,
-			HttpServletResponse response, Locale locale)
-					throws CQLException, ExportException, IOException {
+	public WebAsyncTask<Void> traceAsZip(@RequestBody TraceRequest request,
+			HttpServletResponse response, Locale locale) {
 
 		LOGGER.info("Start Trace (zip) -> start ID/Netwerk: " + request.getStartId() + " / " + request.getStartNetwork());
 
-		GraphTracingResult result = getGraphTracingResult(request);
+		return traceAsync(request, result -> writeTraceAsZip(request, result, response, locale));
+	}
 
+	private void writeTraceAsZip(TraceRequest request, GraphTracingResult result,
+			HttpServletResponse response, Locale locale) throws ExportException, IOException {
 		response.setContentType("application/zip");
         response.setHeader("Content-Disposition", "attachment; filename=tracing.zip");
         new ShapeExporter(engine.getNetworks()) {
@@ -230,6 +278,12 @@ public class TraceController {
 					if (request.getMaxDistance() != null) {
 						writer.write("MaxDistance: " + request.getMaxDistance() + "\r\n");
 					}
+					if (request.getWeight() != null) {
+						writer.write("Weight: " + request.getWeight() + "\r\n");
+					}
+					if (request.getEnumeratePaths() != null) {
+						writer.write("EnumeratePaths: " + request.getEnumeratePaths() + "\r\n");
+					}
 					writer.write("Networks: ");
 					for (TraceRequestNetwork network : request.getNetworks()) {
 						writer.write(network.getName() + " ");
@@ -262,6 +316,19 @@ public class TraceController {
 		}.exportGraph(result, response.getOutputStream());
 	}
 	
+	@ApiOperation("Check for pairs of nodes or edges whether the trace from the first contains the second, "
+			+ "over all networks and without filters.")
+	@PostMapping(value = "/reachable", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+	public List<Boolean> reachable(@RequestBody ReachabilityRequest request) {
+		if (request.getPairs() == null || request.getPairs().isEmpty()) {
+			throw new IllegalArgumentException("missing_start_nodes");
+		}
+		return engine.isReachable(
+				request.getPairs().stream().map(p -> toGlobalId(p.getFrom())).collect(Collectors.toList()),
+				request.getPairs().stream().map(p -> toGlobalId(p.getTo())).collect(Collectors.toList()),
+				request.isUpstream());
+	}
+
 	@ApiOperation("Get info of overlapTypes.")
 	@GetMapping(value = "/overlapTypes", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
 	public void overlapTypes(HttpServletResponse response) throws IOException {
@@ -280,7 +347,42 @@ public class TraceController {
 		overlapAreaTypes.writeJSONString(response.getWriter());
 	}
 
-	private GraphTracingResult getGraphTracingResult(TraceRequest request) throws CQLException {
+	/**
+	 * Writes the result of a trace to the response
+	 */
+	@FunctionalInterface
+	private interface ResultWriter {
+		void write(GraphTracingResult result) throws Exception;
+	}
+
+	/**
+	 * Trace on another thread than the request, within the time budget of the request.
+	 * The trace is cancelled whenever the request ends before it, such as when the client
+	 * disconnects. When all trace threads are busy
+	 * and the queue is full, the request is refused as unavailable.
+	 */
+	private WebAsyncTask<Void> traceAsync(TraceRequest request, ResultWriter writer) {
+		Deadline deadline = engine.newDeadline(request.getTimeBudget());
+		// no timeout of the container, the trace stops at its own deadline
+		WebAsyncTask<Void> task = new WebAsyncTask<>(0L, traceExecutor, () -> {
+			writer.write(getGraphTracingResult(request, deadline));
+			return null;
+		});
+		task.onError(() -> {
+			deadline.cancel();
+			return null;
+		});
+		task.onTimeout(() -> {
+			deadline.cancel();
+			// answered as unavailable, as without this callback
+			throw new AsyncRequestTimeoutException();
+		});
+		// also when the request ends without an error, a trace that still runs is of no use any more
+		task.onCompletion(deadline::cancel);
+		return task;
+	}
+
+	private GraphTracingResult getGraphTracingResult(TraceRequest request, Deadline deadline) throws CQLException {
 		if (request.getStartNetwork() != null && request.getStartId() != null) {
 			//backwards compatibility			
 			if (request.getStartNodes() == null) {
@@ -300,16 +402,9 @@ public class TraceController {
 		}
 
 		return engine.trace(
-				request.getStartNodes().stream().map(
-						n -> {
-							if (Strings.isNullOrEmpty(n.getNetwork())) {
-								throw new IllegalArgumentException("missing_start_network");
-							}
-							if (Strings.isNullOrEmpty(n.getId())) {
-								throw new IllegalArgumentException("missing_start_id");
-							}
-							return new GlobalId(n.getNetwork(), n.getId());}).collect(Collectors.toList()),
+				request.getStartNodes().stream().map(this::toGlobalId).collect(Collectors.toList()),
 				request.getMaxDistance(),
+				request.getWeight(),
 				request.getNetworks().stream().map(n -> n.getName()).collect(Collectors.toList()),
 				request.getNetworks().stream().map(n -> n.getNodeFilter()).collect(Collectors.toList()),
 				request.getNetworks().stream().map(n -> n.getEdgeFilter()).collect(Collectors.toList()),
@@ -320,8 +415,19 @@ public class TraceController {
 				request.getOverlappingTypes(),
 				request.getLimit(),
 				request.isIgnorePaths(),
-				request.getBufferSize());
+				request.getEnumeratePaths(),
+				request.getBufferSize(),
+				deadline);
 	}
 
+	private GlobalId toGlobalId(TraceRequest.TraceRequestStartNode n) {
+		if (n == null || Strings.isNullOrEmpty(n.getNetwork())) {
+			throw new IllegalArgumentException("missing_start_network");
+		}
+		if (Strings.isNullOrEmpty(n.getId())) {
+			throw new IllegalArgumentException("missing_start_id");
+		}
+		return new GlobalId(n.getNetwork(), n.getId());
+	}
 
 }
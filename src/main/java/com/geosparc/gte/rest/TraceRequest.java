@@ -147,6 +147,11 @@ public class TraceRequest {
 	 */
 	private Double maxDistance;
 	
+	/**
+	 * Edge weight for the (maximum) distances, as configured per network, null for the length
+	 */
+	private String weight;
+	
 	/**
 	 * List of included networks and their parameters
 	 */
@@ -168,7 +173,8 @@ public class TraceRequest {
 	private List<String> overlappingTypes;
 	
 	/**
-	 * maximum amount of edges per single path
+	 * maximum amount of edges per start node: when enumerating paths, the number of times its paths are extended,
+	 * otherwise the number of edges of its trace
 	 */
 	private Long limit;
 	
@@ -179,9 +185,21 @@ public class TraceRequest {
 
 	/**
 	 * Stop paths that meet already visited vertices. Limits and predicates will not work correctly.
+	 * Only applies when enumerating paths.
 	 */
 	private boolean ignorePaths;
 
+	/**
+	 * true to enumerate all paths, false for a label-setting search that gives the same edges
+	 * without enumerating paths (null for the configured default, which is to enumerate paths)
+	 */
+	private Boolean enumeratePaths;
+
+	/**
+	 * maximum time in milliseconds, after which the result so far is returned (capped by the configuration)
+	 */
+	private Long timeBudget;
+
 	public List<TraceRequestStartNode> getStartNodes() {
 		return startNodes;
 	}
@@ -214,6 +232,14 @@ public class TraceRequest {
 		this.maxDistance = maxDistance;
 	}
 
+	public String getWeight() {
+		return weight;
+	}
+
+	public void setWeight(String weight) {
+		this.weight = weight;
+	}
+
 	public List<TraceRequestNetwork> getNetworks() {
 		return networks;
 	}
@@ -254,6 +280,14 @@ public class TraceRequest {
 		this.ignorePaths = ignorePaths;
 	}
 
+	public Boolean getEnumeratePaths() {
+		return enumeratePaths;
+	}
+
+	public void setEnumeratePaths(Boolean enumeratePaths) {
+		this.enumeratePaths = enumeratePaths;
+	}
+
 	public Double getBufferSize() {
 		return bufferSize;
 	}
@@ -261,6 +295,14 @@ public class TraceRequest {
 	public void setBufferSize(Double bufferSize) {
 		this.bufferSize = bufferSize;
 	}
+
+	public Long getTimeBudget() {
+		return timeBudget;
+	}
+
+	public void setTimeBudget(Long timeBudget) {
+		this.timeBudget = timeBudget;
+	}
 	
 	
 }
@@ -1,5 +1,6 @@
 package com.geosparc.gte.rest;
 
+import com.geosparc.graph.geo.NetworkFootprint;
 import com.geosparc.gte.engine.GraphStatus;
 import com.geosparc.gte.engine.GraphTracingEngine;
 import io.swagger.annotations.Api;
@@ -15,6 +16,7 @@ import org.springframework.web.bind.annotation.RestController;
 
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * @author Oliver May
@@ -42,5 +44,11 @@ public class UpdateController {
     public GraphStatus getGraphStatus() {
         return engine.getStatus();
     }
+
+    @ApiOperation("Get the estimated memory footprint of the graph, per network.")
+    @GetMapping(value = "/footprint", produces = MediaType.APPLICATION_JSON_UTF8_VALUE)
+    public List<NetworkFootprint> getGraphFootprint() {
+        return engine.getFootprint();
+    }
 }
 
@@ -0,0 +1,378 @@
+package com.geosparc.graph.alg;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.List;
+
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DirectedMultigraph;
+import org.junit.Test;
+
+import com.geosparc.graph.base.DGraphSnapshot;
+import com.geosparc.graph.base.Deadline;
+import com.geosparc.graph.base.Idp;
+
+public class IndexedTracingTest {
+
+	private DGraphSnapshot<String, Object, Object> graph;
+
+	public IndexedTracingTest() {
+		Graph<Idp<String, Object>, Idp<String, Object>> g = new DirectedMultigraph<>(null, null, true);
+		for (int i = 1; i <= 7; i++) {
+			g.addVertex(new Idp<>(String.valueOf(i)));
+		}
+		addEdge(g, 1, 2, 0.25);
+		addEdge(g, 2, 3, 0.35);
+		addEdge(g, 2, 4, 0.45);
+		addEdge(g, 3, 5, 0.25);
+		addEdge(g, 4, 5, 0.35);
+		addEdge(g, 5, 6, 0.45);
+		addEdge(g, 4, 2, 0.55);
+		addEdge(g, 4, 7, 0.25);
+		addEdge(g, 7, 1, 0.05);
+		graph = new DGraphSnapshot<>(g);
+	}
+
+	private static void addEdge(Graph<Idp<String, Object>, Idp<String, Object>> g,
+			int source, int target, double weight) {
+		Idp<String, Object> edge = new Idp<>(source + "->" + target);
+		g.addEdge(new Idp<>(String.valueOf(source)), new Idp<>(String.valueOf(target)), edge);
+		g.setEdgeWeight(edge, weight);
+	}
+
+	@Test
+	public void testTracingWeight() {
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		List<IndexedPath> paths = tracing.getAllPaths(vertex(1), -1, true,
+				p -> p.getWeight() < 1.1, Long.MAX_VALUE, false);
+		assertFalse(tracing.isLimitReached());
+		assertEquals(4, paths.size());
+		assertTrue(containsPath(paths, "1->2", "2->4", "4->5", "5->6"));
+		assertTrue(containsPath(paths, "1->2", "2->4", "4->2"));
+		assertTrue(containsPath(paths, "1->2", "2->4", "4->7", "7->1"));
+		assertTrue(containsPath(paths, "1->2", "2->3", "3->5", "5->6"));
+		for (IndexedPath path : paths) {
+			assertEquals(vertex(1), path.getStartVertex());
+			assertEquals(path.getEdges().length, path.getLength());
+			assertEquals(path.getVertices()[path.getLength()], path.getEndVertex());
+		}
+		assertEquals(9, tracing.asGraph(paths).edgeSet().size());
+	}
+
+	@Test
+	public void testTracingBudgets() {
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		// only the edges leaving vertex 2 count for the budget
+		List<IndexedPath> paths = tracing.getAllPaths(vertex(1), -1, true,
+				p -> p.getBudgetWeight(0) < 0.4, Long.MAX_VALUE, false,
+				e -> graph.getEdgeSource(e) == vertex(2) ? 0 : -1, 1);
+		assertEquals(2, paths.size());
+		assertTrue(containsPath(paths, "1->2", "2->4"));
+		assertTrue(containsPath(paths, "1->2", "2->3", "3->5", "5->6"));
+		for (IndexedPath path : paths) {
+			assertEquals(graph.getEdgeWeight(path.getEdges()[1]), path.getBudgetWeight(0), 0.0001);
+		}
+	}
+
+	@Test
+	public void testTracingMaxEdges() {
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		List<IndexedPath> paths = tracing.getAllPaths(vertex(1), -1, true,
+				p -> true, 4, false);
+		assertEquals(4, tracing.asGraph(paths).edgeSet().size());
+		assertTrue(tracing.isLimitReached());
+	}
+
+	@Test
+	public void testEdgesWithinWeights() {
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		List<IndexedPath> paths = tracing.getAllPaths(vertex(1), -1, true,
+				p -> p.getWeight() <= 0.7, Long.MAX_VALUE, false);
+		BitSet expected = new BitSet();
+		for (IndexedPath path : paths) {
+			for (int edge : path.getEdges()) {
+				expected.set(edge);
+			}
+		}
+
+		double[] weights = new double[graph.getVertexCount()];
+		BitSet edges = tracing.getEdgesWithinWeights(vertex(1), -1, 0.7,
+				e -> -1, new double[0], Long.MAX_VALUE, weights);
+		assertEquals(expected, edges);
+		assertEquals(7, edges.cardinality());
+		assertFalse(edges.get(edge("5->6")));
+
+		assertEquals(0.0, weights[vertex(1)], 0.0001);
+		assertEquals(0.25, weights[vertex(2)], 0.0001);
+		assertEquals(0.6, weights[vertex(3)], 0.0001);
+		assertEquals(0.7, weights[vertex(4)], 0.0001);
+		assertEquals(0.85, weights[vertex(5)], 0.0001);
+		assertEquals(0.95, weights[vertex(7)], 0.0001);
+		assertTrue(Double.isInfinite(weights[vertex(6)]));
+
+		assertArrayEquals(weights, tracing.getMinimumWeights(vertex(1), edges), 0.0001);
+	}
+
+	@Test
+	public void testEdgesWithinBudgets() {
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		// the long way round to 5 is the only one within the budget of the edges leaving 2
+		BitSet edges = tracing.getEdgesWithinWeights(vertex(1), -1, Double.POSITIVE_INFINITY,
+				e -> graph.getEdgeSource(e) == vertex(2) ? 0 : -1, new double[] {0.4}, Long.MAX_VALUE, null);
+		assertEquals(5, edges.cardinality());
+		assertTrue(edges.get(edge("1->2")));
+		assertTrue(edges.get(edge("2->3")));
+		assertTrue(edges.get(edge("2->4")));
+		assertTrue(edges.get(edge("3->5")));
+		assertTrue(edges.get(edge("5->6")));
+	}
+
+	@Test
+	public void testEdgesFromSources() {
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		int[] sourceVertices = {vertex(3), vertex(4)};
+		int[] sourceEdges = {-1, edge("4->7")};
+		BitSet expected = new BitSet();
+		double[][] weights = new double[2][graph.getVertexCount()];
+		for (int i = 0; i < 2; i++) {
+			expected.or(tracing.getEdgesWithinWeights(sourceVertices[i], sourceEdges[i], 0.5,
+					e -> -1, new double[0], Long.MAX_VALUE, weights[i]));
+		}
+
+		SourceDistances distances = new SourceDistances(2);
+		BitSet edges = tracing.getEdgesFromSources(sourceVertices, sourceEdges, 0.5,
+				Long.MAX_VALUE, distances);
+		assertEquals(expected, edges);
+		// the start edge of the second source excludes the other edges leaving 4
+		assertEquals(5, edges.cardinality());
+		assertFalse(edges.get(edge("4->5")));
+		for (int i = 0; i < 2; i++) {
+			for (int v = 0; v < graph.getVertexCount(); v++) {
+				assertEquals(weights[i][v], distances.get(i, v), 0.0001);
+			}
+		}
+		assertEquals(0.25, distances.get(1, vertex(7)), 0.0001);
+		assertTrue(Double.isInfinite(distances.get(1, vertex(5))));
+
+		// the limit applies to each source
+		expected.clear();
+		for (int i = 0; i < 2; i++) {
+			expected.or(tracing.getEdgesWithinWeights(sourceVertices[i], sourceEdges[i], 0.5,
+					e -> -1, new double[0], 2, weights[i]));
+		}
+		edges = tracing.getEdgesFromSources(sourceVertices, sourceEdges, 0.5, 2, distances);
+		assertTrue(tracing.isLimitReached());
+		assertEquals(expected, edges);
+		assertEquals(4, edges.cardinality());
+		assertEquals(0.25, distances.get(1, vertex(7)), 0.0001);
+	}
+
+	@Test
+	public void testChains() {
+		// a chain 1-2-3-4-5-6, with a branch 4-7
+		Graph<Idp<String, Object>, Idp<String, Object>> g = new DirectedMultigraph<>(null, null, true);
+		for (int i = 1; i <= 7; i++) {
+			g.addVertex(new Idp<>(String.valueOf(i)));
+		}
+		for (int i = 1; i < 6; i++) {
+			addEdge(g, i, i + 1, 1);
+		}
+		addEdge(g, 4, 7, 1);
+		DGraphSnapshot<String, Object, Object> chain = new DGraphSnapshot<>(g);
+		assertTrue(chain.isChainVertex(chain.getVertexIndex("3")));
+		assertFalse(chain.isChainVertex(chain.getVertexIndex("4")));
+		int source = chain.getVertexIndex("1");
+
+		// the maximum weight ends halfway the chain
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(chain);
+		double[] weights = new double[chain.getVertexCount()];
+		BitSet edges = tracing.getEdgesWithinWeights(source, -1, 2.5, e -> -1, new double[0], Long.MAX_VALUE, weights);
+		assertEquals(3, edges.cardinality());
+		assertTrue(edges.get(chain.getEdgeIndex("3->4")));
+		assertEquals(3.0, weights[chain.getVertexIndex("4")], 0.0001);
+		assertEquals(edges, tracing.getEdgesFromSources(new int[] {source}, new int[] {-1}, 2.5,
+				Long.MAX_VALUE, new SourceDistances(1)));
+
+		// a mask halfway the chain
+		tracing = new IndexedTracing<>(chain, v -> false, e -> e == chain.getEdgeIndex("3->4"));
+		edges = tracing.getEdgesWithinWeights(source, -1, Double.POSITIVE_INFINITY, e -> -1, new double[0],
+				Long.MAX_VALUE, null);
+		assertEquals(2, edges.cardinality());
+		assertEquals(edges, new Reachability<>(tracing, null).getEdges(new int[] {source}, new int[] {-1},
+				Long.MAX_VALUE));
+
+		// the limit ends halfway the chain, the edges are still those closest to the source
+		tracing = new IndexedTracing<>(chain);
+		edges = tracing.getEdgesWithinWeights(source, -1, Double.POSITIVE_INFINITY, e -> -1, new double[0], 4, null);
+		assertTrue(tracing.isLimitReached());
+		assertEquals(4, edges.cardinality());
+		assertFalse(edges.get(chain.getEdgeIndex("5->6")));
+		assertFalse(edges.get(chain.getEdgeIndex("4->7")));
+		Reachability<String, Object, Object> reachability = new Reachability<>(tracing, null);
+		assertEquals(edges, reachability.getEdges(new int[] {source}, new int[] {-1}, 4));
+		assertTrue(reachability.isLimitReached());
+	}
+
+	@Test
+	public void testChainClasses() {
+		// a chain 1-2-3-4-5, where the edges from 3 on are of another class
+		Graph<Idp<String, Object>, Idp<String, Object>> g = new DirectedMultigraph<>(null, null, true);
+		for (int i = 1; i <= 5; i++) {
+			g.addVertex(new Idp<>(String.valueOf(i)));
+		}
+		for (int i = 1; i < 5; i++) {
+			addEdge(g, i, i + 1, i);
+		}
+		DGraphSnapshot<String, Object, Object> plain = new DGraphSnapshot<>(g);
+		int first = plain.getEdgeIndex("1->2");
+		int third = plain.getEdgeIndex("3->4");
+		assertEquals(4, plain.getChainLength(first));
+		assertEquals(6.0, plain.getChainWeight(first, 3), 0.0001);
+		assertEquals(2, plain.getChainCount(first, 4, 0, 5.5));
+		DGraphSnapshot<String, Object, Object> reversed = plain.reversed();
+		assertEquals(3, reversed.getChainLength(third));
+		assertEquals(plain.getEdgeIndex("1->2"), reversed.getChainEdge(third, 2));
+		assertEquals(5.0, reversed.getChainWeight(third, 2), 0.0001);
+
+		DGraphSnapshot<String, Object, Object> chain = plain.withEdgeClasses(e -> e == first
+				|| e == plain.getEdgeIndex("2->3") ? 0 : 1);
+		assertEquals(2, chain.getChainLength(first));
+		assertEquals(2, chain.getChainLength(third));
+		assertEquals(2, chain.reversed().getChainLength(chain.getEdgeIndex("4->5")));
+
+		// the budget of the second class ends halfway its part of the chain
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(chain);
+		double[] weights = new double[chain.getVertexCount()];
+		BitSet edges = tracing.getEdgesWithinWeights(chain.getVertexIndex("1"), -1, Double.POSITIVE_INFINITY,
+				e -> e == first || e == chain.getEdgeIndex("2->3") ? -1 : 0, new double[] {2.5}, Long.MAX_VALUE,
+				weights);
+		assertEquals(3, edges.cardinality());
+		assertTrue(edges.get(third));
+		assertFalse(edges.get(chain.getEdgeIndex("4->5")));
+		assertEquals(6.0, weights[chain.getVertexIndex("4")], 0.0001);
+	}
+
+	@Test
+	public void testChainWeightAtMaximum() {
+		// a chain 1-2-3-4-5 of edges of 0.1, where 0.1 + 0.1 summed over the chain at once is above 0.2
+		Graph<Idp<String, Object>, Idp<String, Object>> g = new DirectedMultigraph<>(null, null, true);
+		for (int i = 1; i <= 5; i++) {
+			g.addVertex(new Idp<>(String.valueOf(i)));
+		}
+		for (int i = 1; i < 5; i++) {
+			addEdge(g, i, i + 1, 0.1);
+		}
+		DGraphSnapshot<String, Object, Object> chain = new DGraphSnapshot<>(g);
+		int second = chain.getEdgeIndex("2->3");
+		assertTrue(chain.getChainWeight(second, 2) > 0.2);
+
+		// the searches take the same edges as the enumerated paths
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(chain);
+		int source = chain.getVertexIndex("2");
+		BitSet expected = new BitSet();
+		for (IndexedPath path : tracing.getAllPaths(source, -1, true,
+				p -> DGraphSnapshot.isWithin(p.getWeight(), 0.2), Long.MAX_VALUE, false)) {
+			for (int edge : path.getEdges()) {
+				expected.set(edge);
+			}
+		}
+		assertEquals(3, expected.cardinality());
+		assertEquals(expected, tracing.getEdgesWithinWeights(source, -1, 0.2, e -> -1, new double[0],
+				Long.MAX_VALUE, null));
+		assertEquals(expected, tracing.getEdgesFromSources(new int[] {source}, new int[] {-1}, 0.2,
+				Long.MAX_VALUE, new SourceDistances(1)));
+	}
+
+	@Test
+	public void testDeadline() {
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		Deadline deadline = new Deadline(0);
+		tracing.setDeadline(deadline);
+		assertEquals(4, tracing.getAllPaths(vertex(1), -1, true, p -> true, Long.MAX_VALUE, false).size());
+		assertFalse(tracing.isDeadlineReached());
+
+		// the searches stop right away, with what they have
+		deadline.cancel();
+		List<IndexedPath> paths = tracing.getAllPaths(vertex(1), -1, true, p -> true, Long.MAX_VALUE, false);
+		assertTrue(tracing.isDeadlineReached());
+		assertEquals(1, paths.size());
+		assertEquals(1, paths.get(0).getLength());
+		BitSet edges = tracing.getEdgesWithinWeights(vertex(2), edge("2->4"), Double.POSITIVE_INFINITY,
+				e -> -1, new double[0], Long.MAX_VALUE, null);
+		assertTrue(tracing.isDeadlineReached());
+		assertEquals(1, edges.cardinality());
+		Reachability<String, Object, Object> reachability = new Reachability<>(tracing, null);
+		assertTrue(reachability.getEdges(new int[] {vertex(1)}, new int[] {-1}, Long.MAX_VALUE).isEmpty());
+		assertTrue(reachability.isDeadlineReached());
+
+		assertFalse(new Deadline(-1).isReached());
+	}
+
+	@Test
+	public void testMaxPathBytes() {
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		tracing.setMaxPathBytes(100 * IndexedPath.estimateBytes(0));
+		assertEquals(4, tracing.getAllPaths(vertex(1), -1, true, p -> true, Long.MAX_VALUE, false).size());
+		assertFalse(tracing.isPathBudgetReached());
+
+		// no room for any path beyond the first edges, which are returned as they are
+		tracing.setMaxPathBytes(0);
+		List<IndexedPath> paths = tracing.getAllPaths(vertex(1), -1, true, p -> true, Long.MAX_VALUE, false);
+		assertTrue(tracing.isPathBudgetReached());
+		assertFalse(tracing.isLimitReached());
+		for (IndexedPath path : paths) {
+			assertEquals(1, path.getLength());
+		}
+	}
+
+	@Test
+	public void testSimplePaths() {
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		List<IndexedPath> paths = tracing.getAllPaths(-1, edge("2->4"), true, p -> true, Long.MAX_VALUE, false);
+		assertEquals(3, paths.size());
+		assertTrue(containsPath(paths, "2->4", "4->5", "5->6"));
+		assertTrue(containsPath(paths, "2->4", "4->2"));
+		assertTrue(containsPath(paths, "2->4", "4->7", "7->1", "1->2"));
+
+		paths = tracing.getAllPaths(vertex(1), -1, true, p -> true, Long.MAX_VALUE, false);
+		assertEquals(4, paths.size());
+		for (IndexedPath path : paths) {
+			// only the end vertex can be passed before
+			int[] vertices = path.getVertices();
+			for (int i = 0; i < vertices.length - 1; i++) {
+				for (int j = i + 1; j < vertices.length - 1; j++) {
+					assertTrue(vertices[i] != vertices[j]);
+				}
+			}
+		}
+	}
+
+		private int vertex(int id) {
+		return graph.getVertexIndex(String.valueOf(id));
+	}
+
+	private int edge(String id) {
+		return graph.getEdgeIndex(id);
+	}
+
+	private boolean containsPath(List<IndexedPath> paths, String... edges) {
+		for (IndexedPath path : paths) {
+			int[] pathEdges = path.getEdges();
+			if (pathEdges.length == edges.length) {
+				boolean equal = true;
+				for (int i = 0; i < edges.length && equal; i++) {
+					equal = graph.getEdge(pathEdges[i]).getId().equals(edges[i]);
+				}
+				if (equal) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.geosparc.graph.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DirectedMultigraph;
+import org.junit.Test;
+
+import com.geosparc.graph.base.DGraphSnapshot;
+import com.geosparc.graph.base.Idp;
+
+public class ReachabilityIndexTest {
+
+	private DGraphSnapshot<String, Object, Object> graph;
+
+	public ReachabilityIndexTest() {
+		Graph<Idp<String, Object>, Idp<String, Object>> g = new DirectedMultigraph<>(null, null, true);
+		for (int i = 1; i <= 9; i++) {
+			g.addVertex(new Idp<>(String.valueOf(i)));
+		}
+		// a cycle 2-3-4 that merges with a branch from 5, then a split to 7 and 8
+		addEdge(g, 1, 2);
+		addEdge(g, 2, 3);
+		addEdge(g, 3, 4);
+		addEdge(g, 4, 2);
+		addEdge(g, 4, 6);
+		addEdge(g, 5, 6);
+		addEdge(g, 6, 7);
+		addEdge(g, 6, 8);
+		addEdge(g, 9, 5);
+		graph = new DGraphSnapshot<>(g);
+	}
+
+	private static void addEdge(Graph<Idp<String, Object>, Idp<String, Object>> g, int source, int target) {
+		g.addEdge(new Idp<>(String.valueOf(source)), new Idp<>(String.valueOf(target)),
+				new Idp<>(source + "->" + target));
+	}
+
+	@Test
+	public void testComponents() {
+		ReachabilityIndex index = new ReachabilityIndex(graph);
+		assertEquals(7, index.getComponentCount());
+		assertEquals(index.getComponent(vertex(2)), index.getComponent(vertex(4)));
+		assertTrue(index.getComponent(vertex(6)) < index.getComponent(vertex(4)));
+	}
+
+	@Test
+	public void testReachable() {
+		ReachabilityIndex index = new ReachabilityIndex(graph);
+		assertTrue(index.isReachable(vertex(1), vertex(7)));
+		assertTrue(index.isReachable(vertex(9), vertex(8)));
+		assertTrue(index.isReachable(vertex(4), vertex(3)));
+		assertTrue(index.isReachable(vertex(5), vertex(5)));
+		assertFalse(index.isReachable(vertex(7), vertex(1)));
+		assertFalse(index.isReachable(vertex(7), vertex(8)));
+		assertFalse(index.isReachable(vertex(5), vertex(2)));
+		assertFalse(index.isReachable(vertex(1), vertex(9)));
+
+		// the same as a search of the graph
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		for (int source = 0; source < graph.getVertexCount(); source++) {
+			double[] weights = tracing.getMinimumWeights(source, new Reachability<>(tracing, null)
+					.getEdges(new int[] {source}, new int[] {-1}, Long.MAX_VALUE));
+			for (int target = 0; target < graph.getVertexCount(); target++) {
+				assertEquals(!Double.isInfinite(weights[target]), index.isReachable(source, target));
+			}
+		}
+	}
+
+	private int vertex(int id) {
+		return graph.getVertexIndex(String.valueOf(id));
+	}
+
+}
@@ -0,0 +1,117 @@
+package com.geosparc.graph.alg;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+
+import org.jgrapht.Graph;
+import org.jgrapht.graph.DirectedMultigraph;
+import org.junit.Test;
+
+import com.geosparc.graph.base.DGraphSnapshot;
+import com.geosparc.graph.base.Idp;
+
+public class ReachabilityTest {
+
+	private static DGraphSnapshot<String, Object, Object> createGraph(int[][] edges) {
+		Graph<Idp<String, Object>, Idp<String, Object>> g = new DirectedMultigraph<>(null, null, true);
+		for (int[] edge : edges) {
+			Idp<String, Object> source = new Idp<>(String.valueOf(edge[0]));
+			Idp<String, Object> target = new Idp<>(String.valueOf(edge[1]));
+			g.addVertex(source);
+			g.addVertex(target);
+			g.addEdge(source, target, new Idp<>(edge[0] + "->" + edge[1]));
+		}
+		return new DGraphSnapshot<>(g);
+	}
+
+	@Test
+	public void testReachability() {
+		DGraphSnapshot<String, Object, Object> graph = createGraph(new int[][] {
+			{1, 2}, {2, 3}, {2, 4}, {3, 5}, {4, 5}, {5, 6}, {4, 2}, {4, 7}, {7, 1}, {8, 1}});
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph);
+		Reachability<String, Object, Object> reachability = new Reachability<>(tracing, null);
+
+		BitSet edges = reachability.getEdges(new int[] {graph.getVertexIndex("1")}, new int[] {-1}, Long.MAX_VALUE);
+		assertFalse(reachability.isLimitReached());
+		assertEquals(9, edges.cardinality());
+		assertFalse(edges.get(graph.getEdgeIndex("8->1")));
+
+		// starting from an edge, its source is not passed again
+		int sourceEdge = graph.getEdgeIndex("4->7");
+		edges = reachability.getEdges(new int[] {graph.getEdgeSource(sourceEdge)}, new int[] {sourceEdge},
+				Long.MAX_VALUE);
+		assertEquals(tracing.getEdgesWithinWeights(graph.getEdgeSource(sourceEdge), sourceEdge,
+				Double.POSITIVE_INFINITY, e -> -1, new double[0], Long.MAX_VALUE, null), edges);
+		assertTrue(edges.get(graph.getEdgeIndex("2->4")));
+		assertFalse(edges.get(graph.getEdgeIndex("4->5")));
+
+		// the chain over 3 counts for the level it starts in
+		edges = reachability.getEdges(new int[] {graph.getVertexIndex("1")}, new int[] {-1}, 3);
+		assertTrue(reachability.isLimitReached());
+		assertEquals(3, edges.cardinality());
+		assertTrue(edges.get(graph.getEdgeIndex("1->2")));
+		assertTrue(edges.get(graph.getEdgeIndex("2->3")));
+		assertTrue(edges.get(graph.getEdgeIndex("3->5")));
+
+		// the limit applies to each source
+		edges = reachability.getEdges(new int[] {graph.getVertexIndex("3"), graph.getVertexIndex("7")},
+				new int[] {-1, -1}, 2);
+		assertTrue(reachability.isLimitReached());
+		assertEquals(4, edges.cardinality());
+		assertTrue(edges.get(graph.getEdgeIndex("5->6")));
+		assertTrue(edges.get(graph.getEdgeIndex("1->2")));
+
+		// each source on its own, so that its distances only pass its own edges
+		BitSet[] sourceEdgeSets = reachability.getEdgesPerSource(new int[] {graph.getVertexIndex("3"),
+				graph.getVertexIndex("7")}, new int[] {-1, -1}, 2);
+		assertTrue(reachability.isLimitReached());
+		assertEquals(2, sourceEdgeSets[0].cardinality());
+		assertTrue(sourceEdgeSets[0].get(graph.getEdgeIndex("5->6")));
+		assertEquals(2, sourceEdgeSets[1].cardinality());
+		assertTrue(sourceEdgeSets[1].get(graph.getEdgeIndex("1->2")));
+		BitSet union = (BitSet) sourceEdgeSets[0].clone();
+		union.or(sourceEdgeSets[1]);
+		assertEquals(edges, union);
+	}
+
+	@Test
+	public void testParallelReachability() {
+		// a binary tree, with levels wider than the parallel threshold
+		int[][] tree = new int[4094][];
+		for (int i = 0; i < tree.length; i++) {
+			tree[i] = new int[] {i / 2, i + 1};
+		}
+		DGraphSnapshot<String, Object, Object> graph = createGraph(tree);
+		// leave out one subtree
+		IndexedTracing<String, Object, Object> tracing = new IndexedTracing<>(graph,
+				v -> false, e -> e == graph.getEdgeIndex("1->3"));
+		int[] sourceVertices = {graph.getVertexIndex("0")};
+		int[] sourceEdges = {-1};
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			Reachability<String, Object, Object> sequential = new Reachability<>(tracing, null);
+			Reachability<String, Object, Object> parallel = new Reachability<>(tracing, pool);
+
+			BitSet edges = parallel.getEdges(sourceVertices, sourceEdges, Long.MAX_VALUE);
+			assertEquals(sequential.getEdges(sourceVertices, sourceEdges, Long.MAX_VALUE), edges);
+			assertEquals(tracing.getEdgesWithinWeights(sourceVertices[0], -1, Double.POSITIVE_INFINITY,
+					e -> -1, new double[0], Long.MAX_VALUE, null), edges);
+			assertFalse(edges.get(graph.getEdgeIndex("1->3")));
+			assertFalse(edges.get(graph.getEdgeIndex("3->7")));
+
+			// the same edges when the limit is reached halfway a level
+			BitSet limited = parallel.getEdges(sourceVertices, sourceEdges, 1500);
+			assertTrue(parallel.isLimitReached());
+			assertEquals(1500, limited.cardinality());
+			assertEquals(sequential.getEdges(sourceVertices, sourceEdges, 1500), limited);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+}
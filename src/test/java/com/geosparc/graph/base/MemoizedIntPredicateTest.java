@@ -0,0 +1,38 @@
+package com.geosparc.graph.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class MemoizedIntPredicateTest {
+
+	@Test
+	public void testMemoized() {
+		int[] tests = new int[100];
+		MemoizedIntPredicate predicate = new MemoizedIntPredicate(i -> {
+			tests[i]++;
+			return i % 3 == 0;
+		}, 100);
+		for (int round = 0; round < 3; round++) {
+			for (int i = 0; i < 100; i++) {
+				assertEquals(i % 3 == 0, predicate.test(i));
+			}
+		}
+		for (int i = 0; i < 100; i++) {
+			assertEquals(1, tests[i]);
+		}
+	}
+
+	@Test
+	public void testParallel() {
+		MemoizedIntPredicate predicate = new MemoizedIntPredicate(i -> i % 7 == 1, 100000);
+		assertTrue(IntStream.range(0, 400000).parallel().allMatch(i -> predicate.test(i / 4) == (i / 4 % 7 == 1)));
+		assertTrue(predicate.test(99996));
+		assertFalse(predicate.test(99999));
+	}
+
+}
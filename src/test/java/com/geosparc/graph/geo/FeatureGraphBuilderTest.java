@@ -15,6 +15,7 @@ import org.opengis.filter.FilterFactory2;
 
 import com.geosparc.graph.base.DGraph;
 import com.geosparc.graph.base.Idp;
+import com.geosparc.graph.geo.GlobalId.Kind;
 import com.geosparc.gte.TestData;
 import com.geosparc.gte.config.ConnectionConfig.ConnectionType;
 
@@ -73,6 +74,8 @@ public class FeatureGraphBuilderTest {
 		Idp<GlobalId, SimpleFeature> vertex = graph.getEdgeTarget(edgeA);
 		assertNotNull(vertex.getData());
 		assertEquals("test-generated-vertex", vertex.getData().getType().getName().getLocalPart());
+		assertEquals(Kind.GENERATED_VERTEX, vertex.getId().getKind());
+		assertEquals(Kind.DATA, edgeA.getId().getKind());
 		assertNotNull(vertex.getData().getDefaultGeometry());
 		assertEquals(new Coordinate(3.0, 3.0),
 				((Geometry) vertex.getData().getDefaultGeometry()).getCoordinate());
@@ -189,14 +192,17 @@ public class FeatureGraphBuilderTest {
 		assertEquals(1, set.size());
 		Idp<GlobalId, SimpleFeature> edge = set.iterator().next();
 		assertEquals("testL.3-c", edge.getId().getIdentifier());
+		assertEquals(Kind.CONNECTION_EDGE, edge.getId().getKind());
 		assertEquals(new Coordinate(2.0, 6.0),
 				((Geometry) edge.getData().getDefaultGeometry()).getCoordinate());
 		assertEquals(2.82913, graph.getEdgeWeight(edge), 0.00001);
 		vertex = graph.getEdgeTarget(edge);
+		assertEquals(Kind.CONNECTION_VERTEX, vertex.getId().getKind());
 		set = graph.outgoingEdgesOf(vertex);
 		assertEquals(1, set.size());
 		edge = set.iterator().next();
 		assertEquals("testL.3-c+", edge.getId().getIdentifier());
+		assertEquals(Kind.PARTIAL_EDGE, edge.getId().getKind());
 		assertEquals(4.00,
 				((Geometry) edge.getData().getDefaultGeometry()).getCoordinate().getX(),
 				0.01);
@@ -206,6 +212,7 @@ public class FeatureGraphBuilderTest {
 		vertex = graph.getEdgeTarget(edge);
 		assertNotNull(vertex.getData());
 		assertEquals("testG-generated-vertex", vertex.getData().getType().getName().getLocalPart());
+		assertEquals(Kind.GENERATED_VERTEX, vertex.getId().getKind());
 		assertNotNull(vertex.getData().getDefaultGeometry());
 		assertEquals(new Coordinate(5.0, 5.0),
 				((Geometry) vertex.getData().getDefaultGeometry()).getCoordinate());
@@ -0,0 +1,105 @@
+package com.geosparc.graph.geo;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.locationtech.jts.geom.Geometry;
+import org.opengis.feature.simple.SimpleFeature;
+
+import com.geosparc.graph.base.DGraphSnapshot;
+
+public class FeatureGraphSnapshotFileTest {
+
+	@Rule
+	public TemporaryFolder testFolder = new TemporaryFolder();
+
+	@Test
+	public void testWriteRead() throws Exception {
+		FeatureGraphSnapshot snapshot = new FeatureGraphSnapshot(new FeatureGraphTracerTest().createGraph(),
+				Collections.singletonMap("w", Collections.singletonMap("testL", "from")));
+
+		File file = new File(testFolder.getRoot(), "graph.snapshot");
+		new FeatureGraphSnapshotFile(file).write(snapshot, 42);
+		assertEquals(42, new FeatureGraphSnapshotFile(file).readSerial());
+
+		FeatureGraphSnapshotFile snapshotFile = new FeatureGraphSnapshotFile(file);
+		FeatureGraphSnapshot result = snapshotFile.read();
+		assertEquals(42, snapshotFile.getSerial());
+
+		assertSnapshotEquals(snapshot, result);
+	}
+
+	@Test
+	public void testMap() throws Exception {
+		FeatureGraphSnapshot snapshot = new FeatureGraphSnapshot(new FeatureGraphTracerTest().createGraph());
+
+		File file = new File(testFolder.getRoot(), "graph.snapshot");
+		new FeatureGraphSnapshotFile(file).write(snapshot, 42);
+
+		FeatureGraphSnapshotFile snapshotFile = new FeatureGraphSnapshotFile(file);
+		FeatureGraphSnapshot result = snapshotFile.map();
+		assertEquals(42, snapshotFile.getSerial());
+		assertSnapshotEquals(snapshot, result);
+
+		// publishing a new snapshot does not affect the mapped one
+		new FeatureGraphSnapshotFile(file).write(snapshot, 43);
+		assertEquals(43, new FeatureGraphSnapshotFile(file).readSerial());
+		assertSnapshotEquals(snapshot, result);
+	}
+
+	private void assertSnapshotEquals(FeatureGraphSnapshot snapshot, FeatureGraphSnapshot result) {
+		DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> graph = snapshot.getGraph();
+		DGraphSnapshot<GlobalId, SimpleFeature, SimpleFeature> resultGraph = result.getGraph();
+		assertEquals(graph.getVertexCount(), resultGraph.getVertexCount());
+		assertEquals(graph.getEdgeCount(), resultGraph.getEdgeCount());
+		assertEquals(snapshot.getNetworkCount(), result.getNetworkCount());
+
+		for (int v = 0; v < graph.getVertexCount(); v++) {
+			assertEquals(graph.getVertex(v), resultGraph.getVertex(v));
+			assertEquals(snapshot.getVertexIds().getNetworkOrdinal(v), result.getVertexIds().getNetworkOrdinal(v));
+			assertEquals(snapshot.getVertexIds().getKind(v), result.getVertexIds().getKind(v));
+			assertFeatureEquals(snapshot.getVertex(v).getData(), result.getVertex(v).getData());
+		}
+		for (int e = 0; e < graph.getEdgeCount(); e++) {
+			assertEquals(graph.getEdge(e), resultGraph.getEdge(e));
+			assertEquals(graph.getEdgeSource(e), resultGraph.getEdgeSource(e));
+			assertEquals(graph.getEdgeTarget(e), resultGraph.getEdgeTarget(e));
+			assertEquals(graph.getEdgeWeight(e), resultGraph.getEdgeWeight(e), 0.0);
+			assertEquals(snapshot.getEdgeIds().getKind(e), result.getEdgeIds().getKind(e));
+			assertFeatureEquals(snapshot.getEdge(e).getData(), result.getEdge(e).getData());
+		}
+
+		assertEquals(graph.getVertexIndex(new GlobalId("testL", "2")),
+				resultGraph.getVertexIndex(new GlobalId("testL", "2")));
+
+		assertEquals(snapshot.getWeightNames(), result.getWeightNames());
+		for (String weight : snapshot.getWeightNames()) {
+			assertArrayEquals(snapshot.getWeights(weight), result.getWeights(weight), 0.0);
+		}
+	}
+
+	private void assertFeatureEquals(SimpleFeature expected, SimpleFeature actual) {
+		if (expected == null) {
+			assertEquals(null, actual);
+			return;
+		}
+		assertEquals(expected.getID(), actual.getID());
+		assertEquals(expected.getFeatureType().getTypeName(), actual.getFeatureType().getTypeName());
+		assertEquals(expected.getAttributeCount(), actual.getAttributeCount());
+		for (int i = 0; i < expected.getAttributeCount(); i++) {
+			if (expected.getAttribute(i) instanceof Geometry) {
+				assertTrue(((Geometry) expected.getAttribute(i)).equalsExact((Geometry) actual.getAttribute(i)));
+			} else {
+				assertEquals(expected.getAttribute(i), actual.getAttribute(i));
+			}
+		}
+	}
+
+}
@@ -12,7 +12,10 @@ import org.opengis.feature.simple.SimpleFeature;
 import org.opengis.filter.FilterFactory2;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
 
 import static org.junit.Assert.*;
@@ -138,6 +141,67 @@ public class FeatureGraphTracerTest {
 				tracer.getDistance(source, new GlobalId("testL", "3")), 0.0001);
 	}
 	
+	@Test
+	public void testFeatureGraphTracerNetworkDistanceEnumerated() throws Exception {
+		DGraph<GlobalId, SimpleFeature, SimpleFeature> graph
+			= createGraph();
+		
+		GlobalId source = new GlobalId("testL", "1");
+		FeatureGraphTracer tracer = new FeatureGraphTracer(graph, 
+				source, false);
+
+		tracer.addNetwork("testL");
+		tracer.addNetwork("testG");
+		tracer.setMaximumDistance("testL", 4.0);
+		tracer.setEnumeratePaths(true);
+		
+		Graph<Idp<GlobalId, SimpleFeature>, 
+			Idp<GlobalId, SimpleFeature>> trace = tracer.trace();
+		
+		assertEquals(2, trace.edgeSet().size());
+		assertTrue(trace.containsEdge(graph.getEdgeById(new GlobalId("testL","12"))));
+		assertTrue(trace.containsEdge(graph.getEdgeById(new GlobalId("testL","13"))));
+		assertEquals(7.0710678118654755,
+				tracer.getDistance(source, new GlobalId("testL", "3")), 0.0001);
+	}
+	
+	@Test
+	public void testFeatureGraphTracerWeight() throws Exception {
+		DGraph<GlobalId, SimpleFeature, SimpleFeature> graph
+			= createGraph();
+		// any numeric attribute will do as weight
+		FeatureGraphSnapshot snapshot = new FeatureGraphSnapshot(graph,
+				Collections.singletonMap("w", Collections.singletonMap("testL", "from")));
+		
+		GlobalId source = new GlobalId("testL", "1");
+		FeatureGraphTracer tracer = new FeatureGraphTracer(snapshot, 
+				Collections.singletonList(source), false, null, false);
+
+		tracer.addNetwork("testL");
+		tracer.addNetwork("testG");
+		tracer.setWeight("w");
+		tracer.setMaximumDistance("testL", 0.5);
+		
+		Graph<Idp<GlobalId, SimpleFeature>, 
+			Idp<GlobalId, SimpleFeature>> trace = tracer.trace();
+		
+		assertEquals(2, trace.edgeSet().size());
+		assertTrue(trace.containsEdge(graph.getEdgeById(new GlobalId("testL","12"))));
+		assertTrue(trace.containsEdge(graph.getEdgeById(new GlobalId("testL","13"))));
+		
+		assertEquals(1.0, tracer.getDistance(source, new GlobalId("testL", "2")), 0.0001);
+		assertEquals(1.0, tracer.getDistance(source, new GlobalId("testL", "3")), 0.0001);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFeatureGraphTracerUnknownWeight() throws Exception {
+		FeatureGraphTracer tracer = new FeatureGraphTracer(createGraph(), 
+				new GlobalId("testL", "1"), false);
+		tracer.addNetwork("testL");
+		tracer.setWeight("unknown");
+		tracer.trace();
+	}
+	
 	@Test
 	public void testFeatureGraphTracerTwoStartNodes() throws Exception {
 		DGraph<GlobalId, SimpleFeature, SimpleFeature> graph
@@ -173,6 +237,48 @@ public class FeatureGraphTracerTest {
 				tracer.getDistance(source2, new GlobalId("testL", "3")), 0.0001);
 	}
 	
+	@Test
+	public void testFeatureGraphTracerTwoStartNodesParallel() throws Exception {
+		DGraph<GlobalId, SimpleFeature, SimpleFeature> graph
+			= createGraph();
+		
+		GlobalId source1 = new GlobalId("testL", "1");
+		GlobalId source2 = new GlobalId("testL", "2");
+		List<GlobalId> startNodes = Arrays.asList(source1, source2);
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			for (boolean enumeratePaths : new boolean[] {false, true}) {
+				// with a distance per network, each start node is traced on its own
+				FeatureGraphTracer sequential = new FeatureGraphTracer(graph, startNodes, false);
+				FeatureGraphTracer parallel = new FeatureGraphTracer(graph, startNodes, false);
+				parallel.setPool(pool);
+				for (FeatureGraphTracer tracer : Arrays.asList(sequential, parallel)) {
+					tracer.addNetwork("testL");
+					tracer.addNetwork("testG");
+					tracer.setMaximumDistance("testL", 100.0);
+					tracer.setEnumeratePaths(enumeratePaths);
+				}
+				
+				Graph<Idp<GlobalId, SimpleFeature>, 
+					Idp<GlobalId, SimpleFeature>> expected = sequential.trace();
+				Graph<Idp<GlobalId, SimpleFeature>, 
+					Idp<GlobalId, SimpleFeature>> trace = parallel.trace();
+				
+				assertEquals(5, trace.edgeSet().size());
+				assertEquals(expected.edgeSet(), trace.edgeSet());
+				assertEquals(sequential.orderEdges(expected), parallel.orderEdges(trace));
+				for (Idp<GlobalId, SimpleFeature> vertex : expected.vertexSet()) {
+					assertEquals(sequential.getDistance(source1, vertex), parallel.getDistance(source1, vertex));
+					assertEquals(sequential.getDistance(source2, vertex), parallel.getDistance(source2, vertex));
+				}
+				assertEquals(2.8284271247461903,
+						parallel.getDistance(source2, new GlobalId("testL", "3")), 0.0001);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
 	@Test
 	public void testFeatureGraphTracerReverse() throws Exception {
 		DGraph<GlobalId, SimpleFeature, SimpleFeature> graph
@@ -373,6 +479,31 @@ public class FeatureGraphTracerTest {
 	}
 
 
+	@Test
+	public void testFeatureGraphTraceFilterMaskCache() throws Exception {
+		DGraph<GlobalId, SimpleFeature, SimpleFeature> graph = createGraph();
+		FeatureGraphSnapshot snapshot = new FeatureGraphSnapshot(graph);
+		snapshot.setFilterMaskCacheSize(1024 * 1024);
+
+		for (int i = 0; i < 3; i++) {
+			// the first trace makes no masks, the second makes them, the third uses them
+			assertEquals(i < 2 ? 0 : 2, snapshot.getFilterMaskCache().size());
+			FeatureGraphTracer tracer = new FeatureGraphTracer(snapshot,
+					Collections.singletonList(new GlobalId("testL", "1")), false, null, false);
+			tracer.addNetwork("testL");
+			tracer.addNetwork("testG");
+			tracer.setEdgeFilter("testL", fac.notEqual(fac.property("code"), fac.literal("x")));
+			tracer.setVertexFilter("testG", fac.notEqual(fac.property("code"), fac.literal("x")));
+
+			Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> trace = tracer.trace();
+
+			assertTrue(trace.containsEdge(graph.getEdgeById(new GlobalId("testL","12"))));
+			assertFalse(trace.containsEdge(graph.getEdgeById(new GlobalId("testL","23"))));
+			assertTrue(trace.containsEdge(graph.getEdgeById(new GlobalId("testG","testL.3-c", Type.GENERATED))));
+		}
+		assertEquals(2, snapshot.getFilterMaskCache().size());
+	}
+
 	@Test
 	public void testFeatureGraphTracerCycle() throws Exception {
 		DGraph<GlobalId, SimpleFeature, SimpleFeature> graph = createGraph();
@@ -424,4 +555,62 @@ public class FeatureGraphTracerTest {
 		System.out.println(trace.edgeSet().stream().map(e -> e.toString()).collect(Collectors.joining(", ")));
 		assertEquals(191, trace.edgeSet().size());
 	}
+
+	@Test
+	public void testFeatureGraphTracerDistanceEnumerated() throws Exception {
+		DGraph<GlobalId, SimpleFeature, SimpleFeature> graph = createGraph();
+		GlobalId source = new GlobalId("testComplexCycle", "a");
+
+		FeatureGraphTracer tracer = new FeatureGraphTracer(graph, source, false);
+		tracer.addNetwork("testComplexCycle");
+		tracer.setMaximumDistance(3.0);
+		Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> trace = tracer.trace();
+
+		FeatureGraphTracer enumerating = new FeatureGraphTracer(graph, source, false);
+		enumerating.addNetwork("testComplexCycle");
+		enumerating.setMaximumDistance(3.0);
+		enumerating.setEnumeratePaths(true);
+		Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> enumerated = enumerating.trace();
+
+		assertEquals(enumerated.edgeSet(), trace.edgeSet());
+		for (Idp<GlobalId, SimpleFeature> vertex : enumerated.vertexSet()) {
+			assertEquals(enumerating.getDistance(source, vertex), tracer.getDistance(source, vertex));
+		}
+	}
+
+	@Test
+	public void testFeatureGraphTracerMaxPathBytes() throws Exception {
+		DGraph<GlobalId, SimpleFeature, SimpleFeature> graph = createGraph();
+		GlobalId source = new GlobalId("testComplexCycle", "a");
+
+		FeatureGraphTracer enumerating = new FeatureGraphTracer(graph, source, false);
+		enumerating.addNetwork("testComplexCycle");
+		enumerating.setEnumeratePaths(true);
+		Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> enumerated = enumerating.trace();
+		assertFalse(enumerating.isPathsAbandoned());
+
+		// too little memory for the paths, the trace is done without them
+		FeatureGraphTracer tracer = new FeatureGraphTracer(graph, source, false);
+		tracer.addNetwork("testComplexCycle");
+		tracer.setEnumeratePaths(true);
+		tracer.setMaxPathBytes(0);
+		Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> trace = tracer.trace();
+		assertTrue(tracer.isPathsAbandoned());
+		assertFalse(tracer.isLimitReached());
+
+		assertEquals(enumerated.edgeSet(), trace.edgeSet());
+	}
+
+	@Test(timeout = 10000)
+	public void testFeatureGraphTracerLargeRasterDistance() throws Exception {
+		DGraph<GlobalId, SimpleFeature, SimpleFeature> graph = createGraph();
+
+		FeatureGraphTracer tracer = new FeatureGraphTracer(graph, new GlobalId("testLargeRaster", "a"), false);
+		tracer.addNetwork("testLargeRaster");
+		tracer.setMaximumDistance("testLargeRaster", 1000.0);
+
+		Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> trace = tracer.trace();
+
+		assertEquals(191, trace.edgeSet().size());
+	}
 }
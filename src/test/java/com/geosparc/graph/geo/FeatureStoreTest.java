@@ -0,0 +1,160 @@
+package com.geosparc.graph.geo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.filter.text.cql2.CQLException;
+import org.geotools.filter.text.ecql.ECQL;
+import org.junit.Test;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LineString;
+import org.locationtech.jts.geom.Point;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+import org.opengis.filter.Filter;
+
+public class FeatureStoreTest {
+
+	private static final GeometryFactory geomFac = new GeometryFactory();
+
+	@Test
+	public void testFeatureStore() {
+		SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+		typeBuilder.setName("riool");
+		typeBuilder.add("geom", Point.class);
+		typeBuilder.add("length", Double.class);
+		typeBuilder.add("level", Integer.class);
+		typeBuilder.add("str_type", String.class);
+		SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+		SimpleFeature[] features = new SimpleFeature[3];
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+		builder.addAll(new Object[] {geomFac.createPoint(new Coordinate(1, 2)), 1.5, 3, "r_streng"});
+		features[0] = builder.buildFeature("riool.1");
+		builder.addAll(new Object[] {geomFac.createPoint(new Coordinate(3, 4)), null, null, null});
+		features[2] = builder.buildFeature("riool.3");
+
+		FeatureStore store = new FeatureStore(3, i -> features[i]);
+		assertEquals(3, store.size());
+
+		SimpleFeature feature = store.getFeature(0);
+		assertEquals("riool.1", feature.getID());
+		assertEquals(type, feature.getFeatureType());
+		assertEquals(1.5, feature.getAttribute("length"));
+		assertEquals(3, feature.getAttribute("level"));
+		assertEquals("r_streng", feature.getAttribute("str_type"));
+		assertEquals(features[0].getDefaultGeometry(), feature.getDefaultGeometry());
+
+		assertNull(store.getFeature(1));
+		assertNull(store.getFeatureType(1));
+
+		assertEquals("riool.3", store.getFeature(2).getID());
+		assertNull(store.getFeature(2).getAttribute("length"));
+		assertNull(store.getAttribute(2, "str_type"));
+		assertEquals("r_streng", store.getAttribute(0, "str_type"));
+		assertNull(store.getAttribute(0, "unknown"));
+	}
+
+	@Test
+	public void testGeometries() {
+		SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+		typeBuilder.setName("vha");
+		typeBuilder.add("geom", LineString.class);
+		SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+		LineString line = geomFac.createLineString(new Coordinate[] {
+				new Coordinate(0, 0, 5), new Coordinate(10, 0, 4)});
+		SimpleFeature[] features = new SimpleFeature[2];
+		SimpleFeatureBuilder builder = new SimpleFeatureBuilder(type);
+		builder.add(line);
+		features[0] = builder.buildFeature("vha.1");
+		builder.add(null);
+		features[1] = builder.buildFeature("vha.2");
+
+		FeatureStore store = new FeatureStore(2, i -> features[i]);
+		LineString result = (LineString) store.getFeature(0).getDefaultGeometry();
+		assertTrue(line.equalsExact(result));
+		assertEquals(4, result.getCoordinateN(1).z, 0.0);
+		assertEquals(10, result.getLength(), 0.0);
+		assertNull(store.getFeature(1).getDefaultGeometry());
+	}
+
+	@Test
+	public void testPrepare() throws CQLException {
+		SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+		typeBuilder.setName("riool");
+		typeBuilder.add("geom", Point.class);
+		typeBuilder.add("str_type", String.class);
+		SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+		SimpleFeature[] features = {
+				SimpleFeatureBuilder.build(type, new Object[] {geomFac.createPoint(new Coordinate(1, 2)), "r_streng"},
+						"riool.1"),
+				SimpleFeatureBuilder.build(type, new Object[] {geomFac.createPoint(new Coordinate(3, 4)), null},
+						"riool.2")};
+		FeatureStore store = new FeatureStore(features.length, i -> features[i]);
+
+		// an attribute, the geometry, the feature id and an unknown attribute
+		String[] filters = {"str_type = 'r_streng'", "BBOX(geom, 0, 0, 2, 3)", "IN ('riool.2')", "unknown IS NULL"};
+		for (String cql : filters) {
+			Filter filter = ECQL.toFilter(cql);
+			IntPredicate single = store.prepare(filter);
+			for (int i = 0; i < features.length; i++) {
+				assertEquals(cql, filter.evaluate(features[i]), single.test(i));
+			}
+		}
+	}
+
+	@Test
+	public void testEvaluate() throws CQLException {
+		SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+		typeBuilder.setName("riool");
+		typeBuilder.add("length", Double.class);
+		typeBuilder.add("level", Integer.class);
+		typeBuilder.add("str_type", String.class);
+		SimpleFeatureType type = typeBuilder.buildFeatureType();
+
+		Object[][] values = {{1.5, 3, "r_streng"}, {0.0, -1, "k_streng"}, {null, null, null},
+				{12.0, 3, "R_STRENG"}, {-0.0, 10, "r_streng"}, {Double.NaN, 0, ""}};
+		SimpleFeature[] features = new SimpleFeature[values.length + 1];
+		for (int i = 0; i < values.length; i++) {
+			features[i] = SimpleFeatureBuilder.build(type, values[i], "riool." + i);
+		}
+		FeatureStore store = new FeatureStore(features.length, i -> features[i]);
+		BitSet elements = new BitSet();
+		elements.set(0, features.length);
+
+		String[] filters = {"length > 1", "length <= 0", "length = 0", "0 < length", "level <> 3",
+				"level >= 3 AND length < 10", "NOT (level = 3 OR str_type = 'k_streng')",
+				"str_type IN ('r_streng', 'k_streng')", "str_type LIKE 'r%'", "length IS NULL",
+				"str_type IS NOT NULL", "level = 2.5", "length > '1'", "strToUpperCase(str_type) = 'R_STRENG'",
+				"INCLUDE", "EXCLUDE"};
+		for (String cql : filters) {
+			Filter filter = ECQL.toFilter(cql);
+			BitSet expected = new BitSet();
+			for (int i = 0; i < features.length; i++) {
+				if (filter.evaluate(features[i])) {
+					expected.set(i);
+				}
+			}
+			assertEquals(cql, expected, store.evaluate(filter, elements));
+			IntPredicate single = store.prepare(filter);
+			for (int i = 0; i < features.length; i++) {
+				assertEquals(cql, expected.get(i), single.test(i));
+			}
+		}
+
+		// only the selected elements are evaluated
+		elements.clear(0);
+		assertFalse(store.evaluate(ECQL.toFilter("level = 3"), elements).get(0));
+	}
+
+}
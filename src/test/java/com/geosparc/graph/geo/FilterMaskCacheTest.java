@@ -0,0 +1,47 @@
+package com.geosparc.graph.geo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+public class FilterMaskCacheTest {
+
+	@Test
+	public void testCache() {
+		// room for two masks of 1024 bits
+		FilterMaskCache cache = new FilterMaskCache(256);
+		// a filter used once has no mask
+		assertNull(cache.getMask(false, "riool", "str_type = 'r_streng'", () -> new BitSet(1024)));
+		assertEquals(0, cache.size());
+		BitSet first = cache.getMask(false, "riool", "str_type = 'r_streng'", () -> new BitSet(1024));
+		assertNotNull(first);
+		assertSame(first, cache.getMask(false, "riool", "str_type = 'r_streng'", () -> new BitSet(1024)));
+		// the same filter on nodes, or on another network, is another mask
+		assertNull(cache.getMask(true, "riool", "str_type = 'r_streng'", () -> new BitSet(1024)));
+		BitSet nodes = cache.getMask(true, "riool", "str_type = 'r_streng'", () -> new BitSet(1024));
+		assertNotSame(first, nodes);
+		assertEquals(2, cache.size());
+		assertEquals(256, cache.getBytes());
+
+		// the least recently used mask is evicted
+		cache.getMask(false, "riool", "str_type = 'r_streng'", () -> new BitSet(1024));
+		cache.getMask(false, "vha", "str_type = 'r_streng'", () -> new BitSet(1024));
+		cache.getMask(false, "vha", "str_type = 'r_streng'", () -> new BitSet(1024));
+		assertEquals(2, cache.size());
+		assertSame(first, cache.getMask(false, "riool", "str_type = 'r_streng'", () -> new BitSet(1024)));
+		assertNotSame(nodes, cache.getMask(true, "riool", "str_type = 'r_streng'", () -> new BitSet(1024)));
+
+		// a mask larger than the cache is not kept
+		cache.getMask(false, "vha", "1 = 1", () -> new BitSet(4096));
+		assertNotNull(cache.getMask(false, "vha", "1 = 1", () -> new BitSet(4096)));
+		assertEquals(2, cache.size());
+		assertEquals(256, cache.getBytes());
+	}
+
+}
@@ -0,0 +1,55 @@
+package com.geosparc.graph.geo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import org.junit.Test;
+
+import com.geosparc.graph.geo.GlobalId.Kind;
+import com.geosparc.graph.geo.GlobalId.Type;
+
+public class GlobalIdDictionaryTest {
+
+	@Test
+	public void testDictionary() {
+		GlobalIdDictionary vertexIds = new GlobalIdDictionary(2);
+		GlobalIdDictionary edgeIds = new GlobalIdDictionary(vertexIds, 2);
+
+		assertEquals(0, vertexIds.add(new GlobalId("riool", "1")));
+		assertEquals(1, vertexIds.add(new GlobalId("vha", "1")));
+		assertEquals(2, vertexIds.add(new GlobalId("vha", "1", Type.GENERATED, Kind.GENERATED_VERTEX)));
+		assertEquals(0, edgeIds.add(new GlobalId("vha", "12")));
+		assertEquals(1, edgeIds.add(new GlobalId("connection", "12", Type.GENERATED, Kind.CONNECTION_EDGE)));
+
+		assertEquals(0, vertexIds.indexOf(new GlobalId("riool", "1")));
+		assertEquals(1, vertexIds.indexOf(new GlobalId("vha", "1")));
+		assertEquals(2, vertexIds.indexOf("vha", "1", Type.GENERATED));
+		assertEquals(-1, vertexIds.indexOf(new GlobalId("riool", "2")));
+		assertEquals(-1, vertexIds.indexOf(new GlobalId("unknown", "1")));
+		assertEquals(new GlobalId("vha", "1"), vertexIds.get(1));
+
+		// network ordinals are shared
+		assertEquals(3, vertexIds.getNetworkCount());
+		assertEquals(1, edgeIds.getNetworkOrdinal(0));
+		assertEquals(2, edgeIds.getNetworkOrdinal(1));
+		assertEquals(1, vertexIds.getNetworkOrdinal("vha"));
+		assertEquals("connection", vertexIds.getNetwork(2));
+
+		assertEquals(Kind.DATA, vertexIds.getKind(1));
+		assertEquals(Kind.GENERATED_VERTEX, vertexIds.getKind(2));
+		assertEquals(Kind.CONNECTION_EDGE, edgeIds.getKind(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testDuplicate() {
+		GlobalIdDictionary ids = new GlobalIdDictionary(1);
+		ids.add(new GlobalId("riool", "1"));
+		ids.add(new GlobalId("riool", "1"));
+	}
+
+	@Test
+	public void testHashCode() {
+		assertNotEquals(new GlobalId("riool", "1").hashCode(), new GlobalId("vha", "1").hashCode());
+	}
+
+}
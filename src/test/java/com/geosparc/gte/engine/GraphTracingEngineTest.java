@@ -2,6 +2,7 @@ package com.geosparc.gte.engine;
 
 import com.geosparc.graph.base.DGraph;
 import com.geosparc.graph.geo.GlobalId;
+import com.geosparc.graph.geo.NetworkFootprint;
 import com.geosparc.gte.TestUtilities;
 import com.geosparc.gte.config.GteConfig;
 import com.geosparc.gte.engine.impl.GraphTracingEngineImpl;
@@ -24,6 +25,7 @@ import java.io.IOException;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
 
 @RunWith(SpringRunner.class)
 @SpringBootTest(classes= {GteConfig.class, GraphTracingEngineImpl.class, TestMailSenderService.class})
@@ -53,6 +55,18 @@ public class GraphTracingEngineTest {
 		assertEquals(engine.getStatus().getStatus(), GraphStatus.Status.READY);
 	}
 
+	@Test
+	public void testFootprint() {
+		int vertices = 0, edges = 0;
+		for (NetworkFootprint footprint : engine.getFootprint()) {
+			vertices += footprint.getVertexCount();
+			edges += footprint.getEdgeCount();
+			assertTrue(footprint.getTotalBytes() > 0);
+		}
+		assertEquals(84, edges);
+		assertEquals(83, vertices);
+	}
+
 	@Test
 	public void testReloadGraph() throws InterruptedException, NoSuchFieldException {
 		GraphStatus graphStatus = Mockito.spy(engine.getStatus());
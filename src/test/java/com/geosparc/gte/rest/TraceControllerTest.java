@@ -1,10 +1,16 @@
 package com.geosparc.gte.rest;
 
+import com.geosparc.graph.base.Deadline;
+import com.geosparc.graph.base.Idp;
+import com.geosparc.graph.geo.FeatureGraphSnapshot;
+import com.geosparc.graph.geo.GlobalId;
 import com.geosparc.gte.TestUtilities;
 import com.geosparc.gte.VmmGteApplication;
 import com.geosparc.gte.engine.GraphStatus;
 import com.geosparc.gte.engine.GraphTracingEngine;
+import com.geosparc.gte.engine.GraphTracingResult;
 import org.apache.commons.io.IOUtils;
+import org.jgrapht.Graph;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -14,6 +20,7 @@ import org.junit.ClassRule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
+import org.opengis.feature.simple.SimpleFeature;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.web.client.TestRestTemplate;
@@ -22,9 +29,11 @@ import org.springframework.http.*;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.AopTestUtils;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.lang.reflect.Field;
 import java.util.*;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
@@ -48,6 +57,9 @@ public class TraceControllerTest {
 	@Autowired
 	private GraphTracingEngine graphTracingEngine;
 
+	@Autowired
+	private TraceController traceController;
+
 
 	private HttpHeaders headers = new HttpHeaders();
 	
@@ -82,6 +94,15 @@ public class TraceControllerTest {
 				HttpMethod.POST, entity, String.class);
 		
 	}
+
+	private ResponseEntity<String> trace(String requestFileName, boolean enumeratePaths) throws IOException, JSONException {
+		JSONObject request = new JSONObject(
+				IOUtils.toString(getClass().getResourceAsStream(requestFileName), "utf-8"));
+		request.put("enumeratePaths", enumeratePaths);
+		return restTemplate.exchange(
+				"http://localhost:" + port + "/trace",
+				HttpMethod.POST, new HttpEntity<String>(request.toString(), headers), String.class);
+	}
 		
 	@Test
 	public void testBasicRequest() throws Exception {
@@ -129,6 +150,24 @@ public class TraceControllerTest {
 		assertNotNull(ep.getString("zuiverings"));
 	}
 
+	@Test
+	public void testLabelSettingRequest() throws Exception {
+		ResponseEntity<String> response = trace("request-1.json", false);
+
+		// the same trace as enumerating the paths
+		JSONObject o = new JSONObject(response.getBody());
+		assertEquals(0, o.getJSONArray("warnings").length());
+		JSONObject g = o.getJSONObject("graph");
+		assertEquals(18, g.getJSONArray("vertices").length());
+		assertEquals(17, g.getJSONArray("edges").length());
+		JSONArray vs = g.getJSONArray("vertices");
+		for (int i = 0; i < vs.length(); i++) {
+			if (vs.getJSONObject(i).getString("id").equals("riool:ZG018_179130")) {
+				assertEquals(69.98546, vs.getJSONObject(i).getDouble("distance"), 0.00001);
+			}
+		}
+	}
+
 	@Test
 	public void testMultiStartRequest() throws Exception {
 		ResponseEntity<String> response = trace("request-multistart.json");
@@ -185,6 +224,27 @@ public class TraceControllerTest {
 
 	}
 
+	@Test
+	public void testFilteredRequestLabelSetting() throws JSONException, IOException {
+		// the distances per network limit the enumerated paths and the label-setting search alike
+		Map<String, Double> enumerated = getDistances(trace("request-2.json", true));
+		Map<String, Double> labelSetting = getDistances(trace("request-2.json", false));
+		assertEquals(9, enumerated.size());
+		assertEquals(enumerated.keySet(), labelSetting.keySet());
+		for (Map.Entry<String, Double> entry : enumerated.entrySet()) {
+			assertEquals(entry.getValue(), labelSetting.get(entry.getKey()), 0.00001);
+		}
+	}
+
+	private Map<String, Double> getDistances(ResponseEntity<String> response) throws JSONException {
+		JSONArray vs = new JSONObject(response.getBody()).getJSONObject("graph").getJSONArray("vertices");
+		Map<String, Double> distances = new HashMap<>();
+		for (int i = 0; i < vs.length(); i++) {
+			distances.put(vs.getJSONObject(i).getString("id"), vs.getJSONObject(i).optDouble("distance"));
+		}
+		return distances;
+	}
+
 	@Test(timeout = 10000)
 	public void testUpstreamRequest() throws JSONException, IOException {
 		waitUntilGraphInitialized();
@@ -342,6 +402,100 @@ public class TraceControllerTest {
 				.getJSONArray("vertices").length());
 	}
 
+	@Test
+	public void testReachableRequest() throws Exception {
+		HttpEntity<String> entity = new HttpEntity<String>(
+				IOUtils.toString(getClass().getResourceAsStream("request-reachable.json"), "utf-8"),
+				headers);
+		ResponseEntity<String> response = restTemplate.exchange(
+				"http://localhost:" + port + "/reachable",
+				HttpMethod.POST, entity, String.class);
+
+		JSONArray a = new JSONArray(response.getBody());
+		assertEquals(3, a.length());
+		assertTrue(a.getBoolean(0));
+		assertTrue(a.getBoolean(1));
+
+		// the same as a trace over all networks without filters
+		List<String> none = Arrays.asList(null, null);
+		Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> trace = graphTracingEngine.trace(
+				Collections.singletonList(new GlobalId("riool", "ZG018_179130")), null, null,
+				Arrays.asList("riool", "vha"), none, none, Arrays.asList(null, null), Arrays.asList(null, null),
+				false, false, null, null, false, null, null, null).getGraph();
+		assertEquals(trace.containsVertex(new Idp<>(new GlobalId("riool", "ZG018_291505"))), a.getBoolean(2));
+
+		assertEquals(Collections.singletonList(true), graphTracingEngine.isReachable(
+				Collections.singletonList(new GlobalId("riool", "ZG018_179130")),
+				Collections.singletonList(new GlobalId("riool", "ZG018_291505")), true));
+	}
+
+	@Test
+	public void testReachableSameAsTrace() throws Exception {
+		GlobalId startNode = new GlobalId("riool", "ZG018_179130");
+		for (boolean upstream : new boolean[] {false, true}) {
+			Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> trace = trace(startNode, upstream);
+			assertReachableSameAsTrace(startNode, trace, upstream);
+			// from an edge, which does not pass its source node again
+			GlobalId startEdge = trace.edgeSet().iterator().next().getId();
+			assertReachableSameAsTrace(startEdge, trace(startEdge, upstream), upstream);
+		}
+	}
+
+	private Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> trace(GlobalId start,
+			boolean upstream) throws Exception {
+		List<String> none = Arrays.asList(null, null);
+		return graphTracingEngine.trace(Collections.singletonList(start), null, null,
+				Arrays.asList("riool", "vha"), none, none, Arrays.asList(null, null), Arrays.asList(null, null),
+				upstream, false, null, null, false, null, null, null).getGraph();
+	}
+
+	private void assertReachableSameAsTrace(GlobalId start,
+			Graph<Idp<GlobalId, SimpleFeature>, Idp<GlobalId, SimpleFeature>> trace, boolean upstream) {
+		Set<GlobalId> traced = new HashSet<>();
+		trace.vertexSet().forEach(vertex -> traced.add(vertex.getId()));
+		trace.edgeSet().forEach(edge -> traced.add(edge.getId()));
+		FeatureGraphSnapshot snapshot = graphTracingEngine.getSnapshot();
+		List<GlobalId> to = new ArrayList<>();
+		for (int i = 0; i < snapshot.getVertexIds().size(); i++) {
+			to.add(snapshot.getVertexIds().get(i));
+		}
+		for (int i = 0; i < snapshot.getEdgeIds().size(); i++) {
+			to.add(snapshot.getEdgeIds().get(i));
+		}
+		List<Boolean> reachable = graphTracingEngine.isReachable(
+				Collections.nCopies(to.size(), start), to, upstream);
+		for (int i = 0; i < to.size(); i++) {
+			// the start node is reachable, also without edges
+			if (!to.get(i).equals(start)) {
+				assertEquals(to.get(i).toString(), traced.contains(to.get(i)), reachable.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testReachableRequestNotFound() throws Exception {
+		HttpEntity<String> entity = new HttpEntity<String>(
+				"{\"pairs\": [{\"from\": {\"network\": \"riool\", \"id\": \"ZG018_291505\"}, "
+				+ "\"to\": {\"network\": \"riool\", \"id\": \"unknown\"}}]}",
+				headers);
+		ResponseEntity<String> response = restTemplate.exchange(
+				"http://localhost:" + port + "/reachable",
+				HttpMethod.POST, entity, String.class);
+
+		assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+	}
+
+	@Test
+	public void testReachableSizeMismatch() {
+		try {
+			graphTracingEngine.isReachable(
+					Collections.singletonList(new GlobalId("riool", "ZG018_179130")), Collections.emptyList(), false);
+			fail();
+		} catch (IllegalArgumentException e) {
+			assertEquals("reachable_size_mismatch", e.getMessage());
+		}
+	}
+
 	@Test
 	public void testLimitRequest() throws JSONException, IOException {
 		ResponseEntity<String> response = trace("request-limit.json");
@@ -353,6 +507,48 @@ public class TraceControllerTest {
 				o.getJSONArray("warnings").get(0));
 	}
 
+	@Test
+	public void testTimeBudgetReached() throws Exception {
+		// a deadline that has already passed, as when the client disconnected before the trace started
+		Deadline deadline = new Deadline(0);
+		deadline.cancel();
+		List<String> none = Arrays.asList(null, null);
+		GraphTracingResult result = graphTracingEngine.trace(
+				Collections.singletonList(new GlobalId("vha", "6038244")), null, null,
+				Arrays.asList("riool", "vha"), none, none, Arrays.asList(null, null), Arrays.asList(null, null),
+				false, false, null, null, false, null, null, deadline);
+
+		assertTrue(result.isTimeBudgetReached());
+		assertEquals(Collections.singletonList(
+				"The time budget of the search query ran out. The returned result might be incomplete."),
+				traceController.getWarnings(new TraceRequest(), result, Locale.ENGLISH));
+	}
+
+	@Test
+	public void testPathsAbandonedRequest() throws Exception {
+		// a path budget of a byte, too little for any path
+		Object engine = AopTestUtils.getTargetObject(graphTracingEngine);
+		Field maxPathBytes = engine.getClass().getDeclaredField("maxPathBytes");
+		maxPathBytes.setAccessible(true);
+		Object budget = maxPathBytes.get(engine);
+		maxPathBytes.set(engine, 1L);
+		ResponseEntity<String> response;
+		try {
+			response = trace("request-1.json", true);
+		} finally {
+			maxPathBytes.set(engine, budget);
+		}
+
+		// traced without enumerating paths instead
+		JSONObject o = new JSONObject(response.getBody());
+		assertEquals(1, o.getJSONArray("warnings").length());
+		assertEquals("Enumerating the paths of the search query took too much memory, "
+				+ "so the trace was done without enumerating paths.", o.getJSONArray("warnings").get(0));
+		JSONObject g = o.getJSONObject("graph");
+		assertEquals(18, g.getJSONArray("vertices").length());
+		assertEquals(17, g.getJSONArray("edges").length());
+	}
+
 	@Test
 	public void testOverlaptypes() throws IOException, JSONException {
 		String response =  restTemplate.getForObject(